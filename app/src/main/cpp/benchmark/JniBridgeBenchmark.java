@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+/**
+ * Host benchmark for the orientation bridge between the native sensor fusion and Java.
+ *
+ * <p>Usage: {@code java -Djava.library.path=build -cp build/jni_bridge_benchmark.jar
+ * JniBridgeBenchmark}
+ *
+ * <p>Measures the cost per event of the two ways to hand a quaternion over to Java, the way JMH
+ * would: a few warm-up iterations to let the JIT compile the upcall, then several measured
+ * iterations, reported as the mean and the standard deviation.
+ */
+public class JniBridgeBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 10;
+    private static final int SAMPLES = 1000000;
+
+    private final ByteBuffer buffer =
+            ByteBuffer.allocateDirect(4 * Double.BYTES).order(ByteOrder.nativeOrder());
+    private final DoubleBuffer sharedOrientation = buffer.asDoubleBuffer();
+    private final double[] array = new double[4];
+    private final double[] orientation = new double[4];
+    private boolean directBuffer;
+    private double sink;
+
+    static {
+        System.loadLibrary("jni_bridge_benchmark");
+    }
+
+    public static void main(String[] args) {
+        JniBridgeBenchmark benchmark = new JniBridgeBenchmark();
+        benchmark.run(false, "SetDoubleArrayRegion + upcall");
+        benchmark.run(true, "Direct buffer + upcall");
+    }
+
+    private void run(boolean directBuffer, String name) {
+        this.directBuffer = directBuffer;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            nativeRun(directBuffer, buffer, array, SAMPLES);
+        }
+
+        double sum = 0;
+        double sumSquares = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            double ns = (double) nativeRun(directBuffer, buffer, array, SAMPLES) / SAMPLES;
+            sum += ns;
+            sumSquares += ns * ns;
+        }
+        double mean = sum / MEASURED_ITERATIONS;
+        double deviation = Math.sqrt(Math.max(0, sumSquares / MEASURED_ITERATIONS - mean * mean));
+        System.out.printf("%-32s %8.1f +- %.1f ns/event%n", name, mean, deviation);
+    }
+
+    /** Called from the native loop for every event, like SensorFusionJni.onOrientation(). */
+    private void onOrientation() {
+        if (directBuffer) {
+            for (int i = 0; i < orientation.length; i++) {
+                orientation[i] = sharedOrientation.get(i);
+            }
+            sink += orientation[3];
+        } else {
+            // The native side has already filled the array.
+            sink += array[3];
+        }
+    }
+
+    private native long nativeRun(
+            boolean directBuffer, ByteBuffer buffer, double[] array, int samples);
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Host benchmark for the native sensor fusion.
+//
+// Usage: fusion_benchmark [--contention] [trace_file]
+//
+// Measures the cost per sample of the SensorFusionEkf operations on synthetic
+// data. If a sensor trace is given, it is also replayed through the whole
+// OrientationTracker pipeline at maximum speed, both with a thread per sensor
+// and with the merged single-thread event loop. The app records one with the
+// "Record sensor trace" input setting.
+//
+// With --contention, the gyroscope and accelerometer samples are also fed from
+// two threads at 400 Hz each, like the sensor threads do, and the latency of
+// both paths is reported. The gyroscope path includes applying the queued
+// accelerometer samples, the accelerometer path only queues them.
+
+#include <algorithm>
+#include <chrono>  // NOLINT
+#include <cmath>
+#include <cstdint>
+#include <cstdio>
+#include <cstring>
+#include <functional>
+#include <thread>  // NOLINT
+#include <vector>
+
+#include "orientation_tracker.h"
+#include "sensors/accelerometer_data.h"
+#include "sensors/gyroscope_data.h"
+#include "sensors/replay/replay_source.h"
+#include "sensors/sensor_fusion_ekf.h"
+#include "sensors/sensor_thread_callbacks.h"
+#include "util/vector.h"
+
+namespace {
+
+using cardboard::AccelerometerData;
+using cardboard::GyroscopeData;
+using cardboard::OrientationTracker;
+using cardboard::ReplaySource;
+using cardboard::SensorFusionEkf;
+using cardboard::SensorThreadCallbacks;
+using cardboard::Vector3;
+using cardboard::Vector4;
+
+const int kSamples = 1000000;
+const int kSamplingPeriodUs = 11250;
+const int64_t kSamplingPeriodNs = kSamplingPeriodUs * 1000ll;
+
+// Prevents the compiler from optimizing the measured calls away.
+volatile double g_sink;
+
+// Synthetic rotation: the watch slowly waves around all axes.
+Vector3 GyroAt(int i) {
+  const double t = i * (kSamplingPeriodUs * 1e-6);
+  return Vector3(0.5 * std::sin(t), 0.3 * std::cos(1.3 * t), 0.2 * std::sin(0.7 * t));
+}
+
+Vector3 AccelAt(int i) {
+  const double t = i * (kSamplingPeriodUs * 1e-6);
+  return Vector3(0.2 * std::sin(t), 0.1 * std::cos(t), 9.81);
+}
+
+uint64_t TimestampAt(int i) { return 1000000000ull + i * kSamplingPeriodNs; }
+
+void Report(const char* name, std::chrono::steady_clock::duration elapsed, int samples) {
+  const double ns =
+      std::chrono::duration_cast<std::chrono::nanoseconds>(elapsed).count();
+  std::printf("%-36s %10.1f ns/sample\n", name, ns / samples);
+}
+
+template <typename Fn>
+void Measure(const char* name, int samples, Fn fn) {
+  const auto start = std::chrono::steady_clock::now();
+  for (int i = 0; i < samples; ++i) {
+    fn(i);
+  }
+  Report(name, std::chrono::steady_clock::now() - start, samples);
+}
+
+void BenchmarkEkf() {
+  SensorFusionEkf ekf;
+  ekf.SetBiasEstimationEnabled(true);
+
+  Measure("Accelerometer + gyroscope sample", kSamples, [&ekf](int i) {
+    const AccelerometerData accel = {TimestampAt(i), TimestampAt(i), AccelAt(i)};
+    const GyroscopeData gyro = {TimestampAt(i) + 1, TimestampAt(i) + 1, GyroAt(i)};
+    ekf.ProcessAccelerometerSample(accel);
+    ekf.ProcessGyroscopeSample(gyro);
+  });
+
+  Measure("ProcessGyroscopeSample", kSamples, [&ekf](int i) {
+    const GyroscopeData sample = {TimestampAt(kSamples + i), TimestampAt(kSamples + i),
+                                  GyroAt(i)};
+    ekf.ProcessGyroscopeSample(sample);
+  });
+
+  Measure("ProcessAccelerometerSample", kSamples, [&ekf](int i) {
+    const AccelerometerData sample = {TimestampAt(2 * kSamples + i),
+                                      TimestampAt(2 * kSamples + i), AccelAt(i)};
+    ekf.ProcessAccelerometerSample(sample);
+  });
+
+  Measure("GetLatestPoseState", kSamples, [&ekf](int /* i */) {
+    g_sink = ekf.GetLatestPoseState().sensor_from_start_rotation.GetQuaternion()[3];
+  });
+}
+
+class CountingCallbacks : public SensorThreadCallbacks {
+ public:
+  void onThreadStart() override {}
+  void onOrientation(const Vector4& quat) override {
+    g_sink = quat[3];
+    ++count;
+  }
+  void onThreadStop() override {}
+
+  int count = 0;
+};
+
+void BenchmarkGetPose() {
+  OrientationTracker tracker(Vector3::Zero(), kSamplingPeriodUs, 0, false, new CountingCallbacks());
+  Measure("OrientationTracker::GetPose", kSamples, [&tracker](int i) {
+    g_sink = tracker.GetPose(TimestampAt(i))[3];
+  });
+}
+
+void BenchmarkContention() {
+  const int kRateHz = 400;
+  const int kDurationS = 5;
+  const int kCount = kRateHz * kDurationS;
+  const std::chrono::nanoseconds period(1000000000ll / kRateHz);
+
+  SensorFusionEkf ekf;
+  ekf.SetBiasEstimationEnabled(true);
+  const auto start = std::chrono::steady_clock::now();
+
+  std::chrono::steady_clock::duration accel_total(0);
+  std::chrono::steady_clock::duration accel_worst(0);
+  std::thread accel_thread([&]() {
+    for (int i = 0; i < kCount; ++i) {
+      std::this_thread::sleep_until(start + i * period);
+      const uint64_t timestamp = TimestampAt(0) + i * period.count();
+      const AccelerometerData sample = {timestamp, timestamp, AccelAt(i)};
+
+      const auto begin = std::chrono::steady_clock::now();
+      ekf.ProcessAccelerometerSample(sample);
+      const auto elapsed = std::chrono::steady_clock::now() - begin;
+
+      accel_total += elapsed;
+      accel_worst = std::max(accel_worst, elapsed);
+    }
+  });
+
+  std::chrono::steady_clock::duration total(0);
+  std::chrono::steady_clock::duration worst(0);
+  for (int i = 0; i < kCount; ++i) {
+    std::this_thread::sleep_until(start + i * period);
+    const uint64_t timestamp = TimestampAt(0) + i * period.count() + 1;
+    const GyroscopeData sample = {timestamp, timestamp, GyroAt(i)};
+
+    const auto begin = std::chrono::steady_clock::now();
+    ekf.ProcessGyroscopeSample(sample);
+    g_sink = ekf.GetLatestPoseState().sensor_from_start_rotation.GetQuaternion()[3];
+    const auto elapsed = std::chrono::steady_clock::now() - begin;
+
+    total += elapsed;
+    worst = std::max(worst, elapsed);
+  }
+  accel_thread.join();
+
+  Report("Contended gyroscope path (mean)", total, kCount);
+  Report("Contended gyroscope path (max)", worst, 1);
+  Report("Contended accelerometer path (mean)", accel_total, kCount);
+  Report("Contended accelerometer path (max)", accel_worst, 1);
+}
+
+bool BenchmarkReplay(const char* path, bool merged, const char* name) {
+  ReplaySource* source = ReplaySource::GetInstance();
+  if (!source->Load(path, ReplaySource::Speed::kMaxSpeed)) {
+    return false;
+  }
+
+  CountingCallbacks* callbacks = new CountingCallbacks();
+  OrientationTracker tracker(Vector3::Zero(), kSamplingPeriodUs, 0, merged, callbacks);
+  tracker.Resume();
+
+  const auto start = std::chrono::steady_clock::now();
+  source->Start();
+  source->WaitUntilFinished();
+  const auto elapsed = std::chrono::steady_clock::now() - start;
+  tracker.Pause();
+
+  Report(name, elapsed, callbacks->count > 0 ? callbacks->count : 1);
+  return true;
+}
+
+}  // namespace
+
+int main(int argc, char** argv) {
+  bool contention = false;
+  const char* trace_path = nullptr;
+  for (int i = 1; i < argc; ++i) {
+    if (std::strcmp(argv[i], "--contention") == 0) {
+      contention = true;
+    } else {
+      trace_path = argv[i];
+    }
+  }
+
+  BenchmarkEkf();
+  BenchmarkGetPose();
+  if (contention) {
+    BenchmarkContention();
+  }
+  if (trace_path &&
+      (!BenchmarkReplay(trace_path, false, "Trace replay, sensor threads (per pose)") ||
+       !BenchmarkReplay(trace_path, true, "Trace replay, merged (per pose)"))) {
+    return 1;
+  }
+  return 0;
+}
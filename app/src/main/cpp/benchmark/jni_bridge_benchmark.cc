@@ -0,0 +1,68 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Native half of the JNI bridge benchmark, see JniBridgeBenchmark.java.
+//
+// Delivers synthetic quaternions to Java the way sensor_fusion_jni.cc does,
+// and the way it used to: either written into a direct buffer, or copied into
+// a Java array with SetDoubleArrayRegion, followed by the onOrientation()
+// upcall in both cases.
+
+#include <jni.h>
+
+#include <chrono>  // NOLINT
+#include <cmath>
+#include <cstring>
+
+namespace {
+
+constexpr int kOrientationSize = 4;
+
+void QuaternionAt(int i, double* quat) {
+  const double angle = i * 1e-3;
+  quat[0] = 0;
+  quat[1] = 0;
+  quat[2] = std::sin(angle / 2);
+  quat[3] = std::cos(angle / 2);
+}
+
+}  // namespace
+
+extern "C" {
+
+JNIEXPORT jlong JNICALL Java_JniBridgeBenchmark_nativeRun(
+    JNIEnv* env, jobject obj, jboolean direct_buffer, jobject buffer,
+    jdoubleArray array, jint samples) {
+  jclass clazz = env->GetObjectClass(obj);
+  const jmethodID method_on_orientation =
+      env->GetMethodID(clazz, "onOrientation", "()V");
+  double* shared = static_cast<double*>(env->GetDirectBufferAddress(buffer));
+  double quat[kOrientationSize];
+
+  const auto start = std::chrono::steady_clock::now();
+  for (int i = 0; i < samples; ++i) {
+    QuaternionAt(i, quat);
+    if (direct_buffer) {
+      std::memcpy(shared, quat, sizeof(quat));
+    } else {
+      env->SetDoubleArrayRegion(array, 0, kOrientationSize, quat);
+    }
+    env->CallVoidMethod(obj, method_on_orientation);
+  }
+  const auto elapsed = std::chrono::steady_clock::now() - start;
+  return std::chrono::duration_cast<std::chrono::nanoseconds>(elapsed).count();
+}
+
+}  // extern "C"
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Host benchmark for the median filter of the gyroscope bias estimator.
+//
+// Usage: median_filter_benchmark
+//
+// Measures the cost per sample of MedianFilter and of the straightforward
+// deque and nth_element implementation it replaced. Their equivalence is
+// checked by test/median_filter_test.
+
+#include <chrono>  // NOLINT
+#include <cstddef>
+#include <cstdio>
+#include <random>
+#include <vector>
+
+#include "sensors/median_filter.h"
+#include "test/reference_median_filter.h"
+#include "util/vector.h"
+
+namespace {
+
+using cardboard::MedianFilter;
+using cardboard::ReferenceMedianFilter;
+using cardboard::Vector3;
+
+const int kBenchmarkSamples = 2000000;
+const size_t kWindowSizes[] = {1, 2, 5, 8, 31};
+
+template <typename Filter>
+double MeasureNsPerSample(size_t window, const std::vector<Vector3>& samples) {
+  Filter filter(window);
+  double sink = 0;
+  const auto start = std::chrono::steady_clock::now();
+  for (const Vector3& sample : samples) {
+    filter.AddSample(sample);
+    if (filter.IsValid()) {
+      sink += filter.GetFilteredData()[0];
+    }
+  }
+  const auto end = std::chrono::steady_clock::now();
+  // Keep the result alive, so that the loop isn't optimized away.
+  if (sink == 0.5) {
+    std::printf("\n");
+  }
+  return std::chrono::duration<double, std::nano>(end - start).count() /
+         samples.size();
+}
+
+}  // namespace
+
+int main() {
+  std::mt19937 random(42);
+  std::normal_distribution<double> noise(0, 0.05);
+  std::vector<Vector3> samples;
+  samples.reserve(kBenchmarkSamples);
+  for (int i = 0; i < kBenchmarkSamples; ++i) {
+    samples.push_back(
+        Vector3(noise(random), noise(random), 9.81 + noise(random)));
+  }
+
+  for (size_t window : kWindowSizes) {
+    std::printf(
+        "window %zu: MedianFilter %.1f ns/sample, reference %.1f ns/sample\n",
+        window, MeasureNsPerSample<MedianFilter>(window, samples),
+        MeasureNsPerSample<ReferenceMedianFilter>(window, samples));
+  }
+  return 0;
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include "cursor_tracker.h"
+
+#include <algorithm>
+#include <cmath>
+
+namespace cardboard {
+
+namespace {
+
+const double kCursorSpeed = 1024.0 / (M_PI / 4);
+const double kStabilizeBias = 16.0;
+
+// Wraps the angle into (-pi, pi).
+double Clamp(double value) {
+  while (value <= -M_PI) {
+    value += 2 * M_PI;
+  }
+  while (value >= M_PI) {
+    value -= 2 * M_PI;
+  }
+  return value;
+}
+
+}  // namespace
+
+CursorTracker::CursorTracker(int hand_mode, bool lefty, bool stabilize)
+    : lefty_(lefty),
+      stabilize_(stabilize),
+      hand_mode_(hand_mode),
+      first_read_(true) {}
+
+void CursorTracker::SetHandMode(int hand_mode) {
+  hand_mode_ = hand_mode;
+  first_read_ = true;
+}
+
+bool CursorTracker::Update(const Vector4& quat, int* dx, int* dy) {
+  double q1 = quat[0];  // X * sin(T/2)
+  double q2 = quat[1];  // Y * sin(T/2)
+  const double q3 = quat[2];  // Z * sin(T/2)
+  const double q0 = quat[3];  // cos(T/2)
+
+  if (lefty_) {
+    // Rotate 180 degrees
+    q1 = -q1;
+    q2 = -q2;
+  }
+
+  const int hand_mode = hand_mode_;
+  if (hand_mode == kLeft) {
+    // Rotate 90 degrees counter-clockwise
+    const double x = q1;
+    q1 = -q2;
+    q2 = x;
+  } else if (hand_mode == kRight) {
+    // Rotate 90 degrees clockwise
+    const double x = q1;
+    q1 = q2;
+    q2 = -x;
+  }  // else it's kCenter for which we do not need to rotate.
+
+  const double yaw = std::atan2(2 * (q0 * q3 - q1 * q2), 1 - 2 * (q1 * q1 + q3 * q3));
+  const double pitch = std::asin(2 * (q0 * q1 + q2 * q3));
+  if (std::isnan(yaw) || std::isnan(pitch)) {
+    return false;
+  }
+
+  if (first_read_.exchange(false)) {
+    yaw_ = yaw;
+    pitch_ = pitch;
+    delta_yaw_ = 0;
+    delta_pitch_ = 0;
+    return false;
+  }
+
+  const double new_yaw = Highpass(yaw_, yaw);
+  const double new_pitch = Highpass(pitch_, pitch);
+  delta_yaw_ += Clamp(yaw_ - new_yaw);
+  delta_pitch_ += pitch_ - new_pitch;
+  yaw_ = new_yaw;
+  pitch_ = new_pitch;
+
+  const int x = static_cast<int>(std::lround(delta_yaw_ * kCursorSpeed));
+  const int y = static_cast<int>(std::lround(delta_pitch_ * kCursorSpeed));
+  if (x == 0 && y == 0) {
+    return false;
+  }
+
+  // Only subtract the part of the error that is going to be sent.
+  delta_yaw_ -= x / kCursorSpeed;
+  delta_pitch_ -= y / kCursorSpeed;
+  *dx = x;
+  *dy = y;
+  return true;
+}
+
+double CursorTracker::Highpass(double old_value, double new_value) const {
+  if (!stabilize_) {
+    return new_value;
+  }
+  const double delta = Clamp(old_value - new_value);
+  const double alpha =
+      std::max(0.0, 1 - std::pow(std::abs(delta) * kCursorSpeed / kStabilizeBias, 3));
+  return new_value + alpha * delta;
+}
+
+}  // namespace cardboard
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#ifndef CARDBOARD_CURSOR_TRACKER_H_
+#define CARDBOARD_CURSOR_TRACKER_H_
+
+#include <atomic>
+
+#include "util/vector.h"
+
+namespace cardboard {
+
+// CursorTracker translates the device orientation into mouse cursor
+// displacement, the same way MouseSensorListener does on the Java side.
+// Sub-pixel movement is accumulated until it adds up to a whole pixel, so
+// that the caller only needs to report non-zero displacement.
+class CursorTracker {
+ public:
+  // Watch location, must match MouseSensorListener.HandMode.
+  enum HandMode { kLeft = 0, kCenter = 1, kRight = 2 };
+
+  CursorTracker(int hand_mode, bool lefty, bool stabilize);
+
+  // Changes the watch location. Can be called from any thread.
+  void SetHandMode(int hand_mode);
+
+  // Processes a new orientation quaternion in (x, y, z, w) order.
+  //
+  // @param quat device orientation.
+  // @param dx receives the cursor movement along X axis, in pixels.
+  // @param dy receives the cursor movement along Y axis, in pixels.
+  // @return true if the cursor has moved by at least one pixel.
+  bool Update(const Vector4& quat, int* dx, int* dy);
+
+ private:
+  // Applies an adaptive high-pass filter if stabilization is enabled.
+  double Highpass(double old_value, double new_value) const;
+
+  const bool lefty_;
+  const bool stabilize_;
+  std::atomic<int> hand_mode_;
+  std::atomic<bool> first_read_;
+
+  double yaw_ = 0;
+  double pitch_ = 0;
+  double delta_yaw_ = 0;
+  double delta_pitch_ = 0;
+};
+
+}  // namespace cardboard
+
+#endif  // CARDBOARD_CURSOR_TRACKER_H_
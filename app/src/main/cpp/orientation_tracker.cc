@@ -24,16 +24,28 @@ namespace cardboard {
 
 OrientationTracker::OrientationTracker(const Vector3& calibration,
                                        const int sampling_period_us,
+                                       const int max_report_latency_us,
+                                       const bool merged_sensor_events,
                                        SensorThreadCallbacks* thread_callbacks)
     : sampling_period_ns_(sampling_period_us * 1000l),
-      calibration_(calibration),
+      batched_(max_report_latency_us > 0),
       thread_callbacks_(thread_callbacks),
+      trace_writer_(nullptr),
       is_tracking_(false),
-      sensor_fusion_(new SensorFusionEkf()),
-      latest_gyroscope_data_({0, 0, Vector3::Zero()}),
-      accel_sensor_(
-          new SensorEventProducer<AccelerometerData>(sampling_period_us, nullptr)),
-      gyro_sensor_(new SensorEventProducer<GyroscopeData>(sampling_period_us, thread_callbacks)) {
+      sensor_fusion_(new SensorFusionEkf(calibration)),
+      latest_gyroscope_data_({0, 0, Vector3::Zero()}) {
+  calibration_.Store(calibration);
+  // The batches of the two sensors must be merged by timestamp before they go
+  // into the filter, so the batched mode always reads them on one thread.
+  if (merged_sensor_events || batched_) {
+    merged_sensor_.reset(new MergedSensorEventProducer(
+        sampling_period_us, max_report_latency_us, thread_callbacks));
+  } else {
+    accel_sensor_.reset(new SensorEventProducer<AccelerometerData>(
+        sampling_period_us, max_report_latency_us, nullptr));
+    gyro_sensor_.reset(new SensorEventProducer<GyroscopeData>(
+        sampling_period_us, max_report_latency_us, thread_callbacks));
+  }
   sensor_fusion_->SetBiasEstimationEnabled(/*kGyroBiasEstimationEnabled*/ true);
   on_accel_callback_ = [&](const AccelerometerData& event) {
     OnAccelerometerData(event);
@@ -41,6 +53,9 @@ OrientationTracker::OrientationTracker(const Vector3& calibration,
   on_gyro_callback_ = [&](const GyroscopeData& event) {
     OnGyroscopeData(event);
   };
+  on_gyro_batch_end_callback_ = [&]() {
+    OnGyroscopeBatchEnd();
+  };
 }
 
 OrientationTracker::~OrientationTracker() {
@@ -83,12 +98,56 @@ Vector4 OrientationTracker::GetPose(int64_t timestamp_ns) const {
   return (-predicted_rotation).GetQuaternion();
 }
 
+float OrientationTracker::GetLearnedCalibration(Vector3* calibration) const {
+  const PoseState pose_state = sensor_fusion_->GetLatestPoseState();
+  *calibration = pose_state.calibration + pose_state.bias;
+  return pose_state.bias_weight;
+}
+
+void OrientationTracker::GetSnapshot(
+    SensorFusionEkf::Snapshot* snapshot) const {
+  sensor_fusion_->GetSnapshot(snapshot);
+  const Vector3 calibration =
+      sensor_fusion_->GetLatestPoseState().calibration;
+  for (int i = 0; i < 3; ++i) {
+    snapshot->bias[i] += calibration[i];
+  }
+}
+
+void OrientationTracker::RestoreSnapshot(
+    const SensorFusionEkf::Snapshot& snapshot, bool fresh) {
+  SensorFusionEkf::Snapshot relative = snapshot;
+  const Vector3 calibration =
+      sensor_fusion_->GetLatestPoseState().calibration;
+  for (int i = 0; i < 3; ++i) {
+    relative.bias[i] -= calibration[i];
+  }
+  sensor_fusion_->RestoreSnapshot(relative, fresh);
+}
+
+void OrientationTracker::SetTraceWriter(SensorTraceWriter* trace_writer) {
+  trace_writer_ = trace_writer;
+}
+
+void OrientationTracker::SetCalibration(const Vector3& calibration) {
+  calibration_.Store(calibration);
+}
+
 void OrientationTracker::RegisterCallbacks() {
+  if (merged_sensor_) {
+    merged_sensor_->StartSensorPolling(&on_accel_callback_, &on_gyro_callback_,
+                                       &on_gyro_batch_end_callback_);
+    return;
+  }
   accel_sensor_->StartSensorPolling(&on_accel_callback_);
-  gyro_sensor_->StartSensorPolling(&on_gyro_callback_);
+  gyro_sensor_->StartSensorPolling(&on_gyro_callback_, &on_gyro_batch_end_callback_);
 }
 
 void OrientationTracker::UnregisterCallbacks() {
+  if (merged_sensor_) {
+    merged_sensor_->StopSensorPolling();
+    return;
+  }
   accel_sensor_->StopSensorPolling();
   gyro_sensor_->StopSensorPolling();
 }
@@ -97,6 +156,9 @@ void OrientationTracker::OnAccelerometerData(const AccelerometerData& event) {
   if (!is_tracking_) {
     return;
   }
+  if (trace_writer_) {
+    trace_writer_->Write(event);
+  }
   sensor_fusion_->ProcessAccelerometerSample(event);
 }
 
@@ -104,16 +166,39 @@ void OrientationTracker::OnGyroscopeData(const GyroscopeData& event) {
   if (!is_tracking_) {
     return;
   }
+  if (trace_writer_) {
+    trace_writer_->Write(event);
+  }
 
+  // The filter adjusts its bias estimate on this thread, so that it never
+  // waits for the thread that has changed the calibration.
+  const Vector3 calibration = calibration_.Load();
+  sensor_fusion_->SetCalibration(calibration);
   const GyroscopeData data = {.system_timestamp = event.system_timestamp,
                               .sensor_timestamp_ns = event.sensor_timestamp_ns,
-                              .data = event.data - calibration_};
+                              .data = event.data - calibration};
 
   latest_gyroscope_data_ = data;
   sensor_fusion_->ProcessGyroscopeSample(data);
 
+  if (!batched_) {
+    ReportPose();
+  }
+}
+
+void OrientationTracker::OnGyroscopeBatchEnd() {
+  if (!is_tracking_ || !batched_) {
+    return;
+  }
+
+  // The intermediate poses of a batch are already in the past, only the
+  // latest one is worth reporting.
+  ReportPose();
+}
+
+void OrientationTracker::ReportPose() {
   thread_callbacks_->onOrientation(
-      OrientationTracker::GetPose(data.sensor_timestamp_ns + sampling_period_ns_));
+      GetPose(latest_gyroscope_data_.sensor_timestamp_ns + sampling_period_ns_));
 }
 
 }  // namespace cardboard
@@ -22,10 +22,13 @@
 
 #include "sensors/accelerometer_data.h"
 #include "sensors/gyroscope_data.h"
+#include "sensors/merged_sensor_event_producer.h"
 #include "sensors/sensor_event_producer.h"
 #include "sensors/sensor_fusion_ekf.h"
 #include "sensors/sensor_thread_callbacks.h"
+#include "sensors/sensor_trace.h"
 #include "util/rotation.h"
+#include "util/seqlock.h"
 
 namespace cardboard {
 
@@ -34,8 +37,19 @@ namespace cardboard {
 // This pose tracker reports poses in display space.
 class OrientationTracker {
  public:
+  // @param calibration gyroscope bias to subtract from the raw readings.
+  // @param sampling_period_us period between the sensor events.
+  // @param max_report_latency_us if positive, the sensor events are batched
+  //     in the hardware FIFO for up to this long, and the pose is only
+  //     reported once per batch. Implies merged_sensor_events.
+  // @param merged_sensor_events if true, both sensors are read on a single
+  //     thread and fed to the filter in strict timestamp order, otherwise
+  //     each sensor has a thread of its own.
+  // @param callbacks receives the orientation updates, owned by this.
   OrientationTracker(const Vector3& calibration,
                      const int sampling_period_us,
+                     const int max_report_latency_us,
+                     const bool merged_sensor_events,
                      SensorThreadCallbacks* callbacks);
   virtual ~OrientationTracker();
 
@@ -48,6 +62,46 @@ class OrientationTracker {
   // Gets the predicted pose for a given timestamp.
   Vector4 GetPose(int64_t timestamp_ns) const;
 
+  // Replaces the gyroscope bias subtracted from the raw readings, e.g. when it
+  // has changed with the sensor temperature. The bias estimated by the sensor
+  // fusion is adjusted by the change on the gyroscope thread, before the next
+  // sample, so that the learned bias stays the same. Can be called while
+  // tracking, but only from one thread at a time, and never waits.
+  //
+  // @param calibration new gyroscope bias.
+  void SetCalibration(const Vector3& calibration);
+
+  // Gets the gyroscope bias learned by the sensor fusion so far, including the
+  // calibration that was subtracted from the raw readings.
+  //
+  // @param calibration receives the raw gyroscope bias in rad/s.
+  // @return sum of the sample weights the estimate is based on, or zero if
+  //     there is no valid estimate yet.
+  float GetLearnedCalibration(Vector3* calibration) const;
+
+  // Captures the sensor fusion state, with the gyroscope bias including the
+  // calibration, so that it can be restored with a different one. Must only be
+  // called while paused.
+  //
+  // @param snapshot receives the sensor fusion state.
+  void GetSnapshot(SensorFusionEkf::Snapshot* snapshot) const;
+
+  // Records the raw sensor events into a trace, for the replay on a host. Must
+  // be called before Resume.
+  //
+  // @param trace_writer the trace to write the events to, or nullptr to stop
+  //     recording. Not owned, must outlive the tracking.
+  void SetTraceWriter(SensorTraceWriter* trace_writer);
+
+  // Restores the sensor fusion state captured with GetSnapshot. Must be called
+  // before Resume.
+  //
+  // @param snapshot the sensor fusion state to restore.
+  // @param fresh whether the snapshot was taken recently, otherwise the
+  //     orientation is not restored. The bias estimate is always restored,
+  //     relative to the current calibration.
+  void RestoreSnapshot(const SensorFusionEkf::Snapshot& snapshot, bool fresh);
+
  private:
   // Function called when receiving AccelerometerData.
   //
@@ -59,6 +113,12 @@ class OrientationTracker {
   // @param event sensor event.
   void OnGyroscopeData(const GyroscopeData& event);
 
+  // Function called after the last event of a batch.
+  void OnGyroscopeBatchEnd();
+
+  // Reports the pose predicted for the next sample after the latest one.
+  void ReportPose();
+
   // Registers this as a listener for data from the accel and gyro sensors. This
   // is useful for informing the sensors that they may need to start polling for
   // data.
@@ -69,8 +129,14 @@ class OrientationTracker {
   void UnregisterCallbacks();
 
   long sampling_period_ns_;
-  Vector3 calibration_;
+  // Whether the pose is reported once per batch instead of once per sample.
+  bool batched_;
+  // Written by SetCalibration, read on the gyroscope thread, which passes it on
+  // to the sensor fusion.
+  SeqLock<Vector3> calibration_;
   std::unique_ptr<SensorThreadCallbacks> thread_callbacks_;
+  // Optional, receives the raw sensor events.
+  SensorTraceWriter* trace_writer_;
 
   std::atomic<bool> is_tracking_;
   // Sensor Fusion object that stores the internal state of the filter.
@@ -79,13 +145,15 @@ class OrientationTracker {
   GyroscopeData latest_gyroscope_data_;
 
   // Event providers supplying AccelerometerData and GyroscopeData to the
-  // detector.
+  // detector. Either the merged one, or one per sensor.
+  std::unique_ptr<MergedSensorEventProducer> merged_sensor_;
   std::shared_ptr<SensorEventProducer<AccelerometerData>> accel_sensor_;
   std::shared_ptr<SensorEventProducer<GyroscopeData>> gyro_sensor_;
 
   // Callback functions registered to the input SingleTypeEventProducer.
   std::function<void(AccelerometerData)> on_accel_callback_;
   std::function<void(GyroscopeData)> on_gyro_callback_;
+  std::function<void()> on_gyro_batch_end_callback_;
 };
 
 }  // namespace cardboard
@@ -17,7 +17,14 @@
 #include <android/log.h>
 #include <jni.h>
 
+#include <cstdint>
+#include <cstring>
+#include <memory>
+
+#include "cursor_tracker.h"
 #include "orientation_tracker.h"
+#include "sensors/sensor_trace.h"
+#include "util/logging.h"
 
 #define JNI_METHOD(return_type, method_name) \
   JNIEXPORT return_type JNICALL              \
@@ -25,54 +32,94 @@
 
 namespace {
 
-inline jlong jptr(cardboard::OrientationTracker* native_app) {
+class JNIThreadCallbacks;
+
+// Everything that is created by nativeInit and destroyed by nativeDestroy.
+struct NativeApp {
+  // Declared first, so that it is closed after the tracker has stopped.
+  std::unique_ptr<cardboard::SensorTraceWriter> trace_writer;
+  std::unique_ptr<cardboard::OrientationTracker> tracker;
+  // Owned by the tracker.
+  JNIThreadCallbacks* callbacks;
+};
+
+inline jlong jptr(NativeApp* native_app) {
   return reinterpret_cast<intptr_t>(native_app);
 }
 
-inline cardboard::OrientationTracker* native(jlong ptr) {
-  return reinterpret_cast<cardboard::OrientationTracker*>(ptr);
+inline NativeApp* native(jlong ptr) {
+  return reinterpret_cast<NativeApp*>(ptr);
 }
 
+// The direct buffer shared with SensorFusionJni holds the orientation quaternion. It is only
+// written on the sensor thread right before the upcall, and read by Java within the upcall on the
+// same thread, so it needs no synchronization.
+constexpr int kOrientationSize = 4;
+static_assert(sizeof(cardboard::Vector4) == kOrientationSize * sizeof(double),
+              "Unexpected quaternion layout");
+
 class JNIThreadCallbacks : public cardboard::SensorThreadCallbacks {
 public:
-  JNIThreadCallbacks(JNIEnv* env, jobject obj) {
+  // @param cursor_tracker if not null, the orientation is translated into
+  //     cursor movement, and Java is only called when the cursor has moved.
+  JNIThreadCallbacks(JNIEnv* env, jobject obj, jobject buffer,
+                     cardboard::CursorTracker* cursor_tracker)
+      : cursor_tracker_(cursor_tracker) {
     env->GetJavaVM(&jvm_);
     obj_ = env->NewGlobalRef(obj);
+    buffer_ = env->NewGlobalRef(buffer);
+    shared_ = static_cast<double*>(env->GetDirectBufferAddress(buffer_));
 
     jclass clazz = env->FindClass("com/ginkage/wearmouse/sensors/SensorFusionJni");
     method_on_orientation_ = env->GetMethodID(clazz, "onOrientation", "()V");
-    field_orientation_ = env->GetFieldID(clazz, "orientation", "[D");
+    method_on_cursor_move_ = env->GetMethodID(clazz, "onCursorMove", "(II)V");
+  }
+
+  void SetHandMode(int hand_mode) {
+    if (cursor_tracker_) {
+      cursor_tracker_->SetHandMode(hand_mode);
+    }
   }
 
   void onThreadStart() override {
     JavaVMAttachArgs args = {.version = JNI_VERSION_1_6, .name = nullptr, .group = nullptr};
     jvm_->AttachCurrentThread(&env_, &args);
-    dst_orientation_ =
-        reinterpret_cast<jdoubleArray>(env_->GetObjectField(obj_, field_orientation_));
     running_ = true;
   }
 
   void onOrientation(const cardboard::Vector4& quat) override {
-    if (running_) {
-      env_->SetDoubleArrayRegion(dst_orientation_, 0, 4, reinterpret_cast<const jdouble *>(&quat));
+    if (!running_) {
+      return;
+    }
+
+    if (cursor_tracker_) {
+      int dx, dy;
+      if (cursor_tracker_->Update(quat, &dx, &dy)) {
+        env_->CallVoidMethod(obj_, method_on_cursor_move_, dx, dy);
+      }
+    } else {
+      std::memcpy(shared_, &quat, kOrientationSize * sizeof(double));
       env_->CallVoidMethod(obj_, method_on_orientation_);
     }
   }
 
   void onThreadStop() override {
     running_ = false;
+    env_->DeleteGlobalRef(buffer_);
     env_->DeleteGlobalRef(obj_);
     jvm_->DetachCurrentThread();
   }
 
 private:
+  std::unique_ptr<cardboard::CursorTracker> cursor_tracker_;
   bool running_ = false;
   JavaVM* jvm_ = nullptr;
   JNIEnv* env_ = nullptr;
-  jdoubleArray dst_orientation_ = nullptr;
+  double* shared_ = nullptr;
   jmethodID method_on_orientation_;
-  jfieldID field_orientation_;
+  jmethodID method_on_cursor_move_;
   jobject obj_;
+  jobject buffer_;
 };
 
 }  // anonymous namespace
@@ -83,23 +130,76 @@ JNIEXPORT jint JNI_OnLoad(JavaVM* vm, void* reserved) {
   return JNI_VERSION_1_6;
 }
 
+JNI_METHOD(jint, nativeGetSnapshotSize)
+(JNIEnv* env, jclass clazz) {
+  return cardboard::kSnapshotSize;
+}
+
 JNI_METHOD(jlong, nativeInit)
-(JNIEnv* env, jobject obj, jdoubleArray calibration, jint sampling_period_us) {
+(JNIEnv* env, jobject obj, jobject buffer, jdoubleArray calibration, jdoubleArray snapshot,
+ jboolean fresh_snapshot, jint sampling_period_us, jint max_report_latency_us,
+ jboolean merged_events, jboolean cursor_mode, jint hand_mode, jboolean lefty,
+ jboolean stabilize, jstring trace_path) {
   cardboard::Vector3 bias;
   env->GetDoubleArrayRegion(calibration, 0, 3, reinterpret_cast<jdouble*>(&bias));
 
-  auto tracker =
-    new cardboard::OrientationTracker(
-      bias, sampling_period_us, new JNIThreadCallbacks(env, obj));
-  tracker->Resume();
-  return jptr(tracker);
+  cardboard::CursorTracker* cursor_tracker =
+      cursor_mode ? new cardboard::CursorTracker(hand_mode, lefty, stabilize) : nullptr;
+
+  auto app = new NativeApp();
+  app->callbacks = new JNIThreadCallbacks(env, obj, buffer, cursor_tracker);
+  app->tracker.reset(new cardboard::OrientationTracker(
+    bias, sampling_period_us, max_report_latency_us, merged_events, app->callbacks));
+  if (snapshot != nullptr && env->GetArrayLength(snapshot) != cardboard::kSnapshotSize) {
+    CARDBOARD_LOGE("Ignoring a snapshot of %d values instead of %d", env->GetArrayLength(snapshot),
+                   cardboard::kSnapshotSize);
+  } else if (snapshot != nullptr) {
+    cardboard::SensorFusionEkf::Snapshot state;
+    env->GetDoubleArrayRegion(snapshot, 0, cardboard::kSnapshotSize,
+                              reinterpret_cast<jdouble*>(&state));
+    app->tracker->RestoreSnapshot(state, fresh_snapshot);
+  }
+  if (trace_path != nullptr) {
+    const char* path = env->GetStringUTFChars(trace_path, nullptr);
+    app->trace_writer.reset(new cardboard::SensorTraceWriter());
+    if (app->trace_writer->Open(path)) {
+      app->tracker->SetTraceWriter(app->trace_writer.get());
+    }
+    env->ReleaseStringUTFChars(trace_path, path);
+  }
+  app->tracker->Resume();
+  return jptr(app);
+}
+
+JNI_METHOD(void, nativeSetHandMode)
+(JNIEnv* env, jobject obj, jlong native_app, jint hand_mode) {
+  native(native_app)->callbacks->SetHandMode(hand_mode);
+}
+
+JNI_METHOD(void, nativeSetCalibration)
+(JNIEnv* env, jobject obj, jlong native_app, jdoubleArray calibration) {
+  cardboard::Vector3 bias;
+  env->GetDoubleArrayRegion(calibration, 0, 3, reinterpret_cast<jdouble*>(&bias));
+  native(native_app)->tracker->SetCalibration(bias);
+}
+
+JNI_METHOD(jdouble, nativeGetCalibration)
+(JNIEnv* env, jobject obj, jlong native_app, jdoubleArray calibration) {
+  cardboard::Vector3 bias;
+  const float weight = native(native_app)->tracker->GetLearnedCalibration(&bias);
+  env->SetDoubleArrayRegion(calibration, 0, 3, reinterpret_cast<const jdouble*>(&bias));
+  return weight;
 }
 
 JNI_METHOD(void, nativeDestroy)
-(JNIEnv* env, jobject obj, jlong native_app) {
-  cardboard::OrientationTracker* tracker = native(native_app);
-  tracker->Pause();
-  delete tracker;
+(JNIEnv* env, jobject obj, jlong native_app, jdoubleArray snapshot) {
+  NativeApp* app = native(native_app);
+  app->tracker->Pause();
+  cardboard::SensorFusionEkf::Snapshot state;
+  app->tracker->GetSnapshot(&state);
+  env->SetDoubleArrayRegion(snapshot, 0, cardboard::kSnapshotSize,
+                            reinterpret_cast<const jdouble*>(&state));
+  delete app;
 }
 
 }  // extern "C"
@@ -77,7 +77,14 @@ class SensorEventQueueReader {
     ASensorManager_destroyEventQueue(manager_, queue_);
   }
 
-  bool Start(int32_t sampling_period_us) {
+  bool Start(int32_t sampling_period_us, int64_t max_report_latency_us) {
+    // Let the sensor hub collect the events in its FIFO, if batching is
+    // requested and supported. Otherwise, wake up for every event.
+    if (max_report_latency_us > 0 &&
+        ASensorEventQueue_registerSensor(queue_, sensor_, sampling_period_us,
+                                         max_report_latency_us) >= 0) {
+      return true;
+    }
     ASensorEventQueue_enableSensor(queue_, sensor_);
     ASensorEventQueue_setEventRate(queue_, sensor_, sampling_period_us);
     return true;
@@ -153,12 +160,13 @@ void DeviceAccelerometerSensor::PollForSensorData(
   } while (sensor_info_->reader->ReadEvent(&event));
 }
 
-bool DeviceAccelerometerSensor::Start(const int sampling_period_us) {
+bool DeviceAccelerometerSensor::Start(const int sampling_period_us,
+                                      const int max_report_latency_us) {
   if (!sensor_info_->reader) {
     CARDBOARD_LOGE("Could not start accelerometer sensor");
     return false;
   }
-  return sensor_info_->reader->Start(sampling_period_us);
+  return sensor_info_->reader->Start(sampling_period_us, max_report_latency_us);
 }
 
 void DeviceAccelerometerSensor::Stop() {
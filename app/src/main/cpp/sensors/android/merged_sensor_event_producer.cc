@@ -0,0 +1,221 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include "sensors/merged_sensor_event_producer.h"
+
+#include <android/looper.h>
+#include <android/sensor.h>
+
+#include <atomic>
+#include <memory>
+#include <mutex>   // NOLINT
+#include <thread>  // NOLINT
+
+#include "sensors/sensor_event_merger.h"
+#include "util/logging.h"
+
+// Workaround to avoid the inclusion of "android_native_app_glue.h.
+#ifndef LOOPER_ID_USER
+#define LOOPER_ID_USER 3
+#endif
+
+namespace cardboard {
+
+namespace {
+
+// Not defined in the native public sensors API, see device_gyroscope_sensor.cc.
+enum PrivateSensors {
+  ASENSOR_TYPE_GYROSCOPE_UNCALIBRATED = 16,
+};
+
+// Number of events read from the queue at once.
+const int kReadChunkSize = 16;
+
+const ASensor* InitGyroscope(ASensorManager* sensor_manager) {
+  const ASensor* gyro = ASensorManager_getDefaultSensor(
+      sensor_manager, ASENSOR_TYPE_GYROSCOPE_UNCALIBRATED);
+  if (gyro != nullptr) {
+    return gyro;
+  }
+  return ASensorManager_getDefaultSensor(sensor_manager,
+                                         ASENSOR_TYPE_GYROSCOPE);
+}
+
+bool StartSensor(ASensorEventQueue* queue, const ASensor* sensor,
+                 int sampling_period_us, int64_t max_report_latency_us) {
+  if (max_report_latency_us > 0 &&
+      ASensorEventQueue_registerSensor(queue, sensor, sampling_period_us,
+                                       max_report_latency_us) >= 0) {
+    return true;
+  }
+  if (ASensorEventQueue_enableSensor(queue, sensor) < 0) {
+    return false;
+  }
+  ASensorEventQueue_setEventRate(queue, sensor, sampling_period_us);
+  return true;
+}
+
+}  // namespace
+
+struct MergedSensorEventProducer::EventProducer {
+  EventProducer() : run_thread(false) {}
+  // Capture thread. This will be created when polling is started, and
+  // destroyed when polling is stopped.
+  std::unique_ptr<std::thread> thread;
+  std::mutex mutex;
+  // Flag indicating if the capture thread should run.
+  std::atomic<bool> run_thread;
+};
+
+MergedSensorEventProducer::MergedSensorEventProducer(
+    const int sampling_period_us, const int max_report_latency_us,
+    SensorThreadCallbacks* thread_callbacks)
+    : event_producer_(new EventProducer()),
+      sampling_period_us_(sampling_period_us),
+      max_report_latency_us_(max_report_latency_us),
+      thread_callbacks_(thread_callbacks),
+      on_accel_callback_(nullptr),
+      on_gyro_callback_(nullptr),
+      on_batch_end_callback_(nullptr) {}
+
+MergedSensorEventProducer::~MergedSensorEventProducer() {
+  StopSensorPolling();
+}
+
+void MergedSensorEventProducer::StartSensorPolling(
+    const std::function<void(AccelerometerData)>* on_accel_callback,
+    const std::function<void(GyroscopeData)>* on_gyro_callback,
+    const std::function<void()>* on_batch_end_callback) {
+  on_accel_callback_ = on_accel_callback;
+  on_gyro_callback_ = on_gyro_callback;
+  on_batch_end_callback_ = on_batch_end_callback;
+  std::unique_lock<std::mutex> lock(event_producer_->mutex);
+  StartSensorPollingLocked();
+}
+
+void MergedSensorEventProducer::StopSensorPolling() {
+  std::unique_lock<std::mutex> lock(event_producer_->mutex);
+  StopSensorPollingLocked();
+  on_accel_callback_ = nullptr;
+  on_gyro_callback_ = nullptr;
+  on_batch_end_callback_ = nullptr;
+}
+
+void MergedSensorEventProducer::StartSensorPollingLocked() {
+  // If the thread is started already there is nothing left to do.
+  if (event_producer_->run_thread.exchange(true)) {
+    return;
+  }
+
+  event_producer_->thread.reset(
+      new std::thread([&]() {
+          if (thread_callbacks_) {
+            thread_callbacks_->onThreadStart();
+          }
+
+          WorkFn();
+
+          if (thread_callbacks_) {
+            thread_callbacks_->onThreadStop();
+          }
+      }));
+}
+
+void MergedSensorEventProducer::StopSensorPollingLocked() {
+  // If the thread is already stop nothing needs to be done.
+  if (!event_producer_->run_thread.exchange(false)) {
+    return;
+  }
+
+  if (!event_producer_->thread || !event_producer_->thread->joinable()) {
+    return;
+  }
+  event_producer_->thread->join();
+  event_producer_->thread.reset();
+}
+
+void MergedSensorEventProducer::WorkFn() {
+  ASensorManager* manager = ASensorManager_getInstance();
+  const ASensor* accel =
+      ASensorManager_getDefaultSensor(manager, ASENSOR_TYPE_ACCELEROMETER);
+  const ASensor* gyro = InitGyroscope(manager);
+  if (accel == nullptr || gyro == nullptr) {
+    CARDBOARD_LOGE("MergedSensorEventProducer: sensors are not available.");
+    return;
+  }
+
+  ALooper* looper = ALooper_forThread();
+  if (looper == nullptr) {
+    looper = ALooper_prepare(ALOOPER_PREPARE_ALLOW_NON_CALLBACKS);
+  }
+  ASensorEventQueue* queue = ASensorManager_createEventQueue(
+      manager, looper, LOOPER_ID_USER, nullptr, nullptr);
+
+  if (!StartSensor(queue, accel, sampling_period_us_, max_report_latency_us_) ||
+      !StartSensor(queue, gyro, sampling_period_us_, max_report_latency_us_)) {
+    CARDBOARD_LOGE("MergedSensorEventProducer: failed to enable the sensors.");
+    ASensorEventQueue_disableSensor(queue, accel);
+    ASensorManager_destroyEventQueue(manager, queue);
+    return;
+  }
+
+  // The two sensors share the queue, but each has its own hardware FIFO, so
+  // the events of one sensor may arrive before the older events of the other.
+  SensorEventMerger merger(max_report_latency_us_ * 1000ll +
+                           kMaxWaitMilliseconds * 1000000ll);
+  ASensorEvent events[kReadChunkSize];
+
+  while (event_producer_->run_thread) {
+    int num_events = 0;
+    void* source = nullptr;
+    const int looper_id =
+        ALooper_pollAll(kMaxWaitMilliseconds, nullptr, &num_events, &source);
+
+    bool timed_out = true;
+    if (looper_id == LOOPER_ID_USER) {
+      ssize_t count;
+      while ((count = ASensorEventQueue_getEvents(queue, events,
+                                                  kReadChunkSize)) > 0) {
+        timed_out = false;
+        for (ssize_t i = 0; i < count; ++i) {
+          const ASensorEvent& event = events[i];
+          // The event values in ASensorEvent (event, acceleration and
+          // magnetic) are all in the same union type so they can be
+          // accessed by event.
+          const Vector3 data = {event.vector.x, event.vector.y,
+                                event.vector.z};
+          if (event.type == ASENSOR_TYPE_ACCELEROMETER) {
+            merger.AddAccelerometer(event.timestamp, data);
+          } else if (event.type == ASENSOR_TYPE_GYROSCOPE ||
+                     event.type == ASENSOR_TYPE_GYROSCOPE_UNCALIBRATED) {
+            merger.AddGyroscope(event.timestamp, data);
+          }
+        }
+      }
+    }
+
+    const size_t delivered =
+        merger.Deliver(timed_out, on_accel_callback_, on_gyro_callback_);
+    if (delivered > 0 && on_batch_end_callback_) {
+      (*on_batch_end_callback_)();
+    }
+  }
+
+  ASensorEventQueue_disableSensor(queue, accel);
+  ASensorEventQueue_disableSensor(queue, gyro);
+  ASensorManager_destroyEventQueue(manager, queue);
+}
+
+}  // namespace cardboard
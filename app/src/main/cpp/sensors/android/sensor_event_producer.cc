@@ -41,10 +41,14 @@ struct SensorEventProducer<DataType>::EventProducer {
 
 template <typename DataType>
 SensorEventProducer<DataType>::SensorEventProducer(const int sampling_period_us,
+                                                   const int max_report_latency_us,
                                                    SensorThreadCallbacks* thread_callbacks)
     : event_producer_(new EventProducer()),
       sampling_period_us_(sampling_period_us),
-      thread_callbacks_(thread_callbacks) {}
+      max_report_latency_us_(max_report_latency_us),
+      thread_callbacks_(thread_callbacks),
+      on_event_callback_(nullptr),
+      on_batch_end_callback_(nullptr) {}
 
 template <typename DataType>
 SensorEventProducer<DataType>::~SensorEventProducer() {
@@ -53,8 +57,10 @@ SensorEventProducer<DataType>::~SensorEventProducer() {
 
 template <typename DataType>
 void SensorEventProducer<DataType>::StartSensorPolling(
-    const std::function<void(DataType)>* on_event_callback) {
+    const std::function<void(DataType)>* on_event_callback,
+    const std::function<void()>* on_batch_end_callback) {
   on_event_callback_ = on_event_callback;
+  on_batch_end_callback_ = on_batch_end_callback;
   std::unique_lock<std::mutex> lock(event_producer_->mutex);
   StartSensorPollingLocked();
 }
@@ -64,6 +70,7 @@ void SensorEventProducer<DataType>::StopSensorPolling() {
   std::unique_lock<std::mutex> lock(event_producer_->mutex);
   StopSensorPollingLocked();
   on_event_callback_ = nullptr;
+  on_batch_end_callback_ = nullptr;
 }
 
 template <typename DataType>
@@ -105,7 +112,7 @@ template <>
 void SensorEventProducer<AccelerometerData>::WorkFn() {
   DeviceAccelerometerSensor sensor;
 
-  if (!sensor.Start(sampling_period_us_)) {
+  if (!sensor.Start(sampling_period_us_, max_report_latency_us_)) {
     return;
   }
 
@@ -122,6 +129,9 @@ void SensorEventProducer<AccelerometerData>::WorkFn() {
         (*on_event_callback_)(event);
       }
     }
+    if (!sensor_events_vec.empty() && on_batch_end_callback_) {
+      (*on_batch_end_callback_)();
+    }
   }
   sensor.Stop();
 }
@@ -130,7 +140,7 @@ template <>
 void SensorEventProducer<GyroscopeData>::WorkFn() {
   DeviceGyroscopeSensor sensor;
 
-  if (!sensor.Start(sampling_period_us_)) {
+  if (!sensor.Start(sampling_period_us_, max_report_latency_us_)) {
     return;
   }
 
@@ -147,6 +157,9 @@ void SensorEventProducer<GyroscopeData>::WorkFn() {
         (*on_event_callback_)(event);
       }
     }
+    if (!sensor_events_vec.empty() && on_batch_end_callback_) {
+      (*on_batch_end_callback_)();
+    }
   }
   sensor.Stop();
 }
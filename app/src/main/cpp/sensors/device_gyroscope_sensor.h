@@ -35,8 +35,11 @@ class DeviceGyroscopeSensor {
   // Starts the sensor capture process.
   // This must be called successfully before calling PollForSensorData().
   //
+  // @param sampling_period_us period between the sensor events.
+  // @param max_report_latency_us how long the events may be batched in the
+  //     sensor hardware FIFO before they are delivered, 0 to disable batching.
   // @return false if the requested sensor is not supported.
-  bool Start(const int sampling_period_us);
+  bool Start(const int sampling_period_us, const int max_report_latency_us);
 
   // Actively waits up to timeout_ms and polls for sensor data. If
   // timeout_ms < 0, it waits indefinitely until sensor data is
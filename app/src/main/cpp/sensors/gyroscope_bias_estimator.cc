@@ -131,6 +131,11 @@ void GyroscopeBiasEstimator::Reset() {
   gyroscope_static_counter_->Reset();
 }
 
+void GyroscopeBiasEstimator::OffsetGyroscope(const Vector3& offset) {
+  gyroscope_lowpass_filter_.Offset(offset);
+  gyroscope_bias_lowpass_filter_.Offset(offset);
+}
+
 void GyroscopeBiasEstimator::ProcessGyroscope(const Vector3& gyroscope_sample,
                                               uint64_t timestamp_ns) {
   // Update gyroscope and gyroscope delta low-pass filters.
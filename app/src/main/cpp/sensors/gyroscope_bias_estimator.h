@@ -89,11 +89,23 @@ class GyroscopeBiasEstimator {
   // Resets the estimator state.
   void Reset();
 
+  // Shifts the gyroscope state, including the bias estimate, when all the
+  // following gyroscope samples are going to be shifted by the same offset.
+  //
+  // @param offset value added to the gyroscope samples from now on.
+  void OffsetGyroscope(const Vector3& offset);
+
   // Returns true if the current estimate returned by GetGyroscopeBias is
   // correct. The device (measured using the sensors) has to be static for this
   // function to return true.
   virtual bool IsCurrentEstimateValid() const;
 
+  // Returns the sum of the weights of the samples accumulated since the device
+  // became static, i.e. how much data the current estimate is based on.
+  float GetAccumulatedWeight() const {
+    return current_accumulated_weights_gyroscope_bias_;
+  }
+
  private:
   // A helper class to keep track of whether some signal can be considered
   // static over specified number of frames.
@@ -80,4 +80,10 @@ void LowpassFilter::Reset() {
   filtered_data_ = {0, 0, 0};
 }
 
+void LowpassFilter::Offset(const Vector3& offset) {
+  if (initialized_) {
+    filtered_data_ = filtered_data_ + offset;
+  }
+}
+
 }  // namespace cardboard
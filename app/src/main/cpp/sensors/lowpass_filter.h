@@ -65,6 +65,13 @@ class LowpassFilter {
   // Resets filter state.
   void Reset();
 
+  // Shifts the filtered value, so that a constant offset applied to all the
+  // following samples doesn't have to be filtered in. No-op if no samples have
+  // been added.
+  //
+  // @param offset value to add to the filtered data.
+  void Offset(const Vector3& offset);
+
  private:
   const double cutoff_time_constant_;
   uint64_t timestamp_most_recent_update_ns_;
@@ -16,49 +16,83 @@
 #include "sensors/median_filter.h"
 
 #include <algorithm>
-#include <vector>
 
 #include "util/vector.h"
 #include "util/vectorutils.h"
 
 namespace cardboard {
 
-MedianFilter::MedianFilter(size_t filter_size) : filter_size_(filter_size) {}
+MedianFilter::MedianFilter(size_t filter_size)
+    : filter_size_(filter_size),
+      buffer_(filter_size),
+      norms_(filter_size),
+      next_(0),
+      count_(0) {
+  sorted_.reserve(filter_size);
+}
 
 void MedianFilter::AddSample(const Vector3& sample) {
-  buffer_.push_back(sample);
-  norms_.push_back(Length(sample));
-  if (buffer_.size() > filter_size_) {
-    buffer_.pop_front();
-    norms_.pop_front();
+  if (filter_size_ == 0) {
+    return;
+  }
+
+  if (count_ == filter_size_) {
+    // Drop the oldest sample, which is about to be overwritten.
+    sorted_.erase(sorted_.begin() + FindSorted(next_));
+  } else {
+    ++count_;
   }
+
+  const float norm = static_cast<float>(Length(sample));
+  buffer_[next_] = sample;
+  norms_[next_] = norm;
+
+  // Insert after all the equal norms, so that they stay ordered by age. The
+  // capacity is reserved, so this never allocates.
+  auto it = std::upper_bound(
+      sorted_.begin(), sorted_.end(), norm,
+      [this](float value, size_t slot) { return value < norms_[slot]; });
+  sorted_.insert(it, next_);
+
+  next_ = (next_ + 1) % filter_size_;
 }
 
-bool MedianFilter::IsValid() const { return buffer_.size() == filter_size_; }
+bool MedianFilter::IsValid() const { return count_ == filter_size_; }
 
 Vector3 MedianFilter::GetFilteredData() const {
-  std::vector<float> norms(norms_.begin(), norms_.end());
+  if (count_ == 0) {
+    return Vector3::Zero();
+  }
 
   // Get median of value of the norms.
-  std::nth_element(norms.begin(), norms.begin() + filter_size_ / 2,
-                   norms.end());
-  const float median_norm = norms[filter_size_ / 2];
-
-  // Get median value based on their norm.
-  auto median_it = buffer_.begin();
-  for (const auto norm : norms_) {
-    if (norm == median_norm) {
-      break;
-    }
-    ++median_it;
-  }
+  size_t median = count_ / 2;
+  const float median_norm = norms_[sorted_[median]];
 
-  return *median_it;
+  // Of the samples with the median norm, return the oldest one.
+  while (median > 0 && norms_[sorted_[median - 1]] == median_norm) {
+    --median;
+  }
+  return buffer_[sorted_[median]];
 }
 
 void MedianFilter::Reset() {
-  buffer_.clear();
-  norms_.clear();
+  sorted_.clear();
+  next_ = 0;
+  count_ = 0;
+}
+
+size_t MedianFilter::FindSorted(size_t slot) const {
+  const float norm = norms_[slot];
+  size_t pos = std::lower_bound(sorted_.begin(), sorted_.end(), norm,
+                                [this](size_t other, float value) {
+                                  return norms_[other] < value;
+                                }) -
+               sorted_.begin();
+  // Slots with equal norms are next to each other.
+  while (sorted_[pos] != slot) {
+    ++pos;
+  }
+  return pos;
 }
 
 }  // namespace cardboard
@@ -16,13 +16,19 @@
 #ifndef CARDBOARD_SDK_SENSORS_MEDIAN_FILTER_H_
 #define CARDBOARD_SDK_SENSORS_MEDIAN_FILTER_H_
 
-#include <deque>
+#include <cstddef>
+#include <vector>
 
 #include "util/vector.h"
 
 namespace cardboard {
 
 // Fixed window FIFO median filter for vectors of the given dimension = 3.
+//
+// The samples are kept in a preallocated ring buffer, along with the buffer
+// slots sorted by the sample norm, which is updated incrementally with a binary
+// search on every new sample. Neither adding a sample nor getting the median
+// allocates memory, and the median is read directly from the sorted slots.
 class MedianFilter {
  public:
   // Creates a median filter of size filter_size.
@@ -42,10 +48,21 @@ class MedianFilter {
   void Reset();
 
  private:
+  // Returns the position of the buffer slot in sorted_.
+  size_t FindSorted(size_t slot) const;
+
   const size_t filter_size_;
-  std::deque<Vector3> buffer_;
+  // Ring buffer of samples, with the oldest one at next_ once it is full.
+  std::vector<Vector3> buffer_;
   // Contains norms of the elements stored in buffer_.
-  std::deque<float> norms_;
+  std::vector<float> norms_;
+  // Slots of buffer_ in the ascending order of their norms. Slots with equal
+  // norms are ordered from the oldest sample to the newest one.
+  std::vector<size_t> sorted_;
+  // Slot for the next sample.
+  size_t next_;
+  // Number of samples in buffer_.
+  size_t count_;
 };
 
 }  // namespace cardboard
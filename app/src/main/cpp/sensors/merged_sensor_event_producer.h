@@ -0,0 +1,92 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#ifndef CARDBOARD_SDK_SENSORS_MERGED_SENSOR_EVENT_PRODUCER_H_
+#define CARDBOARD_SDK_SENSORS_MERGED_SENSOR_EVENT_PRODUCER_H_
+
+#include <functional>
+#include <memory>
+
+#include "sensors/accelerometer_data.h"
+#include "sensors/gyroscope_data.h"
+#include "sensors/sensor_thread_callbacks.h"
+
+namespace cardboard {
+
+// Stream publisher that reads both the accelerometer and the gyroscope data
+// from a single sensor event queue, on a single thread.
+//
+// Unlike a pair of SensorEventProducer instances, the events of both sensors
+// are merged by sensor_timestamp_ns and delivered in strict time order, which
+// makes the fusion output deterministic and saves a thread wakeup for every
+// sample. All the callbacks are called on the same capture thread.
+class MergedSensorEventProducer {
+ public:
+  // @param sampling_period_us period between the sensor events.
+  // @param max_report_latency_us maximum time the events may be batched for,
+  //     0 to deliver every event as soon as possible.
+  // @param callbacks optional capture thread callbacks.
+  MergedSensorEventProducer(const int sampling_period_us,
+                            const int max_report_latency_us,
+                            SensorThreadCallbacks* callbacks);
+
+  ~MergedSensorEventProducer();
+
+  // Registers callbacks and starts polling from both sensors if it is not
+  // running yet.
+  //
+  // @param on_accel_callback called for every accelerometer event.
+  // @param on_gyro_callback called for every gyroscope event.
+  // @param on_batch_end_callback optional, called after the last event of
+  //     every batch of events that were delivered together.
+  void StartSensorPolling(
+      const std::function<void(AccelerometerData)>* on_accel_callback,
+      const std::function<void(GyroscopeData)>* on_gyro_callback,
+      const std::function<void()>* on_batch_end_callback = nullptr);
+
+  // This stops sensor polling if it is currently running. This method blocks
+  // until the sensor capture thread is finished.
+  void StopSensorPolling();
+
+ private:
+  // Internal function to start sensor polling with the assumption that the lock
+  // has already been obtained.
+  void StartSensorPollingLocked();
+
+  // Internal function to stop sensor polling with the assumption that the lock
+  // has already been obtained.
+  void StopSensorPollingLocked();
+
+  // Worker method that polls for sensor data and executes the callbacks.
+  void WorkFn();
+
+  // The implementation differs between Android and the replay.
+  struct EventProducer;
+  std::unique_ptr<EventProducer> event_producer_;
+  int sampling_period_us_;
+  int max_report_latency_us_;
+  SensorThreadCallbacks* thread_callbacks_;
+
+  // Maximum waiting time for sensor events.
+  static const int kMaxWaitMilliseconds = 100;
+
+  const std::function<void(AccelerometerData)>* on_accel_callback_;
+  const std::function<void(GyroscopeData)>* on_gyro_callback_;
+  const std::function<void()>* on_batch_end_callback_;
+};
+
+}  // namespace cardboard
+
+#endif  // CARDBOARD_SDK_SENSORS_MERGED_SENSOR_EVENT_PRODUCER_H_
@@ -38,9 +38,16 @@ struct PoseState {
   // First derivative of the rotation.
   Vector3 sensor_from_start_rotation_velocity;
 
-  // Current gyroscope bias in rad/s.
+  // Gyroscope calibration subtracted from the samples, in rad/s.
+  Vector3 calibration = Vector3(0, 0, 0);
+
+  // Current gyroscope bias in rad/s, on top of the calibration.
   Vector3 bias;
 
+  // Sum of the sample weights the bias estimate is based on, zero if no valid
+  // estimate has been made yet.
+  float bias_weight = 0.f;
+
   // The position of the headset.
   Vector3 position = Vector3(0, 0, 0);
 
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include "sensors/merged_sensor_event_producer.h"
+
+#include <atomic>
+#include <memory>
+#include <mutex>   // NOLINT
+#include <thread>  // NOLINT
+
+#include "sensors/replay/replay_source.h"
+#include "sensors/sensor_trace.h"
+
+// Replay implementation of MergedSensorEventProducer. The trace is already in
+// the recorded order, so the events are delivered as they come.
+
+namespace cardboard {
+
+struct MergedSensorEventProducer::EventProducer {
+  EventProducer() : run_thread(false) {}
+  // Replay thread. This will be created when polling is started, and
+  // destroyed when polling is stopped.
+  std::unique_ptr<std::thread> thread;
+  std::mutex mutex;
+  // Flag indicating if the replay thread should run.
+  std::atomic<bool> run_thread;
+};
+
+MergedSensorEventProducer::MergedSensorEventProducer(
+    const int sampling_period_us, const int max_report_latency_us,
+    SensorThreadCallbacks* thread_callbacks)
+    : event_producer_(new EventProducer()),
+      sampling_period_us_(sampling_period_us),
+      max_report_latency_us_(max_report_latency_us),
+      thread_callbacks_(thread_callbacks),
+      on_accel_callback_(nullptr),
+      on_gyro_callback_(nullptr),
+      on_batch_end_callback_(nullptr) {}
+
+MergedSensorEventProducer::~MergedSensorEventProducer() {
+  StopSensorPolling();
+}
+
+void MergedSensorEventProducer::StartSensorPolling(
+    const std::function<void(AccelerometerData)>* on_accel_callback,
+    const std::function<void(GyroscopeData)>* on_gyro_callback,
+    const std::function<void()>* on_batch_end_callback) {
+  on_accel_callback_ = on_accel_callback;
+  on_gyro_callback_ = on_gyro_callback;
+  on_batch_end_callback_ = on_batch_end_callback;
+  std::unique_lock<std::mutex> lock(event_producer_->mutex);
+  StartSensorPollingLocked();
+}
+
+void MergedSensorEventProducer::StopSensorPolling() {
+  std::unique_lock<std::mutex> lock(event_producer_->mutex);
+  StopSensorPollingLocked();
+  on_accel_callback_ = nullptr;
+  on_gyro_callback_ = nullptr;
+  on_batch_end_callback_ = nullptr;
+}
+
+void MergedSensorEventProducer::StartSensorPollingLocked() {
+  // If the thread is started already there is nothing left to do.
+  if (event_producer_->run_thread.exchange(true)) {
+    return;
+  }
+
+  // Attach before the thread starts, so that no events are skipped.
+  ReplaySource* source = ReplaySource::GetInstance();
+  source->Attach(SensorTraceRecord::kAccelerometer);
+  source->Attach(SensorTraceRecord::kGyroscope);
+  event_producer_->thread.reset(
+      new std::thread([&]() {
+          if (thread_callbacks_) {
+            thread_callbacks_->onThreadStart();
+          }
+
+          WorkFn();
+
+          if (thread_callbacks_) {
+            thread_callbacks_->onThreadStop();
+          }
+      }));
+}
+
+void MergedSensorEventProducer::StopSensorPollingLocked() {
+  // If the thread is already stop nothing needs to be done.
+  if (!event_producer_->run_thread.exchange(false)) {
+    return;
+  }
+
+  if (event_producer_->thread && event_producer_->thread->joinable()) {
+    event_producer_->thread->join();
+    event_producer_->thread.reset();
+  }
+  ReplaySource* source = ReplaySource::GetInstance();
+  source->Detach(SensorTraceRecord::kAccelerometer);
+  source->Detach(SensorTraceRecord::kGyroscope);
+}
+
+void MergedSensorEventProducer::WorkFn() {
+  ReplaySource* source = ReplaySource::GetInstance();
+  const int64_t max_report_latency_ns = max_report_latency_us_ * 1000ll;
+
+  // Same batching as in the replay SensorEventProducer, except that the
+  // batch window is shared by both sensors.
+  bool in_batch = false;
+  int64_t batch_start_ns = 0;
+  SensorTraceRecord record;
+  while (event_producer_->run_thread) {
+    if (!source->Acquire(kMaxWaitMilliseconds, &record)) {
+      continue;
+    }
+
+    if (!in_batch) {
+      batch_start_ns = record.timestamp_ns;
+      in_batch = true;
+    }
+
+    const uint64_t timestamp = static_cast<uint64_t>(record.timestamp_ns);
+    if (record.type == SensorTraceRecord::kGyroscope) {
+      if (on_gyro_callback_) {
+        (*on_gyro_callback_)({timestamp, timestamp, record.data});
+      }
+    } else if (on_accel_callback_) {
+      (*on_accel_callback_)({timestamp, timestamp, record.data});
+    }
+    if (record.timestamp_ns - batch_start_ns >= max_report_latency_ns) {
+      if (on_batch_end_callback_) {
+        (*on_batch_end_callback_)();
+      }
+      in_batch = false;
+    }
+
+    source->Release();
+  }
+
+  // Same as in the replay SensorEventProducer, the last batch is flushed when
+  // the sensors are disabled.
+  if (in_batch && on_batch_end_callback_) {
+    (*on_batch_end_callback_)();
+  }
+}
+
+}  // namespace cardboard
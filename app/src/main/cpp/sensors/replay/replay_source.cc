@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include "sensors/replay/replay_source.h"
+
+#include <thread>  // NOLINT
+#include <utility>
+
+namespace cardboard {
+
+ReplaySource* ReplaySource::GetInstance() {
+  static ReplaySource* instance = new ReplaySource();
+  return instance;
+}
+
+ReplaySource::ReplaySource()
+    : position_(0),
+      acquired_(false),
+      attached_{0, 0},
+      speed_(Speed::kMaxSpeed),
+      started_(false) {}
+
+bool ReplaySource::Load(const std::string& path, Speed speed) {
+  SensorTraceReader reader;
+  if (!reader.Open(path)) {
+    return false;
+  }
+
+  std::vector<SensorTraceRecord> records;
+  SensorTraceRecord record;
+  while (reader.Next(&record)) {
+    records.push_back(record);
+  }
+  Load(std::move(records), speed);
+  return true;
+}
+
+void ReplaySource::Load(std::vector<SensorTraceRecord> records, Speed speed) {
+  std::lock_guard<std::mutex> lock(mutex_);
+  records_ = std::move(records);
+  position_ = 0;
+  acquired_ = false;
+  speed_ = speed;
+  started_ = false;
+  cond_.notify_all();
+}
+
+void ReplaySource::Start() {
+  std::lock_guard<std::mutex> lock(mutex_);
+  start_time_ = std::chrono::steady_clock::now();
+  started_ = true;
+  SkipUnattachedLocked();
+  cond_.notify_all();
+}
+
+void ReplaySource::Attach(SensorTraceRecord::Type type) {
+  std::lock_guard<std::mutex> lock(mutex_);
+  ++attached_[type];
+}
+
+void ReplaySource::Detach(SensorTraceRecord::Type type) {
+  std::lock_guard<std::mutex> lock(mutex_);
+  --attached_[type];
+  SkipUnattachedLocked();
+  cond_.notify_all();
+}
+
+bool ReplaySource::Acquire(SensorTraceRecord::Type type, int timeout_ms,
+                           SensorTraceRecord* record) {
+  return AcquireIf(
+      timeout_ms,
+      [type](const SensorTraceRecord& next) { return next.type == type; },
+      record);
+}
+
+bool ReplaySource::Acquire(int timeout_ms, SensorTraceRecord* record) {
+  // Unattached records are skipped, so any record left is for this consumer.
+  return AcquireIf(
+      timeout_ms, [](const SensorTraceRecord&) { return true; }, record);
+}
+
+template <typename Predicate>
+bool ReplaySource::AcquireIf(int timeout_ms, Predicate predicate,
+                             SensorTraceRecord* record) {
+  std::unique_lock<std::mutex> lock(mutex_);
+  const bool ready = cond_.wait_for(
+      lock, std::chrono::milliseconds(timeout_ms), [this, &predicate]() {
+        return started_ && !acquired_ && position_ < records_.size() &&
+               predicate(records_[position_]);
+      });
+  if (!ready) {
+    return false;
+  }
+
+  *record = records_[position_];
+  acquired_ = true;
+  const std::chrono::steady_clock::time_point due =
+      start_time_ + std::chrono::nanoseconds(record->timestamp_ns -
+                                             records_[0].timestamp_ns);
+  const bool realtime = (speed_ == Speed::kRealtime);
+  lock.unlock();
+
+  if (realtime) {
+    std::this_thread::sleep_until(due);
+  }
+  return true;
+}
+
+void ReplaySource::Release() {
+  std::lock_guard<std::mutex> lock(mutex_);
+  acquired_ = false;
+  ++position_;
+  SkipUnattachedLocked();
+  cond_.notify_all();
+}
+
+void ReplaySource::WaitUntilFinished() {
+  std::unique_lock<std::mutex> lock(mutex_);
+  cond_.wait(lock, [this]() { return started_ && position_ >= records_.size(); });
+}
+
+void ReplaySource::SkipUnattachedLocked() {
+  if (!started_ || acquired_) {
+    return;
+  }
+  while (position_ < records_.size() &&
+         attached_[records_[position_].type] <= 0) {
+    ++position_;
+  }
+}
+
+}  // namespace cardboard
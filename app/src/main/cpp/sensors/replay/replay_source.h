@@ -0,0 +1,122 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#ifndef CARDBOARD_SDK_SENSORS_REPLAY_REPLAY_SOURCE_H_
+#define CARDBOARD_SDK_SENSORS_REPLAY_REPLAY_SOURCE_H_
+
+#include <atomic>
+#include <chrono>  // NOLINT
+#include <condition_variable>  // NOLINT
+#include <mutex>  // NOLINT
+#include <string>
+#include <vector>
+
+#include "sensors/sensor_trace.h"
+
+namespace cardboard {
+
+// Shared source of the recorded sensor events for the replay implementation
+// of SensorEventProducer, which is linked instead of the Android one on hosts.
+//
+// The producers of all sensor types take their events from the same trace,
+// strictly one at a time and in the recorded order. This makes the replay
+// deterministic even though every producer runs on its own thread.
+//
+// Typical use: Load() the trace, start the producers (e.g. by resuming the
+// OrientationTracker), then Start() the replay and WaitUntilFinished().
+class ReplaySource {
+ public:
+  enum class Speed {
+    // Events are delivered with the same timing as they were recorded.
+    kRealtime,
+    // Events are delivered as fast as they can be processed.
+    kMaxSpeed,
+  };
+
+  // Returns the process-wide instance used by the replay producers.
+  static ReplaySource* GetInstance();
+
+  // Loads a trace to be replayed. Nothing is delivered until Start().
+  //
+  // @param path path of the sensor trace file.
+  // @param speed replay speed.
+  // @return false if the trace could not be read.
+  bool Load(const std::string& path, Speed speed);
+
+  // Loads the records directly, e.g. synthesized by a benchmark.
+  void Load(std::vector<SensorTraceRecord> records, Speed speed);
+
+  // Starts delivering the records. Records of the types that have no
+  // consumers attached at this point are skipped.
+  void Start();
+
+  // Registers a consumer of the given sensor type.
+  void Attach(SensorTraceRecord::Type type);
+
+  // Unregisters a consumer of the given sensor type.
+  void Detach(SensorTraceRecord::Type type);
+
+  // Waits for the next record of the given type. The record must be released
+  // with Release() once it has been processed, before any other record can be
+  // delivered.
+  //
+  // @param type sensor type of the consumer.
+  // @param timeout_ms maximum time to wait for.
+  // @param record receives the record.
+  // @return false if there was no record of this type in time.
+  bool Acquire(SensorTraceRecord::Type type, int timeout_ms,
+               SensorTraceRecord* record);
+
+  // Waits for the next record of any attached type, for a consumer that
+  // handles all of them on one thread. The record must be released the same
+  // way as with the typed Acquire().
+  //
+  // @param timeout_ms maximum time to wait for.
+  // @param record receives the record.
+  // @return false if there was no record in time.
+  bool Acquire(int timeout_ms, SensorTraceRecord* record);
+
+  // Marks the record returned by Acquire() as processed.
+  void Release();
+
+  // Blocks until all the records have been delivered, or skipped.
+  void WaitUntilFinished();
+
+ private:
+  ReplaySource();
+
+  // Skips the records that nobody is going to consume.
+  void SkipUnattachedLocked();
+
+  // Waits until the predicate holds for the next record, then acquires it.
+  template <typename Predicate>
+  bool AcquireIf(int timeout_ms, Predicate predicate,
+                 SensorTraceRecord* record);
+
+  std::mutex mutex_;
+  std::condition_variable cond_;
+  std::vector<SensorTraceRecord> records_;
+  size_t position_;
+  bool acquired_;
+  int attached_[2];
+  Speed speed_;
+  // Host time that corresponds to the first record, for the realtime replay.
+  std::chrono::steady_clock::time_point start_time_;
+  bool started_;
+};
+
+}  // namespace cardboard
+
+#endif  // CARDBOARD_SDK_SENSORS_REPLAY_REPLAY_SOURCE_H_
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include "sensors/sensor_event_producer.h"
+
+#include <atomic>
+#include <memory>
+#include <mutex>   // NOLINT
+#include <thread>  // NOLINT
+
+#include "sensors/accelerometer_data.h"
+#include "sensors/gyroscope_data.h"
+#include "sensors/replay/replay_source.h"
+#include "sensors/sensor_trace.h"
+
+// Replay implementation of SensorEventProducer, which takes the sensor events
+// from the ReplaySource instead of the device sensors. Linked instead of
+// sensors/android/sensor_event_producer.cc in the host builds.
+
+namespace cardboard {
+
+namespace {
+
+template <typename DataType>
+SensorTraceRecord::Type GetTraceType();
+
+template <>
+SensorTraceRecord::Type GetTraceType<AccelerometerData>() {
+  return SensorTraceRecord::kAccelerometer;
+}
+
+template <>
+SensorTraceRecord::Type GetTraceType<GyroscopeData>() {
+  return SensorTraceRecord::kGyroscope;
+}
+
+}  // namespace
+
+template <typename DataType>
+struct SensorEventProducer<DataType>::EventProducer {
+  EventProducer() : run_thread(false) {}
+  // Replay thread. This will be created when polling is started, and
+  // destroyed when polling is stopped.
+  std::unique_ptr<std::thread> thread;
+  std::mutex mutex;
+  // Flag indicating if the replay thread should run.
+  std::atomic<bool> run_thread;
+};
+
+template <typename DataType>
+SensorEventProducer<DataType>::SensorEventProducer(const int sampling_period_us,
+                                                   const int max_report_latency_us,
+                                                   SensorThreadCallbacks* thread_callbacks)
+    : event_producer_(new EventProducer()),
+      sampling_period_us_(sampling_period_us),
+      max_report_latency_us_(max_report_latency_us),
+      thread_callbacks_(thread_callbacks),
+      on_event_callback_(nullptr),
+      on_batch_end_callback_(nullptr) {}
+
+template <typename DataType>
+SensorEventProducer<DataType>::~SensorEventProducer() {
+  StopSensorPolling();
+}
+
+template <typename DataType>
+void SensorEventProducer<DataType>::StartSensorPolling(
+    const std::function<void(DataType)>* on_event_callback,
+    const std::function<void()>* on_batch_end_callback) {
+  on_event_callback_ = on_event_callback;
+  on_batch_end_callback_ = on_batch_end_callback;
+  std::unique_lock<std::mutex> lock(event_producer_->mutex);
+  StartSensorPollingLocked();
+}
+
+template <typename DataType>
+void SensorEventProducer<DataType>::StopSensorPolling() {
+  std::unique_lock<std::mutex> lock(event_producer_->mutex);
+  StopSensorPollingLocked();
+  on_event_callback_ = nullptr;
+  on_batch_end_callback_ = nullptr;
+}
+
+template <typename DataType>
+void SensorEventProducer<DataType>::StartSensorPollingLocked() {
+  // If the thread is started already there is nothing left to do.
+  if (event_producer_->run_thread.exchange(true)) {
+    return;
+  }
+
+  // Attach before the thread starts, so that no events are skipped.
+  ReplaySource::GetInstance()->Attach(GetTraceType<DataType>());
+  event_producer_->thread.reset(
+      new std::thread([&]() {
+          if (thread_callbacks_) {
+            thread_callbacks_->onThreadStart();
+          }
+
+          WorkFn();
+
+          if (thread_callbacks_) {
+            thread_callbacks_->onThreadStop();
+          }
+      }));
+}
+
+template <typename DataType>
+void SensorEventProducer<DataType>::StopSensorPollingLocked() {
+  // If the thread is already stop nothing needs to be done.
+  if (!event_producer_->run_thread.exchange(false)) {
+    return;
+  }
+
+  if (event_producer_->thread && event_producer_->thread->joinable()) {
+    event_producer_->thread->join();
+    event_producer_->thread.reset();
+  }
+  ReplaySource::GetInstance()->Detach(GetTraceType<DataType>());
+}
+
+template <typename DataType>
+void SensorEventProducer<DataType>::WorkFn() {
+  ReplaySource* source = ReplaySource::GetInstance();
+  const SensorTraceRecord::Type type = GetTraceType<DataType>();
+  const int64_t max_report_latency_ns = max_report_latency_us_ * 1000ll;
+
+  // Without batching, every event is a batch of its own. With batching, a
+  // batch ends at the first event that is at least max_report_latency_us
+  // later than the first event of the batch, like a hardware FIFO would.
+  bool in_batch = false;
+  int64_t batch_start_ns = 0;
+  SensorTraceRecord record;
+  while (event_producer_->run_thread) {
+    if (!source->Acquire(type, kMaxWaitMilliseconds, &record)) {
+      continue;
+    }
+
+    if (!in_batch) {
+      batch_start_ns = record.timestamp_ns;
+      in_batch = true;
+    }
+
+    const uint64_t timestamp = static_cast<uint64_t>(record.timestamp_ns);
+    const DataType event = {timestamp, timestamp, record.data};
+    if (on_event_callback_) {
+      (*on_event_callback_)(event);
+    }
+    if (record.timestamp_ns - batch_start_ns >= max_report_latency_ns) {
+      if (on_batch_end_callback_) {
+        (*on_batch_end_callback_)();
+      }
+      in_batch = false;
+    }
+
+    source->Release();
+  }
+
+  // A hardware FIFO is flushed when the sensor is disabled, so the events of
+  // the last batch are not left without their batch end.
+  if (in_batch && on_batch_end_callback_) {
+    (*on_batch_end_callback_)();
+  }
+}
+
+// Forcing instantiation of SensorEventProducer for each sensor type.
+template class SensorEventProducer<AccelerometerData>;
+template class SensorEventProducer<GyroscopeData>;
+
+}  // namespace cardboard
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include "sensors/sensor_event_merger.h"
+
+#include <algorithm>
+
+namespace cardboard {
+
+SensorEventMerger::SensorEventMerger(int64_t stale_ns)
+    : stale_ns_(stale_ns), latest_accel_ns_(0), latest_gyro_ns_(0) {}
+
+void SensorEventMerger::AddAccelerometer(int64_t timestamp_ns,
+                                         const Vector3& data) {
+  pending_.push_back({timestamp_ns, false, data});
+  latest_accel_ns_ = std::max(latest_accel_ns_, timestamp_ns);
+}
+
+void SensorEventMerger::AddGyroscope(int64_t timestamp_ns,
+                                     const Vector3& data) {
+  pending_.push_back({timestamp_ns, true, data});
+  latest_gyro_ns_ = std::max(latest_gyro_ns_, timestamp_ns);
+}
+
+size_t SensorEventMerger::Deliver(
+    bool flush,
+    const std::function<void(AccelerometerData)>* on_accel_callback,
+    const std::function<void(GyroscopeData)>* on_gyro_callback) {
+  if (pending_.empty()) {
+    return 0;
+  }
+
+  std::stable_sort(pending_.begin(), pending_.end(), EventBefore);
+
+  int64_t deliver_until_ns = std::min(latest_accel_ns_, latest_gyro_ns_);
+  const int64_t newest_ns = std::max(latest_accel_ns_, latest_gyro_ns_);
+  if (flush || newest_ns - deliver_until_ns > stale_ns_) {
+    deliver_until_ns = newest_ns;
+  }
+
+  size_t delivered = 0;
+  while (delivered < pending_.size() &&
+         pending_[delivered].timestamp_ns <= deliver_until_ns) {
+    const Event& event = pending_[delivered++];
+    const uint64_t timestamp = static_cast<uint64_t>(event.timestamp_ns);
+    if (event.is_gyroscope) {
+      if (on_gyro_callback) {
+        (*on_gyro_callback)({timestamp, timestamp, event.data});
+      }
+    } else if (on_accel_callback) {
+      (*on_accel_callback)({timestamp, timestamp, event.data});
+    }
+  }
+  pending_.erase(pending_.begin(), pending_.begin() + delivered);
+  return delivered;
+}
+
+bool SensorEventMerger::EventBefore(const Event& a, const Event& b) {
+  if (a.timestamp_ns != b.timestamp_ns) {
+    return a.timestamp_ns < b.timestamp_ns;
+  }
+  return !a.is_gyroscope && b.is_gyroscope;
+}
+
+}  // namespace cardboard
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#ifndef CARDBOARD_SDK_SENSORS_SENSOR_EVENT_MERGER_H_
+#define CARDBOARD_SDK_SENSORS_SENSOR_EVENT_MERGER_H_
+
+#include <cstddef>
+#include <cstdint>
+#include <functional>
+#include <vector>
+
+#include "sensors/accelerometer_data.h"
+#include "sensors/gyroscope_data.h"
+#include "util/vector.h"
+
+namespace cardboard {
+
+// Puts the accelerometer and gyroscope events back into timestamp order.
+//
+// Each sensor has a hardware FIFO of its own, so when the events are batched,
+// a whole batch of one sensor may arrive before the older events of the other.
+// An event is only delivered once both sensors have reported up to its
+// timestamp, unless the other sensor has gone quiet for too long.
+class SensorEventMerger {
+ public:
+  // @param stale_ns how far the newest event of one sensor may be ahead of the
+  //     other sensor before the events are delivered without waiting for it.
+  explicit SensorEventMerger(int64_t stale_ns);
+
+  // Queues an accelerometer event.
+  void AddAccelerometer(int64_t timestamp_ns, const Vector3& data);
+
+  // Queues a gyroscope event.
+  void AddGyroscope(int64_t timestamp_ns, const Vector3& data);
+
+  // Delivers the events that are known to be in order, oldest first. At equal
+  // timestamps the accelerometer goes first, so that the gyroscope step
+  // already includes it.
+  //
+  // @param flush whether to deliver all the queued events, e.g. because
+  //     nothing has arrived for a while.
+  // @param on_accel_callback optional, called for every accelerometer event.
+  // @param on_gyro_callback optional, called for every gyroscope event.
+  // @return number of events delivered.
+  size_t Deliver(
+      bool flush,
+      const std::function<void(AccelerometerData)>* on_accel_callback,
+      const std::function<void(GyroscopeData)>* on_gyro_callback);
+
+ private:
+  struct Event {
+    int64_t timestamp_ns;
+    bool is_gyroscope;
+    Vector3 data;
+  };
+
+  static bool EventBefore(const Event& a, const Event& b);
+
+  const int64_t stale_ns_;
+  int64_t latest_accel_ns_;
+  int64_t latest_gyro_ns_;
+  std::vector<Event> pending_;
+};
+
+}  // namespace cardboard
+
+#endif  // CARDBOARD_SDK_SENSORS_SENSOR_EVENT_MERGER_H_
@@ -35,15 +35,27 @@ class SensorEventProducer {
   // Constructs a sensor publisher based on the sensor_name that is passed in.
   // It will fall back to the default sensor if the specified sensor cannot be
   // found.
-  SensorEventProducer(const int sampling_period_us, SensorThreadCallbacks *callbacks);
+  //
+  // @param sampling_period_us period between the sensor events.
+  // @param max_report_latency_us maximum time the events may be batched for,
+  //     0 to deliver every event as soon as possible.
+  // @param callbacks optional capture thread callbacks.
+  SensorEventProducer(const int sampling_period_us,
+                      const int max_report_latency_us,
+                      SensorThreadCallbacks *callbacks);
 
   ~SensorEventProducer();
 
   // Registers callback and starts polling from DeviceSensor if it is not
   // running yet. This is a no-op if the sensor is not supported by the
   // platform.
+  //
+  // @param on_event_callback called for every event, in timestamp order.
+  // @param on_batch_end_callback optional, called after the last event of
+  //     every batch of events that were delivered together.
   void StartSensorPolling(
-      const std::function<void(DataType)>* on_event_callback);
+      const std::function<void(DataType)>* on_event_callback,
+      const std::function<void()>* on_batch_end_callback = nullptr);
 
   // This stops DeviceSensor sensor polling if it is currently
   // running. This method blocks until the sensor capture thread is finished.
@@ -67,6 +79,7 @@ class SensorEventProducer {
   struct EventProducer;
   std::unique_ptr<EventProducer> event_producer_;
   int sampling_period_us_;
+  int max_report_latency_us_;
   SensorThreadCallbacks *thread_callbacks_;
 
   // Maximum waiting time for sensor events.
@@ -74,6 +87,7 @@ class SensorEventProducer {
 
   // Callbacks to call when OnEvent() is called.
   const std::function<void(DataType)>* on_event_callback_;
+  const std::function<void()>* on_batch_end_callback_;
 };
 
 }  // namespace cardboard
@@ -69,11 +69,15 @@ Rotation RotationFromVector(const Vector3& a) {
 
 }  // namespace
 
-SensorFusionEkf::SensorFusionEkf()
+SensorFusionEkf::SensorFusionEkf(const Vector3& calibration)
     : execute_reset_with_next_accelerometer_sample_(false),
+      accelerometer_overflow_pending_(false),
       bias_estimation_enabled_(true),
-      gyroscope_bias_estimate_({0, 0, 0}) {
+      calibration_(calibration),
+      gyroscope_bias_estimate_({0, 0, 0}),
+      gyroscope_bias_weight_(0.f) {
   ResetState();
+  PublishState();
 }
 
 void SensorFusionEkf::Reset() {
@@ -110,19 +114,62 @@ void SensorFusionEkf::ResetState() {
   // Reset biases.
   gyroscope_bias_estimator_.Reset();
   gyroscope_bias_estimate_ = {0, 0, 0};
+  gyroscope_bias_weight_ = 0.f;
 }
 
 // Here I am doing something wrong relative to time stamps. The state timestamps
 // always correspond to the gyrostamps because it would require additional
 // extrapolation if I wanted to do otherwise.
 PoseState SensorFusionEkf::GetLatestPoseState() const {
-  std::unique_lock<std::mutex> lock(mutex_);
-  return current_state_;
+  return published_state_.Load();
 }
 
 void SensorFusionEkf::ProcessGyroscopeSample(const GyroscopeData& sample) {
-  std::unique_lock<std::mutex> lock(mutex_);
+  ApplyQueuedAccelerometerSamples();
+  ApplyGyroscopeSample(sample);
+  PublishState();
+}
+
+void SensorFusionEkf::ProcessAccelerometerSample(
+    const AccelerometerData& sample) {
+  if (!accelerometer_queue_.Push(sample)) {
+    accelerometer_overflow_.Store(sample);
+    accelerometer_overflow_pending_.store(true, std::memory_order_release);
+  }
+}
 
+void SensorFusionEkf::ApplyQueuedAccelerometerSamples() {
+  // The overflow sample is newer than everything that was queued before it,
+  // but older than the samples queued after the queue has been drained.
+  bool overflow = accelerometer_overflow_pending_.exchange(
+      false, std::memory_order_acquire);
+  AccelerometerData overflow_sample;
+  if (overflow) {
+    overflow_sample = accelerometer_overflow_.Load();
+  }
+
+  AccelerometerData accelerometer_sample;
+  while (accelerometer_queue_.Pop(&accelerometer_sample)) {
+    if (overflow && overflow_sample.sensor_timestamp_ns <
+                        accelerometer_sample.sensor_timestamp_ns) {
+      ApplyAccelerometerSample(overflow_sample);
+      overflow = false;
+    }
+    ApplyAccelerometerSample(accelerometer_sample);
+  }
+  if (overflow) {
+    ApplyAccelerometerSample(overflow_sample);
+  }
+}
+
+void SensorFusionEkf::PublishState() {
+  current_state_.calibration = calibration_;
+  current_state_.bias = gyroscope_bias_estimate_;
+  current_state_.bias_weight = gyroscope_bias_weight_;
+  published_state_.Store(current_state_);
+}
+
+void SensorFusionEkf::ApplyGyroscopeSample(const GyroscopeData& sample) {
   // Don't accept gyroscope sample when waiting for a reset.
   if (execute_reset_with_next_accelerometer_sample_) {
     return;
@@ -160,6 +207,8 @@ void SensorFusionEkf::ProcessGyroscopeSample(const GyroscopeData& sample) {
         // As soon as the device is considered to be static, the bias estimator
         // should have a precise estimate of the gyroscope bias.
         gyroscope_bias_estimate_ = gyroscope_bias_estimator_.GetGyroscopeBias();
+        gyroscope_bias_weight_ =
+            gyroscope_bias_estimator_.GetAccumulatedWeight();
       }
     }
 
@@ -217,10 +266,8 @@ void SensorFusionEkf::ComputeMeasurementJacobian() {
   }
 }
 
-void SensorFusionEkf::ProcessAccelerometerSample(
+void SensorFusionEkf::ApplyAccelerometerSample(
     const AccelerometerData& sample) {
-  std::unique_lock<std::mutex> lock(mutex_);
-
   // Discard outdated samples.
   if (current_accelerometer_sensor_timestamp_ns_ >=
       sample.sensor_timestamp_ns) {
@@ -336,6 +383,82 @@ void SensorFusionEkf::UpdateMeasurementCovariance() {
                                           accelerometer_noise_sigma;
 }
 
+void SensorFusionEkf::GetSnapshot(Snapshot* snapshot) const {
+  const Vector4& quat =
+      current_state_.sensor_from_start_rotation.GetQuaternion();
+  for (int i = 0; i < 4; ++i) {
+    snapshot->rotation[i] = quat[i];
+  }
+  snapshot->aligned_with_gravity = is_aligned_with_gravity_ ? 1 : 0;
+
+  for (int row = 0; row < 3; ++row) {
+    for (int col = 0; col < 3; ++col) {
+      snapshot->state_covariance[row * 3 + col] = state_covariance_(row, col);
+    }
+  }
+
+  for (int i = 0; i < 3; ++i) {
+    snapshot->bias[i] = gyroscope_bias_estimate_[i];
+  }
+
+  snapshot->gyroscope_timestep_s = filtered_gyroscope_timestep_s_;
+  snapshot->gyroscope_timestep_samples =
+      is_timestep_filter_initialized_ ? num_gyroscope_timestep_samples_ : 0;
+
+  snapshot->accelerometer_norm = previous_accelerometer_norm_;
+  snapshot->accelerometer_norm_change =
+      moving_average_accelerometer_norm_change_;
+}
+
+void SensorFusionEkf::RestoreSnapshot(const Snapshot& snapshot,
+                                      bool restore_orientation) {
+  if (restore_orientation && snapshot.aligned_with_gravity != 0) {
+    current_state_.sensor_from_start_rotation = Rotation::FromQuaternion(
+        Vector4(snapshot.rotation[0], snapshot.rotation[1],
+                snapshot.rotation[2], snapshot.rotation[3]));
+    is_aligned_with_gravity_ = true;
+  }
+
+  for (int row = 0; row < 3; ++row) {
+    for (int col = 0; col < 3; ++col) {
+      state_covariance_(row, col) = snapshot.state_covariance[row * 3 + col];
+    }
+  }
+
+  gyroscope_bias_estimate_ =
+      Vector3(snapshot.bias[0], snapshot.bias[1], snapshot.bias[2]);
+  // The weight is not restored: the session that has learned this bias has
+  // already reported it, so it only counts again once it is re-learned.
+  gyroscope_bias_weight_ = 0.f;
+
+  if (snapshot.gyroscope_timestep_samples > 0) {
+    filtered_gyroscope_timestep_s_ = snapshot.gyroscope_timestep_s;
+    num_gyroscope_timestep_samples_ =
+        static_cast<uint32_t>(snapshot.gyroscope_timestep_samples);
+    is_timestep_filter_initialized_ = true;
+    is_gyroscope_filter_valid_ =
+        num_gyroscope_timestep_samples_ > kTimestepFilterMinSamples;
+  }
+
+  previous_accelerometer_norm_ = snapshot.accelerometer_norm;
+  moving_average_accelerometer_norm_change_ =
+      snapshot.accelerometer_norm_change;
+
+  PublishState();
+}
+
+void SensorFusionEkf::SetCalibration(const Vector3& calibration) {
+  const Vector3 calibration_change = calibration - calibration_;
+  if (calibration_change[0] == 0 && calibration_change[1] == 0 &&
+      calibration_change[2] == 0) {
+    return;
+  }
+  calibration_ = calibration;
+  gyroscope_bias_estimate_ = gyroscope_bias_estimate_ - calibration_change;
+  gyroscope_bias_estimator_.OffsetGyroscope(-calibration_change);
+  PublishState();
+}
+
 bool SensorFusionEkf::IsBiasEstimationEnabled() const {
   return bias_estimation_enabled_;
 }
@@ -344,6 +467,7 @@ void SensorFusionEkf::SetBiasEstimationEnabled(bool enable) {
   if (bias_estimation_enabled_ != enable) {
     bias_estimation_enabled_ = enable;
     gyroscope_bias_estimate_ = {0, 0, 0};
+    gyroscope_bias_weight_ = 0.f;
     gyroscope_bias_estimator_.Reset();
   }
 }
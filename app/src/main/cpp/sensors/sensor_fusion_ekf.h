@@ -19,7 +19,6 @@
 #include <array>
 #include <atomic>
 #include <cstdint>
-#include <mutex>  // NOLINT
 
 #include "sensors/accelerometer_data.h"
 #include "sensors/gyroscope_bias_estimator.h"
@@ -27,6 +26,8 @@
 #include "sensors/pose_state.h"
 #include "util/matrix_3x3.h"
 #include "util/rotation.h"
+#include "util/seqlock.h"
+#include "util/spsc_queue.h"
 #include "util/vector.h"
 
 namespace cardboard {
@@ -38,9 +39,35 @@ namespace cardboard {
 //
 // To learn more about Kalman filtering one can read this article which is a
 // good introduction: https://en.wikipedia.org/wiki/Kalman_filter
+//
+// The accelerometer samples are queued and applied by the gyroscope thread
+// right before its next sample, so the state only has one writer, and neither
+// sensor thread ever waits for the other. The latest pose is published without
+// locks, so that the readers never wait for the sensor threads.
 class SensorFusionEkf {
  public:
-  SensorFusionEkf();
+  // Part of the filter state that is worth carrying over to a new instance, so
+  // that it doesn't have to converge from scratch. Only consists of doubles, so
+  // that it can be passed around and stored as a plain array.
+  struct Snapshot {
+    // Orientation quaternion, only meaningful if aligned_with_gravity is set.
+    double rotation[4];
+    double aligned_with_gravity;
+    // State covariance matrix, row by row.
+    double state_covariance[9];
+    // Gyroscope bias estimate in rad/s.
+    double bias[3];
+    // Gyroscope timestep filter, zero samples if it was never initialized.
+    double gyroscope_timestep_s;
+    double gyroscope_timestep_samples;
+    // Accelerometer norm tracking for the measurement covariance.
+    double accelerometer_norm;
+    double accelerometer_norm_change;
+  };
+
+  // @param calibration gyroscope calibration that the samples are corrected
+  //     with before they are processed, see SetCalibration.
+  explicit SensorFusionEkf(const Vector3& calibration = Vector3::Zero());
 
   // Resets the state of the sensor fusion. It sets the velocity for
   // prediction to zero. The reset will happen with the next
@@ -49,19 +76,27 @@ class SensorFusionEkf {
   void Reset();
 
   // Gets the PoseState representing the latest pose and  derivatives at a
-  // particular timestamp as estimated by SensorFusion.
+  // particular timestamp as estimated by SensorFusion. Can be called from any
+  // thread.
   PoseState GetLatestPoseState() const;
 
   // Processes one gyroscope sample event. This updates the pose of the system
   // and the prediction model. The gyroscope data is assumed to be in axis angle
   // form. Angle = ||v|| and Axis = v / ||v||, with v = [v_x, v_y, v_z]^T.
+  // The accelerometer samples that are still queued are applied first. Must
+  // always be called from the same thread, which is the only one that updates
+  // the filter state.
   //
   // @param sample gyroscope sample data.
   void ProcessGyroscopeSample(const GyroscopeData& sample);
 
-  // Processes one accelerometer sample event. This updates the pose of the
-  // system. If the Accelerometer norm changes too much between sample it is not
-  // trusted as much.
+  // Queues one accelerometer sample event, which is applied with the next
+  // gyroscope sample. This updates the pose of the system. If the
+  // Accelerometer norm changes too much between sample it is not trusted as
+  // much. Must always be called from the same thread, and never waits. If the
+  // gyroscope stalls for long enough to fill the queue, only the latest of the
+  // samples that don't fit is kept, which is all the filter needs to correct
+  // the pose once the gyroscope resumes.
   //
   // @param sample accelerometer sample data.
   void ProcessAccelerometerSample(const AccelerometerData& sample);
@@ -76,17 +111,56 @@ class SensorFusionEkf {
   // @return true if bias estimation is enabled, false otherwise.
   bool IsBiasEstimationEnabled() const;
 
+  // Replaces the gyroscope calibration that the samples are corrected with,
+  // and adjusts the bias estimate by the change, so that the residual bias
+  // stays consistent with the new calibration instead of being re-learned.
+  // The calibration is published along with the bias, see PoseState. Must be
+  // called on the gyroscope thread, before the first sample with the new
+  // calibration.
+  //
+  // @param calibration new gyroscope calibration in rad/s.
+  void SetCalibration(const Vector3& calibration);
+
   // Returns the current gyroscope bias estimate from GyroscopeBiasEstimator.
-  Vector3 GetGyroscopeBias() const {
-    std::unique_lock<std::mutex> lock(mutex_);
-    return {gyroscope_bias_estimate_[0], gyroscope_bias_estimate_[1],
-            gyroscope_bias_estimate_[2]};
+  Vector3 GetGyroscopeBias() const { return published_state_.Load().bias; }
+
+  // Returns how much data the current gyroscope bias estimate is based on, as
+  // the sum of the sample weights, or zero if there is no valid estimate.
+  float GetGyroscopeBiasWeight() const {
+    return published_state_.Load().bias_weight;
   }
 
+  // Captures the filter state. Must not be called while samples are being
+  // processed.
+  //
+  // @param snapshot receives the filter state.
+  void GetSnapshot(Snapshot* snapshot) const;
+
+  // Restores the filter state captured with GetSnapshot. Must be called before
+  // any samples are processed.
+  //
+  // @param snapshot the filter state to restore.
+  // @param restore_orientation whether the orientation is still valid,
+  //     otherwise it is initialized from the next accelerometer sample.
+  void RestoreSnapshot(const Snapshot& snapshot, bool restore_orientation);
+
   // Returns true after receiving the first accelerometer measurement.
   bool IsFullyInitialized() const { return is_aligned_with_gravity_; }
 
  private:
+  // Applies one gyroscope sample to the filter state.
+  void ApplyGyroscopeSample(const GyroscopeData& sample);
+
+  // Applies one accelerometer sample to the filter state.
+  void ApplyAccelerometerSample(const AccelerometerData& sample);
+
+  // Applies the accelerometer samples waiting in the queue and in the overflow
+  // slot, in timestamp order. Only called on the gyroscope thread.
+  void ApplyQueuedAccelerometerSamples();
+
+  // Makes the current state visible to GetLatestPoseState().
+  void PublishState();
+
   // Estimates the average timestep between gyroscope event.
   void FilterGyroscopeTimestep(double gyroscope_timestep);
 
@@ -110,8 +184,8 @@ class SensorFusionEkf {
   // just gravity, and so the down vector information gravity signal is noisier.
   void UpdateMeasurementCovariance();
 
-  // Reset all internal states. This is not thread safe. Lock should be acquired
-  // outside of it. This function is called in ProcessAccelerometerSample.
+  // Reset all internal states. This is not thread safe, and is only called on
+  // the gyroscope thread, when applying a queued accelerometer sample.
   void ResetState();
 
   // Current transformation from Sensor Space to Start Space.
@@ -170,7 +244,16 @@ class SensorFusionEkf {
   // accelerometer sample.
   std::atomic<bool> execute_reset_with_next_accelerometer_sample_;
 
-  mutable std::mutex mutex_;
+  // Latest state, as seen by the readers.
+  SeqLock<PoseState> published_state_;
+
+  // Accelerometer samples waiting to be applied by the gyroscope thread.
+  SpscQueue<AccelerometerData, 64> accelerometer_queue_;
+
+  // Latest accelerometer sample that didn't fit in the queue, valid while
+  // accelerometer_overflow_pending_ is set.
+  SeqLock<AccelerometerData> accelerometer_overflow_;
+  std::atomic<bool> accelerometer_overflow_pending_;
 
   // Flag indicating if bias estimation is enabled (enabled by default).
   std::atomic<bool> bias_estimation_enabled_;
@@ -178,13 +261,24 @@ class SensorFusionEkf {
   // Bias estimator and static device detector.
   GyroscopeBiasEstimator gyroscope_bias_estimator_;
 
+  // Calibration the gyroscope samples are corrected with.
+  Vector3 calibration_;
   // Current bias estimate_;
   Vector3 gyroscope_bias_estimate_;
+  // Sum of the sample weights behind the current bias estimate.
+  float gyroscope_bias_weight_;
 
   SensorFusionEkf(const SensorFusionEkf&) = delete;
   SensorFusionEkf& operator=(const SensorFusionEkf&) = delete;
 };
 
+// Number of doubles in SensorFusionEkf::Snapshot, as exchanged with Java.
+constexpr int kSnapshotSize =
+    sizeof(SensorFusionEkf::Snapshot) / sizeof(double);
+static_assert(sizeof(SensorFusionEkf::Snapshot) ==
+                  kSnapshotSize * sizeof(double),
+              "Unexpected snapshot layout");
+
 }  // namespace cardboard
 
 #endif  // CARDBOARD_SDK_SENSORS_SENSOR_FUSION_EKF_H_
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#include "sensors/sensor_trace.h"
+
+#include <cstring>
+
+#include "util/logging.h"
+
+namespace cardboard {
+
+namespace {
+
+const char kMagic[4] = {'W', 'M', 'S', 'T'};
+const uint32_t kVersion = 1;
+
+// Size of one serialized record: type, timestamp, three floats.
+const size_t kRecordSize = 1 + 8 + 3 * 4;
+
+void PutLittleEndian(uint64_t value, int size, uint8_t* dst) {
+  for (int i = 0; i < size; ++i) {
+    dst[i] = static_cast<uint8_t>(value >> (8 * i));
+  }
+}
+
+uint64_t GetLittleEndian(const uint8_t* src, int size) {
+  uint64_t value = 0;
+  for (int i = 0; i < size; ++i) {
+    value |= static_cast<uint64_t>(src[i]) << (8 * i);
+  }
+  return value;
+}
+
+void PutFloat(double value, uint8_t* dst) {
+  const float f = static_cast<float>(value);
+  uint32_t bits;
+  std::memcpy(&bits, &f, sizeof(bits));
+  PutLittleEndian(bits, 4, dst);
+}
+
+double GetFloat(const uint8_t* src) {
+  const uint32_t bits = static_cast<uint32_t>(GetLittleEndian(src, 4));
+  float f;
+  std::memcpy(&f, &bits, sizeof(f));
+  return f;
+}
+
+}  // namespace
+
+SensorTraceWriter::SensorTraceWriter() : file_(nullptr) {}
+
+SensorTraceWriter::~SensorTraceWriter() { Close(); }
+
+bool SensorTraceWriter::Open(const std::string& path) {
+  std::lock_guard<std::mutex> lock(mutex_);
+  if (file_) {
+    fclose(file_);
+  }
+  file_ = fopen(path.c_str(), "wb");
+  if (!file_) {
+    CARDBOARD_LOGE("Could not create sensor trace %s", path.c_str());
+    return false;
+  }
+
+  uint8_t header[8];
+  std::memcpy(header, kMagic, sizeof(kMagic));
+  PutLittleEndian(kVersion, 4, header + 4);
+  return fwrite(header, sizeof(header), 1, file_) == 1;
+}
+
+void SensorTraceWriter::Write(const SensorTraceRecord& record) {
+  uint8_t buffer[kRecordSize];
+  buffer[0] = record.type;
+  PutLittleEndian(static_cast<uint64_t>(record.timestamp_ns), 8, buffer + 1);
+  for (int i = 0; i < 3; ++i) {
+    PutFloat(record.data[i], buffer + 9 + 4 * i);
+  }
+
+  std::lock_guard<std::mutex> lock(mutex_);
+  if (file_) {
+    fwrite(buffer, sizeof(buffer), 1, file_);
+  }
+}
+
+void SensorTraceWriter::Write(const AccelerometerData& event) {
+  const SensorTraceRecord record = {
+      SensorTraceRecord::kAccelerometer,
+      static_cast<int64_t>(event.sensor_timestamp_ns), event.data};
+  Write(record);
+}
+
+void SensorTraceWriter::Write(const GyroscopeData& event) {
+  const SensorTraceRecord record = {
+      SensorTraceRecord::kGyroscope,
+      static_cast<int64_t>(event.sensor_timestamp_ns), event.data};
+  Write(record);
+}
+
+void SensorTraceWriter::Close() {
+  std::lock_guard<std::mutex> lock(mutex_);
+  if (file_) {
+    fclose(file_);
+    file_ = nullptr;
+  }
+}
+
+SensorTraceReader::SensorTraceReader() : file_(nullptr) {}
+
+SensorTraceReader::~SensorTraceReader() { Close(); }
+
+bool SensorTraceReader::Open(const std::string& path) {
+  Close();
+  file_ = fopen(path.c_str(), "rb");
+  if (!file_) {
+    CARDBOARD_LOGE("Could not open sensor trace %s", path.c_str());
+    return false;
+  }
+
+  uint8_t header[8];
+  if (fread(header, sizeof(header), 1, file_) != 1 ||
+      std::memcmp(header, kMagic, sizeof(kMagic)) != 0 ||
+      GetLittleEndian(header + 4, 4) != kVersion) {
+    CARDBOARD_LOGE("Not a sensor trace: %s", path.c_str());
+    Close();
+    return false;
+  }
+  return true;
+}
+
+bool SensorTraceReader::Next(SensorTraceRecord* record) {
+  uint8_t buffer[kRecordSize];
+  if (!file_ || fread(buffer, sizeof(buffer), 1, file_) != 1) {
+    return false;
+  }
+
+  if (buffer[0] != SensorTraceRecord::kAccelerometer &&
+      buffer[0] != SensorTraceRecord::kGyroscope) {
+    CARDBOARD_LOGE("Unexpected sensor trace record type %d", buffer[0]);
+    return false;
+  }
+
+  record->type = static_cast<SensorTraceRecord::Type>(buffer[0]);
+  record->timestamp_ns = static_cast<int64_t>(GetLittleEndian(buffer + 1, 8));
+  record->data = Vector3(GetFloat(buffer + 9), GetFloat(buffer + 13),
+                         GetFloat(buffer + 17));
+  return true;
+}
+
+void SensorTraceReader::Close() {
+  if (file_) {
+    fclose(file_);
+    file_ = nullptr;
+  }
+}
+
+}  // namespace cardboard
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#ifndef CARDBOARD_SDK_SENSORS_SENSOR_TRACE_H_
+#define CARDBOARD_SDK_SENSORS_SENSOR_TRACE_H_
+
+#include <cstdint>
+#include <cstdio>
+#include <mutex>  // NOLINT
+#include <string>
+
+#include "sensors/accelerometer_data.h"
+#include "sensors/gyroscope_data.h"
+#include "util/vector.h"
+
+namespace cardboard {
+
+// A sensor trace is a compact binary recording of the sensor events, which
+// can be replayed through the fusion pipeline off-device.
+//
+// File layout, all values are little-endian:
+//   Header: "WMST" magic, uint32 format version.
+//   Records, in the order the events were received:
+//     uint8 type (SensorTraceRecord::Type), int64 sensor timestamp in
+//     nanoseconds, three float32 values (x, y, z).
+struct SensorTraceRecord {
+  enum Type : uint8_t {
+    kAccelerometer = 0,
+    kGyroscope = 1,
+  };
+
+  Type type;
+  int64_t timestamp_ns;
+  Vector3 data;
+};
+
+// Writes the sensor events to a trace file. Thread-safe, so that the events of
+// several sensors can be recorded into the same file.
+class SensorTraceWriter {
+ public:
+  SensorTraceWriter();
+  ~SensorTraceWriter();
+
+  // Creates the file and writes the trace header.
+  //
+  // @param path path of the file to create.
+  // @return false if the file could not be written.
+  bool Open(const std::string& path);
+
+  // Appends a record to the trace.
+  void Write(const SensorTraceRecord& record);
+  void Write(const AccelerometerData& event);
+  void Write(const GyroscopeData& event);
+
+  // Flushes and closes the file.
+  void Close();
+
+ private:
+  std::mutex mutex_;
+  FILE* file_;
+};
+
+// Reads the sensor events from a trace file.
+class SensorTraceReader {
+ public:
+  SensorTraceReader();
+  ~SensorTraceReader();
+
+  // Opens the file and validates the trace header.
+  //
+  // @param path path of the file to read.
+  // @return false if the file could not be read or is not a sensor trace.
+  bool Open(const std::string& path);
+
+  // Reads the next record.
+  //
+  // @param record receives the record.
+  // @return false at the end of the trace.
+  bool Next(SensorTraceRecord* record);
+
+  void Close();
+
+ private:
+  FILE* file_;
+};
+
+}  // namespace cardboard
+
+#endif  // CARDBOARD_SDK_SENSORS_SENSOR_TRACE_H_
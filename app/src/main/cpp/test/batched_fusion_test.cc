@@ -0,0 +1,300 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Host test for the batched sensor mode.
+//
+// Usage: batched_fusion_test
+//
+// Feeds the same synthetic accelerometer and gyroscope events to two
+// SensorFusionEkf instances: one event at a time in timestamp order, like the
+// unbatched mode, and in batches through SensorEventMerger, with each batch
+// holding the whole FIFO of one sensor before the FIFO of the other, like the
+// batched mode. The orientation after every gyroscope sample must be exactly
+// the same.
+//
+// Then replays the same events through OrientationTracker with and without
+// batching, and checks that the batched mode ends up reporting the same final
+// orientation, including the last, partial batch.
+//
+// Finally feeds more accelerometer events than the filter can queue before
+// the first gyroscope event, and checks that the latest one is still applied.
+//
+// Exits with a non-zero code if any of the checks fails.
+
+#include <cmath>
+#include <cstdint>
+#include <cstdio>
+#include <functional>
+#include <mutex>  // NOLINT
+#include <vector>
+
+#include "orientation_tracker.h"
+#include "sensors/accelerometer_data.h"
+#include "sensors/gyroscope_data.h"
+#include "sensors/replay/replay_source.h"
+#include "sensors/sensor_event_merger.h"
+#include "sensors/sensor_fusion_ekf.h"
+#include "sensors/sensor_thread_callbacks.h"
+#include "sensors/sensor_trace.h"
+#include "util/vector.h"
+
+namespace {
+
+using cardboard::AccelerometerData;
+using cardboard::GyroscopeData;
+using cardboard::OrientationTracker;
+using cardboard::ReplaySource;
+using cardboard::SensorEventMerger;
+using cardboard::SensorFusionEkf;
+using cardboard::SensorThreadCallbacks;
+using cardboard::SensorTraceRecord;
+using cardboard::Vector3;
+using cardboard::Vector4;
+
+const int kSamples = 20000;
+const int64_t kGyroPeriodNs = 2500000;
+// The accelerometer runs at a different rate, so that the events of the two
+// sensors interleave irregularly, and some timestamps are equal.
+const int64_t kAccelPeriodNs = 4000000;
+const int64_t kStartNs = 1000000000ll;
+
+Vector3 GyroAt(int64_t t_ns) {
+  const double t = t_ns * 1e-9;
+  return Vector3(0.5 * std::sin(t), 0.3 * std::cos(1.3 * t),
+                 0.2 * std::sin(0.7 * t));
+}
+
+Vector3 AccelAt(int64_t t_ns) {
+  const double t = t_ns * 1e-9;
+  return Vector3(0.2 * std::sin(t), 0.1 * std::cos(t), 9.81);
+}
+
+int64_t GyroTimestamp(int i) { return kStartNs + i * kGyroPeriodNs; }
+
+int64_t AccelTimestamp(int i) { return kStartNs + i * kAccelPeriodNs; }
+
+class Fusion {
+ public:
+  Fusion()
+      : on_accel_([this](AccelerometerData event) {
+          ekf_.ProcessAccelerometerSample(event);
+        }),
+        on_gyro_([this](GyroscopeData event) {
+          ekf_.ProcessGyroscopeSample(event);
+          poses_.push_back(
+              ekf_.GetLatestPoseState().sensor_from_start_rotation
+                  .GetQuaternion());
+        }) {
+    ekf_.SetBiasEstimationEnabled(true);
+  }
+
+  const std::function<void(AccelerometerData)>* on_accel() const {
+    return &on_accel_;
+  }
+  const std::function<void(GyroscopeData)>* on_gyro() const {
+    return &on_gyro_;
+  }
+  const std::vector<Vector4>& poses() const { return poses_; }
+
+ private:
+  SensorFusionEkf ekf_;
+  std::vector<Vector4> poses_;
+  const std::function<void(AccelerometerData)> on_accel_;
+  const std::function<void(GyroscopeData)> on_gyro_;
+};
+
+// One event at a time, in timestamp order, the accelerometer first at equal
+// timestamps.
+void FeedUnbatched(Fusion* fusion) {
+  int gyro = 0;
+  int accel = 0;
+  while (gyro < kSamples) {
+    if (AccelTimestamp(accel) <= GyroTimestamp(gyro)) {
+      const uint64_t t = AccelTimestamp(accel);
+      (*fusion->on_accel())({t, t, AccelAt(t)});
+      ++accel;
+    } else {
+      const uint64_t t = GyroTimestamp(gyro);
+      (*fusion->on_gyro())({t, t, GyroAt(t)});
+      ++gyro;
+    }
+  }
+}
+
+// Whole FIFOs at a time, with the given sensor flushed first.
+void FeedBatched(Fusion* fusion, int64_t batch_ns, bool gyro_first) {
+  SensorEventMerger merger(batch_ns * 2);
+  int gyro = 0;
+  int accel = 0;
+  for (int64_t batch_end_ns = kStartNs + batch_ns; gyro < kSamples;
+       batch_end_ns += batch_ns) {
+    for (int pass = 0; pass < 2; ++pass) {
+      if ((pass == 0) == gyro_first) {
+        for (; gyro < kSamples && GyroTimestamp(gyro) < batch_end_ns; ++gyro) {
+          merger.AddGyroscope(GyroTimestamp(gyro),
+                              GyroAt(GyroTimestamp(gyro)));
+        }
+      } else {
+        for (; AccelTimestamp(accel) < batch_end_ns &&
+               AccelTimestamp(accel) <= GyroTimestamp(kSamples - 1);
+             ++accel) {
+          merger.AddAccelerometer(AccelTimestamp(accel),
+                                  AccelAt(AccelTimestamp(accel)));
+        }
+      }
+    }
+    merger.Deliver(false, fusion->on_accel(), fusion->on_gyro());
+  }
+  merger.Deliver(true, fusion->on_accel(), fusion->on_gyro());
+}
+
+bool Compare(const char* name, const Fusion& expected, const Fusion& actual) {
+  if (actual.poses().size() != expected.poses().size()) {
+    std::printf("FAIL %s: %zu poses instead of %zu\n", name,
+                actual.poses().size(), expected.poses().size());
+    return false;
+  }
+  for (size_t i = 0; i < expected.poses().size(); ++i) {
+    for (int j = 0; j < 4; ++j) {
+      if (actual.poses()[i][j] != expected.poses()[i][j]) {
+        std::printf("FAIL %s: pose %zu differs\n", name, i);
+        return false;
+      }
+    }
+  }
+  std::printf("PASS %s\n", name);
+  return true;
+}
+
+class LatestPoseCallbacks : public SensorThreadCallbacks {
+ public:
+  void onThreadStart() override {}
+  void onOrientation(const Vector4& quat) override {
+    std::lock_guard<std::mutex> lock(mutex_);
+    latest_ = quat;
+  }
+  void onThreadStop() override {}
+
+  Vector4 latest() {
+    std::lock_guard<std::mutex> lock(mutex_);
+    return latest_;
+  }
+
+ private:
+  std::mutex mutex_;
+  Vector4 latest_;
+};
+
+// Replays the synthetic events in timestamp order through a tracker.
+//
+// @return the last orientation reported before the tracker was paused.
+Vector4 Replay(int max_report_latency_us) {
+  std::vector<SensorTraceRecord> records;
+  int gyro = 0;
+  int accel = 0;
+  while (gyro < kSamples) {
+    if (AccelTimestamp(accel) <= GyroTimestamp(gyro)) {
+      const int64_t t = AccelTimestamp(accel++);
+      records.push_back({SensorTraceRecord::kAccelerometer, t, AccelAt(t)});
+    } else {
+      const int64_t t = GyroTimestamp(gyro++);
+      records.push_back({SensorTraceRecord::kGyroscope, t, GyroAt(t)});
+    }
+  }
+
+  ReplaySource* source = ReplaySource::GetInstance();
+  source->Load(records, ReplaySource::Speed::kMaxSpeed);
+  LatestPoseCallbacks* callbacks = new LatestPoseCallbacks();
+  OrientationTracker tracker(Vector3::Zero(), kGyroPeriodNs / 1000,
+                             max_report_latency_us, true, callbacks);
+  tracker.Resume();
+  source->Start();
+  source->WaitUntilFinished();
+  // Without batching, every pose has been reported by now. Pausing reports
+  // one more, predicted from a zero rotation rate, which is not compared.
+  const Vector4 unbatched = callbacks->latest();
+  tracker.Pause();
+  return max_report_latency_us > 0 ? callbacks->latest() : unbatched;
+}
+
+bool CompareReplay(const char* name, const Vector4& expected,
+                   const Vector4& actual) {
+  for (int j = 0; j < 4; ++j) {
+    if (actual[j] != expected[j]) {
+      std::printf("FAIL %s: final pose differs\n", name);
+      return false;
+    }
+  }
+  std::printf("PASS %s\n", name);
+  return true;
+}
+
+// Overflows the accelerometer queue with the watch lying flat, and then tilts
+// it, which only the last, overflowing sample shows.
+bool CheckAccelerometerOverflow() {
+  const int kBurst = 100;
+  SensorFusionEkf flat;
+  SensorFusionEkf tilted;
+  for (int i = 0; i < kBurst; ++i) {
+    const uint64_t t = AccelTimestamp(i);
+    flat.ProcessAccelerometerSample({t, t, Vector3(0, 0, 9.81)});
+    tilted.ProcessAccelerometerSample(
+        {t, t, i < kBurst - 1 ? Vector3(0, 0, 9.81) : Vector3(9.81, 0, 0)});
+  }
+  const uint64_t t = AccelTimestamp(kBurst);
+  flat.ProcessGyroscopeSample({t, t, Vector3::Zero()});
+  tilted.ProcessGyroscopeSample({t, t, Vector3::Zero()});
+
+  const Vector4 a =
+      flat.GetLatestPoseState().sensor_from_start_rotation.GetQuaternion();
+  const Vector4 b =
+      tilted.GetLatestPoseState().sensor_from_start_rotation.GetQuaternion();
+  if (a[0] == b[0] && a[1] == b[1] && a[2] == b[2] && a[3] == b[3]) {
+    std::printf("FAIL Accelerometer overflow: latest sample lost\n");
+    return false;
+  }
+  std::printf("PASS Accelerometer overflow\n");
+  return true;
+}
+
+}  // namespace
+
+int main() {
+  Fusion unbatched;
+  FeedUnbatched(&unbatched);
+
+  bool passed = true;
+  const int64_t kBatchesNs[] = {kGyroPeriodNs, 50000000, 100000000};
+  for (const int64_t batch_ns : kBatchesNs) {
+    for (const bool gyro_first : {false, true}) {
+      char name[64];
+      std::snprintf(name, sizeof(name), "%lld ms batches, %s first",
+                    static_cast<long long>(batch_ns / 1000000),
+                    gyro_first ? "gyroscope" : "accelerometer");
+      Fusion batched;
+      FeedBatched(&batched, batch_ns, gyro_first);
+      passed = Compare(name, unbatched, batched) && passed;
+    }
+  }
+
+  const Vector4 expected = Replay(0);
+  // Neither latency divides the trace evenly, so the last batch is partial.
+  passed = CompareReplay("Replay, 30 ms batches", expected, Replay(30000)) &&
+           passed;
+  passed = CompareReplay("Replay, 70 ms batches", expected, Replay(70000)) &&
+           passed;
+  passed = CheckAccelerometerOverflow() && passed;
+  return passed ? 0 : 1;
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Host test for the median filter of the gyroscope bias estimator.
+//
+// Usage: median_filter_test
+//
+// Checks that MedianFilter returns exactly the same samples as the
+// straightforward deque and nth_element implementation it replaced, on random
+// data with many equal norms, for several window sizes, with random resets.
+//
+// Exits with a non-zero code if the outputs differ.
+
+#include <cstddef>
+#include <cstdio>
+#include <random>
+#include <vector>
+
+#include "sensors/median_filter.h"
+#include "test/reference_median_filter.h"
+#include "util/vector.h"
+
+namespace {
+
+using cardboard::MedianFilter;
+using cardboard::ReferenceMedianFilter;
+using cardboard::Vector3;
+
+const int kSamples = 200000;
+const size_t kWindowSizes[] = {1, 2, 5, 8, 31};
+
+bool SameVector(const Vector3& a, const Vector3& b) {
+  return a[0] == b[0] && a[1] == b[1] && a[2] == b[2];
+}
+
+// Coarse random samples, so that many of them have equal norms.
+std::vector<Vector3> MakeSamples(int count, std::mt19937* random) {
+  std::uniform_int_distribution<int> component(-3, 3);
+  std::vector<Vector3> samples;
+  samples.reserve(count);
+  for (int i = 0; i < count; ++i) {
+    samples.push_back(Vector3(component(*random), component(*random),
+                              component(*random)));
+  }
+  return samples;
+}
+
+bool CheckEquivalence(size_t window, std::mt19937* random) {
+  const std::vector<Vector3> samples = MakeSamples(kSamples, random);
+  std::uniform_int_distribution<int> reset(0, 999);
+  MedianFilter filter(window);
+  ReferenceMedianFilter reference(window);
+  for (int i = 0; i < kSamples; ++i) {
+    if (reset(*random) == 0) {
+      filter.Reset();
+      reference.Reset();
+    }
+    filter.AddSample(samples[i]);
+    reference.AddSample(samples[i]);
+    if (filter.IsValid() != reference.IsValid()) {
+      std::printf("FAIL window %zu, sample %d: IsValid differs\n", window, i);
+      return false;
+    }
+    if (reference.IsValid() &&
+        !SameVector(filter.GetFilteredData(), reference.GetFilteredData())) {
+      std::printf("FAIL window %zu, sample %d: median differs\n", window, i);
+      return false;
+    }
+  }
+  std::printf("PASS window %zu, %d samples\n", window, kSamples);
+  return true;
+}
+
+}  // namespace
+
+int main() {
+  std::mt19937 random(42);
+  bool passed = true;
+  for (size_t window : kWindowSizes) {
+    passed = CheckEquivalence(window, &random) && passed;
+  }
+  return passed ? 0 : 1;
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#ifndef CARDBOARD_SDK_TEST_REFERENCE_MEDIAN_FILTER_H_
+#define CARDBOARD_SDK_TEST_REFERENCE_MEDIAN_FILTER_H_
+
+#include <algorithm>
+#include <cstddef>
+#include <deque>
+#include <vector>
+
+#include "util/vector.h"
+#include "util/vectorutils.h"
+
+namespace cardboard {
+
+// The straightforward deque and nth_element implementation that MedianFilter
+// replaced, kept as the reference for the test and the benchmark.
+class ReferenceMedianFilter {
+ public:
+  explicit ReferenceMedianFilter(size_t filter_size)
+      : filter_size_(filter_size) {}
+
+  void AddSample(const Vector3& sample) {
+    buffer_.push_back(sample);
+    norms_.push_back(Length(sample));
+    if (buffer_.size() > filter_size_) {
+      buffer_.pop_front();
+      norms_.pop_front();
+    }
+  }
+
+  bool IsValid() const { return buffer_.size() == filter_size_; }
+
+  Vector3 GetFilteredData() const {
+    std::vector<float> norms(norms_.begin(), norms_.end());
+    std::nth_element(norms.begin(), norms.begin() + filter_size_ / 2,
+                     norms.end());
+    const float median_norm = norms[filter_size_ / 2];
+    auto median_it = buffer_.begin();
+    for (const auto norm : norms_) {
+      if (norm == median_norm) {
+        break;
+      }
+      ++median_it;
+    }
+    return *median_it;
+  }
+
+  void Reset() {
+    buffer_.clear();
+    norms_.clear();
+  }
+
+ private:
+  const size_t filter_size_;
+  std::deque<Vector3> buffer_;
+  std::deque<float> norms_;
+};
+
+}  // namespace cardboard
+
+#endif  // CARDBOARD_SDK_TEST_REFERENCE_MEDIAN_FILTER_H_
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2019 Google Inc. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+// Host test for the sensor fusion snapshots.
+//
+// Usage: snapshot_round_trip_test
+//
+// Lets a SensorFusionEkf converge on synthetic accelerometer and gyroscope
+// events, and restores its snapshot into a new instance, which must capture
+// exactly the same snapshot, be aligned with gravity right away, and keep
+// tracking the same orientation as the original.
+//
+// Then passes the snapshot through OrientationTracker instances with
+// different calibrations, which must preserve the raw gyroscope bias, also
+// when the snapshot is stale or the calibration is replaced while tracking,
+// and checks that a stale snapshot doesn't restore the orientation.
+//
+// Exits with a non-zero code if any of the checks fails.
+
+#include <cmath>
+#include <cstdint>
+#include <cstdio>
+
+#include "orientation_tracker.h"
+#include "sensors/accelerometer_data.h"
+#include "sensors/gyroscope_data.h"
+#include "sensors/sensor_fusion_ekf.h"
+#include "sensors/sensor_thread_callbacks.h"
+#include "util/vector.h"
+
+namespace {
+
+using cardboard::AccelerometerData;
+using cardboard::GyroscopeData;
+using cardboard::OrientationTracker;
+using cardboard::SensorFusionEkf;
+using cardboard::SensorThreadCallbacks;
+using cardboard::Vector3;
+using cardboard::Vector4;
+using cardboard::kSnapshotSize;
+
+const int64_t kPeriodNs = 5000000;
+const int64_t kStartNs = 1000000000ll;
+// The gyroscope bias that the filter has to learn, in rad/s.
+const double kBias = 0.01;
+// Largest difference allowed between the orientation quaternions.
+const double kTolerance = 1e-3;
+
+// Feeds a still watch, tilted a bit, with a gyroscope biased by the given
+// value, and a slow rotation in the second half.
+void Feed(SensorFusionEkf* ekf, int first, int count, double bias = kBias) {
+  for (int i = first; i < first + count; ++i) {
+    const uint64_t t = kStartNs + i * kPeriodNs;
+    const double rate = i % 2000 < 1000 ? 0 : 0.2;
+    ekf->ProcessAccelerometerSample({t, t, Vector3(0.5, 0.3, 9.79)});
+    ekf->ProcessGyroscopeSample(
+        {t, t, Vector3(bias, bias + rate, bias)});
+  }
+}
+
+const double* Values(const SensorFusionEkf::Snapshot& snapshot) {
+  return reinterpret_cast<const double*>(&snapshot);
+}
+
+bool Check(const char* name, bool passed) {
+  std::printf("%s %s\n", passed ? "PASS" : "FAIL", name);
+  return passed;
+}
+
+bool SameSnapshot(const SensorFusionEkf::Snapshot& expected,
+                  const SensorFusionEkf::Snapshot& actual) {
+  for (int i = 0; i < kSnapshotSize; ++i) {
+    if (Values(actual)[i] != Values(expected)[i]) {
+      std::printf("Value %d is %g instead of %g\n", i, Values(actual)[i],
+                  Values(expected)[i]);
+      return false;
+    }
+  }
+  return true;
+}
+
+bool SamePose(const SensorFusionEkf& expected, const SensorFusionEkf& actual) {
+  const Vector4 a =
+      expected.GetLatestPoseState().sensor_from_start_rotation.GetQuaternion();
+  const Vector4 b =
+      actual.GetLatestPoseState().sensor_from_start_rotation.GetQuaternion();
+  for (int j = 0; j < 4; ++j) {
+    if (std::fabs(a[j] - b[j]) > kTolerance) {
+      std::printf("Component %d is %g instead of %g\n", j, b[j], a[j]);
+      return false;
+    }
+  }
+  return true;
+}
+
+bool SameBias(const SensorFusionEkf::Snapshot& expected,
+              const SensorFusionEkf::Snapshot& actual) {
+  for (int j = 0; j < 3; ++j) {
+    if (std::fabs(actual.bias[j] - expected.bias[j]) > 1e-12) {
+      std::printf("Bias %d is %g instead of %g\n", j, actual.bias[j],
+                  expected.bias[j]);
+      return false;
+    }
+  }
+  return true;
+}
+
+class NullCallbacks : public SensorThreadCallbacks {
+ public:
+  void onThreadStart() override {}
+  void onOrientation(const Vector4& /* quat */) override {}
+  void onThreadStop() override {}
+};
+
+}  // namespace
+
+int main() {
+  bool passed = true;
+
+  SensorFusionEkf original;
+  original.SetBiasEstimationEnabled(true);
+  Feed(&original, 0, 4000);
+  SensorFusionEkf::Snapshot snapshot;
+  original.GetSnapshot(&snapshot);
+  passed = Check("Bias learned", std::fabs(snapshot.bias[0] - kBias) <
+                                     kBias / 2) &&
+           passed;
+
+  SensorFusionEkf restored;
+  restored.SetBiasEstimationEnabled(true);
+  restored.RestoreSnapshot(snapshot, true);
+  SensorFusionEkf::Snapshot round_trip;
+  restored.GetSnapshot(&round_trip);
+  passed = Check("Same snapshot", SameSnapshot(snapshot, round_trip)) && passed;
+  passed = Check("Aligned with gravity", restored.IsFullyInitialized()) &&
+           passed;
+  passed = Check("Same pose", SamePose(original, restored)) && passed;
+
+  Feed(&original, 4000, 2000);
+  Feed(&restored, 4000, 2000);
+  passed = Check("Same pose after tracking", SamePose(original, restored)) &&
+           passed;
+
+  // A change of the calibration moves the estimate right away, and the
+  // samples with the new calibration keep it there, instead of the estimator
+  // pulling it back to the old one.
+  const double kChange = 0.004;
+  const double before = original.GetGyroscopeBias()[0];
+  original.SetCalibration(Vector3(kChange, kChange, kChange));
+  passed = Check("Bias adjusted", std::fabs(original.GetGyroscopeBias()[0] -
+                                            (before - kChange)) < 1e-12) &&
+           passed;
+  Feed(&original, 6000, 200, kBias - kChange);
+  passed = Check("Adjusted bias kept",
+                 std::fabs(original.GetGyroscopeBias()[0] - before +
+                           kChange) < kChange / 4) &&
+           passed;
+
+  SensorFusionEkf stale;
+  stale.SetBiasEstimationEnabled(true);
+  stale.RestoreSnapshot(snapshot, false);
+  passed = Check("Stale orientation dropped", !stale.IsFullyInitialized()) &&
+           passed;
+
+  // The tracker snapshot holds the raw bias, so it survives a recalibration.
+  OrientationTracker first(Vector3(0.002, -0.001, 0.003), kPeriodNs / 1000, 0,
+                           true, new NullCallbacks());
+  first.RestoreSnapshot(snapshot, true);
+  SensorFusionEkf::Snapshot first_snapshot;
+  first.GetSnapshot(&first_snapshot);
+  passed = Check("Tracker round trip", SameBias(snapshot, first_snapshot)) &&
+           passed;
+
+  OrientationTracker second(Vector3(-0.004, 0.001, 0.0), kPeriodNs / 1000, 0,
+                            true, new NullCallbacks());
+  second.RestoreSnapshot(first_snapshot, true);
+  SensorFusionEkf::Snapshot second_snapshot;
+  second.GetSnapshot(&second_snapshot);
+  passed = Check("Recalibrated tracker round trip",
+                 SameBias(snapshot, second_snapshot)) &&
+           passed;
+
+  OrientationTracker third(Vector3(0.001, 0.001, 0.001), kPeriodNs / 1000, 0,
+                           true, new NullCallbacks());
+  third.RestoreSnapshot(snapshot, false);
+  SensorFusionEkf::Snapshot third_snapshot;
+  third.GetSnapshot(&third_snapshot);
+  passed = Check("Stale tracker round trip",
+                 SameBias(snapshot, third_snapshot)) &&
+           passed;
+
+  third.SetCalibration(Vector3(0.005, -0.002, 0.0));
+  third.GetSnapshot(&third_snapshot);
+  passed = Check("Bias kept when recalibrated",
+                 SameBias(snapshot, third_snapshot)) &&
+           passed;
+
+  return passed ? 0 : 1;
+}
@@ -29,8 +29,17 @@
 
 #else
 
+#include <cstdio>
+
+// On hosts, only the errors are logged, so that the benchmarks are not slowed
+// down by logging.
 #define CARDBOARD_LOGI(...)
-#define CARDBOARD_LOGE(...)
+#define CARDBOARD_LOGE(...)                 \
+  do {                                      \
+    std::fprintf(stderr, "CardboardSDK: "); \
+    std::fprintf(stderr, __VA_ARGS__);      \
+    std::fprintf(stderr, "\n");             \
+  } while (0)
 
 #endif
 
@@ -49,6 +49,7 @@ public class WearMouseApp extends Application {
         super.onCreate();
         hidDataSender = HidDataSender.getInstance();
         settingsUtil = new SettingsUtil(this);
+        hidDataSender.setHighResolutionMouse(settingsUtil.getBoolean(SettingKey.HIGH_RES_MOUSE));
         ProcessLifecycleOwner.get().getLifecycle().addObserver(lifecycleObserver);
     }
 }
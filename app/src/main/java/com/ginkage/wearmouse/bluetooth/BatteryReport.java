@@ -16,11 +16,30 @@
 
 package com.ginkage.wearmouse.bluetooth;
 
-/** Helper class to store the battery state and retrieve the binary report. */
+/**
+ * Helper class to store the battery state and retrieve the binary report.
+ *
+ * <p>The level is reported in whole percent. To keep the radio asleep, a new level is only worth
+ * sending if it has moved by at least one percent in the same direction as the last reported
+ * change, or by {@link #HYSTERESIS_PERCENT} in the opposite one (or in any direction right after
+ * the first report). A level that arrives sooner than {@link #MIN_REPORT_INTERVAL_MS} after the
+ * previous report is sent when the interval is over.
+ */
 class BatteryReport {
 
+    /** Returned by {@link #getSendDelayMs} if the stored level isn't worth sending. */
+    static final long NEVER = -1;
+
+    private static final int HYSTERESIS_PERCENT = 2;
+    private static final long MIN_REPORT_INTERVAL_MS = 60000;
+
     private final byte[] batteryData = new byte[] {0};
 
+    private int level = -1;
+    private int lastSentLevel = -1;
+    private int lastDirection;
+    private long lastSentTimeMs;
+
     /**
      * Store the current battery level in the report.
      *
@@ -28,8 +47,8 @@ class BatteryReport {
      * @return Byte array that represents the report
      */
     byte[] setValue(float level) {
-        int val = (int) Math.ceil(level * 255);
-        batteryData[0] = (byte) (val & 0xff);
+        this.level = Math.round(Math.max(0, Math.min(1, level)) * 100);
+        batteryData[0] = (byte) this.level;
         return batteryData;
     }
 
@@ -37,10 +56,49 @@ class BatteryReport {
         return batteryData;
     }
 
+    /**
+     * Check when the stored level should be sent to the host.
+     *
+     * @param timeMs Current time, in milliseconds of {@code SystemClock.elapsedRealtime()}.
+     * @return 0 if the report should be sent now, the number of milliseconds to wait before it can
+     *     be sent, or {@link #NEVER} if the level isn't worth sending.
+     */
+    long getSendDelayMs(long timeMs) {
+        if (level < 0 || level == lastSentLevel) {
+            return NEVER;
+        }
+        if (lastSentLevel < 0) {
+            return 0;
+        }
+        if (Integer.signum(level - lastSentLevel) != lastDirection
+                && Math.abs(level - lastSentLevel) < HYSTERESIS_PERCENT) {
+            return NEVER;
+        }
+        return Math.max(0, lastSentTimeMs + MIN_REPORT_INTERVAL_MS - timeMs);
+    }
+
+    /**
+     * Remember the stored level as sent.
+     *
+     * @param timeMs Current time, in milliseconds of {@code SystemClock.elapsedRealtime()}.
+     */
+    void setSent(long timeMs) {
+        // The first level after a reset has no direction to stick to.
+        lastDirection = lastSentLevel < 0 ? 0 : Integer.signum(level - lastSentLevel);
+        lastSentLevel = level;
+        lastSentTimeMs = timeMs;
+    }
+
+    /** Forget the last sent level, so that the stored one is sent at the next opportunity. */
+    void reset() {
+        lastSentLevel = -1;
+        lastDirection = 0;
+    }
+
     /** Interface to send the Battery data with. */
     public interface BatteryDataSender {
         /**
-         * Send the Battery data to the connected HID Host device.
+         * Send the Battery data to the connected HID Host device, if it has changed enough.
          *
          * @param level Current battery level
          */
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import androidx.annotation.MainThread;
+
+/**
+ * Decides when the stored {@link BatteryReport} is sent: right away, after the minimum interval
+ * (as a single deferred task, replaced by every new level), or not at all.
+ */
+class BatteryReportScheduler {
+
+    /** Sends the report to the connected HID Host. */
+    interface ReportSender {
+        /**
+         * @param report Battery report to send.
+         * @return {@code false} if there is no HID Host that can receive the report now.
+         */
+        boolean sendReport(byte[] report);
+    }
+
+    /** Source of the current time, in milliseconds of {@code SystemClock.elapsedRealtime()}. */
+    interface Clock {
+        long elapsedRealtime();
+    }
+
+    /** Runs the deferred report on the main thread, the same way as {@code Handler} does. */
+    interface TaskScheduler {
+        void postDelayed(Runnable task, long delayMs);
+
+        void removeCallbacks(Runnable task);
+    }
+
+    private final BatteryReport batteryReport;
+    private final ReportSender sender;
+    private final Clock clock;
+    private final TaskScheduler scheduler;
+    private final Runnable deferredReport = this::send;
+
+    /**
+     * @param batteryReport Report that holds the battery level and the sending state.
+     * @param sender Interface to send the report with.
+     * @param clock Source of the current time.
+     * @param scheduler Scheduler for the report that has to wait for the minimum interval.
+     */
+    BatteryReportScheduler(
+            BatteryReport batteryReport,
+            ReportSender sender,
+            Clock clock,
+            TaskScheduler scheduler) {
+        this.batteryReport = checkNotNull(batteryReport);
+        this.sender = checkNotNull(sender);
+        this.clock = checkNotNull(clock);
+        this.scheduler = checkNotNull(scheduler);
+    }
+
+    /** Send the stored level now, or defer it, if it's worth sending. */
+    @MainThread
+    void send() {
+        scheduler.removeCallbacks(deferredReport);
+        long timeMs = clock.elapsedRealtime();
+        long delayMs = batteryReport.getSendDelayMs(timeMs);
+        if (delayMs == 0) {
+            if (sender.sendReport(batteryReport.getReport())) {
+                batteryReport.setSent(timeMs);
+            }
+        } else if (delayMs != BatteryReport.NEVER) {
+            // Too soon after the previous report, but the level shouldn't be lost.
+            scheduler.postDelayed(deferredReport, delayMs);
+        }
+    }
+}
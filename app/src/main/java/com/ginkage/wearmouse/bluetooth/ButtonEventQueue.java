@@ -0,0 +1,157 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import android.util.Log;
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Queue of button events, packed into ints. Lock-free and allocation-free, as long as there is
+ * only one producer thread and one consumer thread, and the consumer keeps up.
+ *
+ * <p>If the fixed-capacity ring is full, events go to an overflow list instead, until the consumer
+ * catches up. No event is ever dropped, since a lost button release would leave it stuck on the
+ * host.
+ */
+class ButtonEventQueue {
+
+    private static final String TAG = "ButtonEventQueue";
+
+    /** Returned by {@link #poll()} when the queue is empty. */
+    static final int EMPTY = -1;
+
+    /** Queue capacity, must be a power of two. */
+    private static final int CAPACITY = 32;
+
+    private static final int MASK = CAPACITY - 1;
+
+    private final int[] events = new int[CAPACITY];
+
+    // Both positions only grow, the producer owns the tail and the consumer owns the head.
+    private final AtomicInteger head = new AtomicInteger();
+    private final AtomicInteger tail = new AtomicInteger();
+
+    // Events that didn't fit in the ring, in order. While there are any, new events are added
+    // here as well, so that they can't overtake the older ones.
+    private final Object overflowLock = new Object();
+
+    @GuardedBy("overflowLock")
+    private int[] overflowEvents = new int[CAPACITY];
+
+    @GuardedBy("overflowLock")
+    private int overflowHead;
+
+    @GuardedBy("overflowLock")
+    private int overflowCount;
+
+    private volatile boolean overflowing;
+
+    /**
+     * Enqueue a button event.
+     *
+     * @param button Button index, from 0 to 30.
+     * @param state {@code true} if the button is pressed, {@code false} otherwise.
+     */
+    @MainThread
+    void offer(int button, boolean state) {
+        int event = pack(button, state);
+        int pos = tail.get();
+        if (!overflowing && pos - head.get() < CAPACITY) {
+            events[pos & MASK] = event;
+            // The ordered write makes the event visible to the consumer before the new tail.
+            tail.lazySet(pos + 1);
+            return;
+        }
+
+        synchronized (overflowLock) {
+            if (!overflowing) {
+                Log.w(TAG, "Button event queue is full, buffering the events");
+            }
+            if (overflowCount == overflowEvents.length) {
+                overflowEvents = Arrays.copyOf(overflowEvents, overflowCount * 2);
+            }
+            overflowEvents[overflowCount++] = event;
+            overflowing = true;
+        }
+    }
+
+    /**
+     * Take the oldest button event from the queue.
+     *
+     * @return The packed event (see {@link #getButton} and {@link #getState}), or {@link #EMPTY}.
+     */
+    @WorkerThread
+    int poll() {
+        int event = pollRing();
+        if (event != EMPTY || !overflowing) {
+            return event;
+        }
+
+        synchronized (overflowLock) {
+            // Events that were queued just before the overflow started must go first.
+            event = pollRing();
+            if (event != EMPTY || overflowHead == overflowCount) {
+                return event;
+            }
+            event = overflowEvents[overflowHead++];
+            if (overflowHead == overflowCount) {
+                overflowHead = 0;
+                overflowCount = 0;
+                overflowing = false;
+            }
+            return event;
+        }
+    }
+
+    /** Drop all the events. Only the consumer may call it, like {@link #poll()}. */
+    @WorkerThread
+    void clear() {
+        synchronized (overflowLock) {
+            overflowHead = 0;
+            overflowCount = 0;
+            overflowing = false;
+            // Moving the head is the consumer's job, so this can run concurrently with offer().
+            head.lazySet(tail.get());
+        }
+    }
+
+    private int pollRing() {
+        int pos = head.get();
+        if (pos == tail.get()) {
+            return EMPTY;
+        }
+        int event = events[pos & MASK];
+        head.lazySet(pos + 1);
+        return event;
+    }
+
+    static int getButton(int event) {
+        return event >>> 1;
+    }
+
+    static boolean getState(int event) {
+        return (event & 1) != 0;
+    }
+
+    private static int pack(int button, boolean state) {
+        return (button << 1) | (state ? 1 : 0);
+    }
+}
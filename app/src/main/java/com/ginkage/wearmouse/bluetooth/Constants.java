@@ -19,16 +19,22 @@ package com.ginkage.wearmouse.bluetooth;
 import android.bluetooth.BluetoothHidDevice;
 import android.bluetooth.BluetoothHidDeviceAppQosSettings;
 import android.bluetooth.BluetoothHidDeviceAppSdpSettings;
+import com.google.common.primitives.Bytes;
 
 /** Handy constants for the HID Report Descriptor and SDP configuration. */
 class Constants {
 
     static final byte ID_KEYBOARD = 1;
     static final byte ID_MOUSE = 2;
+    static final byte ID_DIGITIZER = 3;
+    static final byte ID_KEYBOARD_NKRO = 4;
+    static final byte ID_CONSUMER = 5;
     static final byte ID_BATTERY = 32;
 
-    private static final byte[] HIDD_REPORT_DESC = {
-        // Keyboard
+    /** Wheel and AC Pan units per detent, once the host has enabled the Resolution Multiplier. */
+    static final byte SCROLL_MULTIPLIER = 8;
+
+    private static final byte[] KEYBOARD_DESC = {
         (byte) 0x05, (byte) 0x01, // Usage page (Generic Desktop)
         (byte) 0x09, (byte) 0x06, // Usage (Keyboard)
         (byte) 0xA1, (byte) 0x01, // Collection (Application)
@@ -52,9 +58,24 @@ class Constants {
         (byte) 0x19, (byte) 0x00, //       Usage Minimum (0)
         (byte) 0x29, (byte) 0x65, //       Usage Maximum (101)
         (byte) 0x81, (byte) 0x00, //       Input (Data, Array)              ; Key array (6 keys)
+        (byte) 0x85, ID_KEYBOARD_NKRO, // Report ID
+        (byte) 0x05, (byte) 0x07, //       Usage page (Key Codes)
+        (byte) 0x19, (byte) 0xE0, //       Usage minimum (224)
+        (byte) 0x29, (byte) 0xE7, //       Usage maximum (231)
+        (byte) 0x15, (byte) 0x00, //       Logical minimum (0)
+        (byte) 0x25, (byte) 0x01, //       Logical maximum (1)
+        (byte) 0x75, (byte) 0x01, //       Report size (1)
+        (byte) 0x95, (byte) 0x08, //       Report count (8)
+        (byte) 0x81, (byte) 0x02, //       Input (Data, Variable, Absolute) ; Modifier byte
+        (byte) 0x19, (byte) 0x00, //       Usage minimum (0)
+        (byte) 0x29, (byte) 0x67, //       Usage maximum (103)
+        (byte) 0x95, (byte) 0x68, //       Report count (104)
+        (byte) 0x81, (byte) 0x02, //       Input (Data, Variable, Absolute) ; Key bitmap
         (byte) 0xC0,              // End Collection
+    };
 
-        // Mouse
+    /** Beginning of the Mouse collection, up to the button bits. */
+    private static final byte[] MOUSE_BUTTONS_DESC = {
         (byte) 0x05, (byte) 0x01, // Usage Page (Generic Desktop)
         (byte) 0x09, (byte) 0x02, // Usage (Mouse)
         (byte) 0xA1, (byte) 0x01, // Collection (Application)
@@ -72,44 +93,169 @@ class Constants {
         (byte) 0x75, (byte) 0x05, //       Report size (5)
         (byte) 0x95, (byte) 0x01, //       Report count (1)
         (byte) 0x81, (byte) 0x01, //       Input (constant)                 ; 5 bit padding
+    };
+
+    private static final byte[] MOUSE_XY_DESC = {
         (byte) 0x05, (byte) 0x01, //       Usage page (Generic Desktop)
         (byte) 0x09, (byte) 0x30, //       Usage (X)
         (byte) 0x09, (byte) 0x31, //       Usage (Y)
-        (byte) 0x09, (byte) 0x38, //       Usage (Wheel)
         (byte) 0x15, (byte) 0x81, //       Logical minimum (-127)
         (byte) 0x25, (byte) 0x7F, //       Logical maximum (127)
         (byte) 0x75, (byte) 0x08, //       Report size (8)
-        (byte) 0x95, (byte) 0x03, //       Report count (3)
+        (byte) 0x95, (byte) 0x02, //       Report count (2)
         (byte) 0x81, (byte) 0x06, //       Input (Data, Variable, Relative)
+    };
+
+    /** Same as {@link #MOUSE_XY_DESC}, but with 16-bit X and Y, see {@link MouseReport}. */
+    private static final byte[] MOUSE_XY_HIGH_RES_DESC = {
+        (byte) 0x05, (byte) 0x01, //       Usage page (Generic Desktop)
+        (byte) 0x09, (byte) 0x30, //       Usage (X)
+        (byte) 0x09, (byte) 0x31, //       Usage (Y)
+        (byte) 0x16, (byte) 0x01, (byte) 0x80, // Logical minimum (-32767)
+        (byte) 0x26, (byte) 0xFF, (byte) 0x7F, // Logical maximum (32767)
+        (byte) 0x75, (byte) 0x10, //       Report size (16)
+        (byte) 0x95, (byte) 0x02, //       Report count (2)
+        (byte) 0x81, (byte) 0x06, //       Input (Data, Variable, Relative)
+    };
+
+    /**
+     * Wheel and AC Pan, each with a Resolution Multiplier feature. Hosts that support it switch
+     * the multipliers on, and then every unit of the wheel or pan is 1/{@link
+     * #SCROLL_MULTIPLIER} of a detent. The rest of the hosts ignore the feature report.
+     */
+    private static final byte[] MOUSE_SCROLL_DESC = {
+        (byte) 0xA1, (byte) 0x02, //       Collection (Logical)
+        (byte) 0x09, (byte) 0x48, //          Usage (Resolution Multiplier)
+        (byte) 0x15, (byte) 0x00, //          Logical minimum (0)
+        (byte) 0x25, (byte) 0x01, //          Logical maximum (1)
+        (byte) 0x35, (byte) 0x01, //          Physical minimum (1)
+        (byte) 0x45, SCROLL_MULTIPLIER, //    Physical maximum
+        (byte) 0x75, (byte) 0x02, //          Report size (2)
+        (byte) 0x95, (byte) 0x01, //          Report count (1)
+        (byte) 0xB1, (byte) 0x02, //          Feature (Data, Variable, Absolute)
+        (byte) 0x35, (byte) 0x00, //          Physical minimum (0)
+        (byte) 0x45, (byte) 0x00, //          Physical maximum (0)
+        (byte) 0x09, (byte) 0x38, //          Usage (Wheel)
+        (byte) 0x15, (byte) 0x81, //          Logical minimum (-127)
+        (byte) 0x25, (byte) 0x7F, //          Logical maximum (127)
+        (byte) 0x75, (byte) 0x08, //          Report size (8)
+        (byte) 0x95, (byte) 0x01, //          Report count (1)
+        (byte) 0x81, (byte) 0x06, //          Input (Data, Variable, Relative)
+        (byte) 0xC0,              //       End Collection
+        (byte) 0xA1, (byte) 0x02, //       Collection (Logical)
+        (byte) 0x09, (byte) 0x48, //          Usage (Resolution Multiplier)
+        (byte) 0x15, (byte) 0x00, //          Logical minimum (0)
+        (byte) 0x25, (byte) 0x01, //          Logical maximum (1)
+        (byte) 0x35, (byte) 0x01, //          Physical minimum (1)
+        (byte) 0x45, SCROLL_MULTIPLIER, //    Physical maximum
+        (byte) 0x75, (byte) 0x02, //          Report size (2)
+        (byte) 0x95, (byte) 0x01, //          Report count (1)
+        (byte) 0xB1, (byte) 0x02, //          Feature (Data, Variable, Absolute)
+        (byte) 0x35, (byte) 0x00, //          Physical minimum (0)
+        (byte) 0x45, (byte) 0x00, //          Physical maximum (0)
+        (byte) 0x05, (byte) 0x0C, //          Usage page (Consumer)
+        (byte) 0x0A, (byte) 0x38, (byte) 0x02, // Usage (AC Pan)
+        (byte) 0x15, (byte) 0x81, //          Logical minimum (-127)
+        (byte) 0x25, (byte) 0x7F, //          Logical maximum (127)
+        (byte) 0x75, (byte) 0x08, //          Report size (8)
+        (byte) 0x95, (byte) 0x01, //          Report count (1)
+        (byte) 0x81, (byte) 0x06, //          Input (Data, Variable, Relative)
+        (byte) 0xC0,              //       End Collection
+        (byte) 0x75, (byte) 0x04, //       Report size (4)
+        (byte) 0x95, (byte) 0x01, //       Report count (1)
+        (byte) 0xB1, (byte) 0x01, //       Feature (Constant)               ; 4 bit padding
+        (byte) 0xC0,              //    End Collection
+        (byte) 0xC0,              // End Collection
+    };
+
+    private static final byte[] MOUSE_DESC =
+            Bytes.concat(MOUSE_BUTTONS_DESC, MOUSE_XY_DESC, MOUSE_SCROLL_DESC);
+
+    private static final byte[] MOUSE_HIGH_RES_DESC =
+            Bytes.concat(MOUSE_BUTTONS_DESC, MOUSE_XY_HIGH_RES_DESC, MOUSE_SCROLL_DESC);
+
+    private static final byte[] DIGITIZER_DESC = {
+        (byte) 0x05, (byte) 0x0D, // Usage Page (Digitizers)
+        (byte) 0x09, (byte) 0x02, // Usage (Pen)
+        (byte) 0xA1, (byte) 0x01, // Collection (Application)
+        (byte) 0x85, ID_DIGITIZER, //   Report ID
+        (byte) 0x09, (byte) 0x20, //    Usage (Stylus)
+        (byte) 0xA1, (byte) 0x00, //    Collection (Physical)
+        (byte) 0x09, (byte) 0x42, //       Usage (Tip Switch)
+        (byte) 0x09, (byte) 0x44, //       Usage (Barrel Switch)
+        (byte) 0x09, (byte) 0x32, //       Usage (In Range)
+        (byte) 0x15, (byte) 0x00, //       Logical minimum (0)
+        (byte) 0x25, (byte) 0x01, //       Logical maximum (1)
+        (byte) 0x75, (byte) 0x01, //       Report size (1)
+        (byte) 0x95, (byte) 0x03, //       Report count (3)
+        (byte) 0x81, (byte) 0x02, //       Input (Data, Variable, Absolute)
+        (byte) 0x75, (byte) 0x05, //       Report size (5)
+        (byte) 0x95, (byte) 0x01, //       Report count (1)
+        (byte) 0x81, (byte) 0x01, //       Input (constant)                 ; 5 bit padding
+        (byte) 0x05, (byte) 0x01, //       Usage page (Generic Desktop)
+        (byte) 0x09, (byte) 0x30, //       Usage (X)
+        (byte) 0x09, (byte) 0x31, //       Usage (Y)
+        (byte) 0x15, (byte) 0x00, //       Logical minimum (0)
+        (byte) 0x26, (byte) 0xFF, (byte) 0x7F, // Logical maximum (32767)
+        (byte) 0x75, (byte) 0x10, //       Report size (16)
+        (byte) 0x95, (byte) 0x02, //       Report count (2)
+        (byte) 0x81, (byte) 0x02, //       Input (Data, Variable, Absolute)
         (byte) 0xC0,              //    End Collection
         (byte) 0xC0,              // End Collection
+    };
 
-        // Battery
+    private static final byte[] CONSUMER_DESC = {
         (byte) 0x05, (byte) 0x0C, // Usage page (Consumer)
         (byte) 0x09, (byte) 0x01, // Usage (Consumer Control)
         (byte) 0xA1, (byte) 0x01, // Collection (Application)
+        (byte) 0x85, ID_CONSUMER, //    Report ID
+        (byte) 0x19, (byte) 0x00, //    Usage minimum (0)
+        (byte) 0x2A, (byte) 0xFF, (byte) 0x03, // Usage maximum (1023)
+        (byte) 0x15, (byte) 0x00, //    Logical minimum (0)
+        (byte) 0x26, (byte) 0xFF, (byte) 0x03, // Logical maximum (1023)
+        (byte) 0x75, (byte) 0x10, //    Report size (16)
+        (byte) 0x95, (byte) 0x01, //    Report count (1)
+        (byte) 0x81, (byte) 0x00, //    Input (Data, Array)
+        (byte) 0xC0,              // End Collection
+    };
+
+    private static final byte[] BATTERY_DESC = {
+        (byte) 0x05, (byte) 0x84, // Usage page (Power Device)
+        (byte) 0x09, (byte) 0x10, // Usage (Battery System)
+        (byte) 0xA1, (byte) 0x01, // Collection (Application)
         (byte) 0x85, ID_BATTERY,  //    Report ID
-        (byte) 0x05, (byte) 0x01, //    Usage page (Generic Desktop)
-        (byte) 0x09, (byte) 0x06, //    Usage (Keyboard)
-        (byte) 0xA1, (byte) 0x02, //    Collection (Logical)
-        (byte) 0x05, (byte) 0x06, //       Usage page (Generic Device Controls)
-        (byte) 0x09, (byte) 0x20, //       Usage (Battery Strength)
+        (byte) 0x09, (byte) 0x12, //    Usage (Battery)
+        (byte) 0xA1, (byte) 0x00, //    Collection (Physical)
+        (byte) 0x05, (byte) 0x85, //       Usage page (Battery System)
+        (byte) 0x09, (byte) 0x65, //       Usage (Absolute State Of Charge)
         (byte) 0x15, (byte) 0x00, //       Logical minimum (0)
-        (byte) 0x26, (byte) 0xff, (byte) 0x00, // Logical maximum (255)
+        (byte) 0x25, (byte) 0x64, //       Logical maximum (100)
         (byte) 0x75, (byte) 0x08, //       Report size (8)
-        (byte) 0x95, (byte) 0x01, //       Report count (3)
+        (byte) 0x95, (byte) 0x01, //       Report count (1)
         (byte) 0x81, (byte) 0x02, //       Input (Data, Variable, Absolute)
         (byte) 0xC0,              //    End Collection
         (byte) 0xC0,              // End Collection
     };
 
+    private static final byte[] HIDD_REPORT_DESC =
+            Bytes.concat(
+                    KEYBOARD_DESC, MOUSE_DESC, DIGITIZER_DESC, CONSUMER_DESC, BATTERY_DESC);
+
+    private static final byte[] HIDD_REPORT_DESC_HIGH_RES =
+            Bytes.concat(
+                    KEYBOARD_DESC,
+                    MOUSE_HIGH_RES_DESC,
+                    DIGITIZER_DESC,
+                    CONSUMER_DESC,
+                    BATTERY_DESC);
+
     private static final String SDP_NAME = "Wear Input";
     private static final String SDP_DESCRIPTION = "Wear OS HID Device";
     private static final String SDP_PROVIDER = "Google Inc.";
     private static final int QOS_TOKEN_RATE = 800; // 9 bytes * 1000000 us / 11250 us
     private static final int QOS_TOKEN_BUCKET_SIZE = 9;
     private static final int QOS_PEAK_BANDWIDTH = 0;
-    private static final int QOS_LATENCY = 11250;
+    static final int QOS_LATENCY = 11250;
 
     static final BluetoothHidDeviceAppSdpSettings SDP_RECORD =
             new BluetoothHidDeviceAppSdpSettings(
@@ -119,6 +265,14 @@ class Constants {
                     BluetoothHidDevice.SUBCLASS1_COMBO,
                     Constants.HIDD_REPORT_DESC);
 
+    static final BluetoothHidDeviceAppSdpSettings SDP_RECORD_HIGH_RES =
+            new BluetoothHidDeviceAppSdpSettings(
+                    Constants.SDP_NAME,
+                    Constants.SDP_DESCRIPTION,
+                    Constants.SDP_PROVIDER,
+                    BluetoothHidDevice.SUBCLASS1_COMBO,
+                    Constants.HIDD_REPORT_DESC_HIGH_RES);
+
     static final BluetoothHidDeviceAppQosSettings QOS_OUT =
             new BluetoothHidDeviceAppQosSettings(
                     BluetoothHidDeviceAppQosSettings.SERVICE_BEST_EFFORT,
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import java.util.Arrays;
+
+/**
+ * Helper class to store the Consumer Control state and retrieve the binary report.
+ *
+ * <p>The report holds one Consumer page usage at a time, which is enough for the media and volume
+ * keys that are pressed and released one by one.
+ */
+public class ConsumerReport {
+
+    /** Usage to release the currently pressed Consumer Control key. */
+    public static final int NONE = 0;
+
+    // Consumer page usages of the supported keys.
+    public static final int SCAN_NEXT = 0xB5;
+    public static final int SCAN_PREVIOUS = 0xB6;
+    public static final int PLAY_PAUSE = 0xCD;
+    public static final int MUTE = 0xE2;
+    public static final int VOLUME_UP = 0xE9;
+    public static final int VOLUME_DOWN = 0xEA;
+
+    private final byte[] consumerData = "Uu".getBytes();
+
+    ConsumerReport() {
+        Arrays.fill(consumerData, (byte) 0);
+    }
+
+    byte[] setValue(int usage) {
+        consumerData[0] = (byte) usage;
+        consumerData[1] = (byte) (usage >> 8);
+        return consumerData;
+    }
+
+    byte[] getReport() {
+        return consumerData;
+    }
+
+    /** Interface to send the Consumer Control data with. */
+    public interface ConsumerDataSender {
+        /**
+         * Send the Consumer Control data to the connected HID Host device.
+         *
+         * @param usage Consumer page usage of the key that is currently pressed, or {@link #NONE}.
+         */
+        void sendConsumer(int usage);
+    }
+}
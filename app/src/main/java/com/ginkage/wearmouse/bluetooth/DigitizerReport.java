@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import java.util.Arrays;
+
+/**
+ * Helper class to store the digitizer state and retrieve the binary report.
+ *
+ * <p>The digitizer reports an absolute pointer position, so every report is self-contained: a
+ * lost or coalesced report doesn't make the pointer drift.
+ */
+public class DigitizerReport {
+
+    /** Largest position along one axis, the smallest one is 0. */
+    public static final int MAX_POSITION = 32767;
+
+    private final byte[] digitizerData = "FXxYy".getBytes();
+
+    DigitizerReport() {
+        Arrays.fill(digitizerData, (byte) 0);
+    }
+
+    byte[] setValue(boolean tip, boolean barrel, boolean inRange, int x, int y) {
+        digitizerData[0] = (byte) ((tip ? 1 : 0) | (barrel ? 2 : 0) | (inRange ? 4 : 0));
+        digitizerData[1] = (byte) x;
+        digitizerData[2] = (byte) (x >> 8);
+        digitizerData[3] = (byte) y;
+        digitizerData[4] = (byte) (y >> 8);
+        return digitizerData;
+    }
+
+    byte[] getReport() {
+        return digitizerData;
+    }
+
+    /** Interface to send the Digitizer data with. */
+    public interface DigitizerDataSender {
+        /**
+         * Send the Digitizer data to the connected HID Host device.
+         *
+         * @param tip Tip switch state, which hosts treat as the primary button.
+         * @param barrel Barrel switch state, a modifier of the tip on the side of the pen.
+         * @param inRange Whether the pointer is in range and should be shown.
+         * @param x Absolute position along X axis, from 0 to {@link #MAX_POSITION}.
+         * @param y Absolute position along Y axis, from 0 to {@link #MAX_POSITION}.
+         */
+        void sendDigitizer(boolean tip, boolean barrel, boolean inRange, int x, int y);
+    }
+}
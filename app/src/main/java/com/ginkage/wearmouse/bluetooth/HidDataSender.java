@@ -27,8 +27,9 @@ import android.content.IntentFilter;
 import android.os.BatteryManager;
 import android.util.ArraySet;
 import android.util.Log;
+import androidx.annotation.AnyThread;
 import androidx.annotation.MainThread;
-import androidx.annotation.WorkerThread;
+import com.google.common.annotations.VisibleForTesting;
 import com.ginkage.wearmouse.bluetooth.HidDeviceProfile.ServiceStateListener;
 import java.util.Set;
 import javax.annotation.Nullable;
@@ -36,7 +37,10 @@ import javax.annotation.concurrent.GuardedBy;
 
 /** Central point for enabling the HID SDP record and sending all data. */
 public class HidDataSender
-        implements MouseReport.MouseDataSender, KeyboardReport.KeyboardDataSender {
+        implements MouseReport.MouseDataSender,
+                DigitizerReport.DigitizerDataSender,
+                KeyboardReport.KeyboardDataSender,
+                ConsumerReport.ConsumerDataSender {
 
     private static final String TAG = "HidDataSender";
 
@@ -62,6 +66,7 @@ public class HidDataSender
 
     private final HidDeviceApp hidDeviceApp;
     private final HidDeviceProfile hidDeviceProfile;
+    private final ReportDispatcher reportDispatcher;
 
     private final Object lock = new Object();
 
@@ -79,13 +84,25 @@ public class HidDataSender
     @GuardedBy("lock")
     private boolean isAppRegistered;
 
+    @GuardedBy("lock")
+    private boolean highResolutionMouse;
+
+    /**
+     * Snapshot of {@code connectedDevice != null}, so that the data senders can check it without
+     * taking the lock.
+     */
+    private volatile boolean isConnected;
+
     /**
      * @param hidDeviceApp HID Device App interface.
      * @param hidDeviceProfile Interface to manage paired HID Host devices.
      */
-    private HidDataSender(HidDeviceApp hidDeviceApp, HidDeviceProfile hidDeviceProfile) {
+    @VisibleForTesting
+    HidDataSender(HidDeviceApp hidDeviceApp, HidDeviceProfile hidDeviceProfile) {
         this.hidDeviceApp = checkNotNull(hidDeviceApp);
         this.hidDeviceProfile = checkNotNull(hidDeviceProfile);
+        this.reportDispatcher =
+                new ReportDispatcher(hidDeviceApp, hidDeviceApp, hidDeviceApp, hidDeviceApp);
     }
 
     /**
@@ -120,6 +137,7 @@ public class HidDataSender
             context = checkNotNull(context).getApplicationContext();
             hidDeviceProfile.registerServiceListener(context, profileListener);
             hidDeviceApp.registerDeviceListener(profileListener);
+            reportDispatcher.start();
             context.registerReceiver(
                     batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
         }
@@ -160,6 +178,47 @@ public class HidDataSender
 
             connectedDevice = null;
             waitingForDevice = null;
+            isConnected = false;
+        }
+
+        // Not under the lock: the dispatch thread may need it to finish sending a report.
+        reportDispatcher.stop();
+    }
+
+    /**
+     * Start handing the data over to the HID Device App, as if a HID Host was connected. The data
+     * senders don't need to know which one.
+     */
+    @VisibleForTesting
+    @MainThread
+    void connectForTesting() {
+        synchronized (lock) {
+            reportDispatcher.start();
+            isConnected = true;
+        }
+    }
+
+    /** Stop handing the data over, and stop the dispatch thread. */
+    @VisibleForTesting
+    @MainThread
+    void disconnectForTesting() {
+        synchronized (lock) {
+            isConnected = false;
+        }
+        reportDispatcher.stop();
+    }
+
+    /**
+     * Choose the Mouse report layout. It takes effect the next time the HID Device SDP record is
+     * registered.
+     *
+     * @param highResolution {@code true} to send 16-bit Mouse movement if possible, {@code false}
+     *     to always use the standard 8-bit reports.
+     */
+    @MainThread
+    public void setHighResolutionMouse(boolean highResolution) {
+        synchronized (lock) {
+            highResolutionMouse = highResolution;
         }
     }
 
@@ -169,7 +228,7 @@ public class HidDataSender
      * @return {@code true} if HID Host is connected, {@code false} otherwise.
      */
     public boolean isConnected() {
-        return (connectedDevice != null);
+        return isConnected;
     }
 
     /**
@@ -189,6 +248,7 @@ public class HidDataSender
             }
 
             connectedDevice = null;
+            isConnected = false;
             updateDeviceList();
 
             if (device != null && device.equals(connectedDevice)) {
@@ -200,23 +260,69 @@ public class HidDataSender
     }
 
     @Override
-    @WorkerThread
-    public void sendMouse(boolean left, boolean right, boolean middle, int dX, int dY, int dWheel) {
-        synchronized (lock) {
-            if (connectedDevice != null) {
-                hidDeviceApp.sendMouse(left, right, middle, dX, dY, dWheel);
-            }
+    @AnyThread
+    public void sendMouse(
+            boolean left, boolean right, boolean middle, int dX, int dY, int dWheel, int dPan) {
+        // Never block here: the report is handed over to the dispatch thread.
+        if (isConnected) {
+            reportDispatcher.sendMouse(left, right, middle, dX, dY, dWheel, dPan);
         }
     }
 
     @Override
-    @WorkerThread
+    @AnyThread
+    public int getWheelMultiplier() {
+        return hidDeviceApp.getWheelMultiplier();
+    }
+
+    @Override
+    @AnyThread
+    public int getPanMultiplier() {
+        return hidDeviceApp.getPanMultiplier();
+    }
+
+    @Override
+    @AnyThread
+    public void sendDigitizer(boolean tip, boolean barrel, boolean inRange, int x, int y) {
+        if (isConnected) {
+            reportDispatcher.sendDigitizer(tip, barrel, inRange, x, y);
+        }
+    }
+
+    /** Get the interval between the transmit slots of the Bluetooth link, in microseconds. */
+    @AnyThread
+    public int getReportPeriodUs() {
+        return Constants.QOS_LATENCY;
+    }
+
+    @Override
+    @AnyThread
+    public int getMaxMovement() {
+        return hidDeviceApp.getMaxMovement();
+    }
+
+    @Override
+    @AnyThread
     public void sendKeyboard(
             int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
-        synchronized (lock) {
-            if (connectedDevice != null) {
-                hidDeviceApp.sendKeyboard(modifier, key1, key2, key3, key4, key5, key6);
-            }
+        if (isConnected) {
+            reportDispatcher.sendKeyboard(modifier, key1, key2, key3, key4, key5, key6);
+        }
+    }
+
+    @Override
+    @AnyThread
+    public void sendKeyEvent(int modifier, int key, boolean down) {
+        if (isConnected) {
+            reportDispatcher.sendKeyEvent(modifier, key, down);
+        }
+    }
+
+    @Override
+    @AnyThread
+    public void sendConsumer(int usage) {
+        if (isConnected) {
+            reportDispatcher.sendConsumer(usage);
         }
     }
 
@@ -233,7 +339,7 @@ public class HidDataSender
                                 onAppStatusChanged(false);
                             }
                         } else {
-                            hidDeviceApp.registerApp(proxy);
+                            hidDeviceApp.registerApp(proxy, highResolutionMouse);
                         }
                         updateDeviceList();
                         for (ProfileListener listener : listeners) {
@@ -321,6 +427,7 @@ public class HidDataSender
                 connectedDevice = null;
             }
             hidDeviceApp.setDevice(connectedDevice);
+            isConnected = (connectedDevice != null);
         }
     }
 
@@ -23,7 +23,9 @@ import android.bluetooth.BluetoothHidDevice;
 import android.bluetooth.BluetoothProfile;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import androidx.annotation.AnyThread;
 import androidx.annotation.BinderThread;
 import androidx.annotation.MainThread;
 import androidx.annotation.WorkerThread;
@@ -32,7 +34,9 @@ import javax.annotation.Nullable;
 /** Helper class that holds all data about the HID Device's SDP record and wraps data sending. */
 public class HidDeviceApp
         implements MouseReport.MouseDataSender,
+                DigitizerReport.DigitizerDataSender,
                 KeyboardReport.KeyboardDataSender,
+                ConsumerReport.ConsumerDataSender,
                 BatteryReport.BatteryDataSender {
 
     private static final String TAG = "HidDeviceApp";
@@ -54,11 +58,34 @@ public class HidDeviceApp
     }
 
     private final MouseReport mouseReport = new MouseReport();
+    private final DigitizerReport digitizerReport = new DigitizerReport();
     private final KeyboardReport keyboardReport = new KeyboardReport();
+    private final ConsumerReport consumerReport = new ConsumerReport();
     private final BatteryReport batteryReport = new BatteryReport();
     private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+    private final BatteryReportScheduler batteryReportScheduler =
+            new BatteryReportScheduler(
+                    batteryReport,
+                    this::sendBatteryReport,
+                    SystemClock::elapsedRealtime,
+                    new BatteryReportScheduler.TaskScheduler() {
+                        @Override
+                        public void postDelayed(Runnable task, long delayMs) {
+                            mainThreadHandler.postDelayed(task, delayMs);
+                        }
+
+                        @Override
+                        public void removeCallbacks(Runnable task) {
+                            mainThreadHandler.removeCallbacks(task);
+                        }
+                    });
+
+    // Written on the main thread, read on the report dispatch thread.
+    @Nullable private volatile BluetoothDevice device;
+
+    // Written on the binder thread when the host switches the protocol, read by the senders.
+    private volatile boolean bootProtocol;
 
-    @Nullable private BluetoothDevice device;
     @Nullable private DeviceStateListener deviceStateListener;
     private boolean lastReportZero;
 
@@ -70,6 +97,15 @@ public class HidDeviceApp
                 public void onAppStatusChanged(BluetoothDevice pluggedDevice, boolean registered) {
                     super.onAppStatusChanged(pluggedDevice, registered);
                     HidDeviceApp.this.registered = registered;
+                    if (fallbackPending) {
+                        fallbackPending = false;
+                        if (!registered) {
+                            // Nobody has seen the rejected record, so don't report it.
+                            Log.w(TAG, "High resolution SDP record was rejected by the stack");
+                            mainThreadHandler.post(HidDeviceApp.this::registerStandardApp);
+                            return;
+                        }
+                    }
                     HidDeviceApp.this.onAppStatusChanged(registered);
                 }
 
@@ -77,16 +113,35 @@ public class HidDeviceApp
                 @BinderThread
                 public void onConnectionStateChanged(BluetoothDevice device, int state) {
                     super.onConnectionStateChanged(device, state);
+                    if (state == BluetoothProfile.STATE_CONNECTED) {
+                        // Every new connection starts in the report protocol mode, with no keys
+                        // pressed and the wheel at one unit per detent.
+                        bootProtocol = false;
+                        keyboardReport.reset();
+                        mouseReport.resetFeature();
+                    }
                     HidDeviceApp.this.onConnectionStateChanged(device, state);
                 }
 
+                @Override
+                @BinderThread
+                public void onSetProtocol(BluetoothDevice device, byte protocol) {
+                    super.onSetProtocol(device, protocol);
+                    bootProtocol = (protocol == BluetoothHidDevice.PROTOCOL_BOOT_MODE);
+                    Log.i(TAG, "Protocol mode changed, boot mode: " + bootProtocol);
+                }
+
                 @Override
                 @BinderThread
                 public void onGetReport(
                         BluetoothDevice device, byte type, byte id, int bufferSize) {
                     super.onGetReport(device, type, id, bufferSize);
                     if (inputHost != null) {
-                        if (type != BluetoothHidDevice.REPORT_TYPE_INPUT) {
+                        if (type == BluetoothHidDevice.REPORT_TYPE_FEATURE
+                                && id == Constants.ID_MOUSE) {
+                            inputHost.replyReport(
+                                    device, type, id, mouseReport.getFeatureReport());
+                        } else if (type != BluetoothHidDevice.REPORT_TYPE_INPUT) {
                             inputHost.reportError(
                                     device, BluetoothHidDevice.ERROR_RSP_UNSUPPORTED_REQ);
                         } else if (!replyReport(device, type, id)) {
@@ -101,29 +156,70 @@ public class HidDeviceApp
                 public void onSetReport(BluetoothDevice device, byte type, byte id, byte[] data) {
                     super.onSetReport(device, type, id, data);
                     if (inputHost != null) {
-                        inputHost.reportError(device, BluetoothHidDevice.ERROR_RSP_SUCCESS);
+                        if (type == BluetoothHidDevice.REPORT_TYPE_FEATURE
+                                && id == Constants.ID_MOUSE
+                                && !mouseReport.setFeature(data)) {
+                            inputHost.reportError(
+                                    device, BluetoothHidDevice.ERROR_RSP_INVALID_PARAM);
+                        } else {
+                            inputHost.reportError(device, BluetoothHidDevice.ERROR_RSP_SUCCESS);
+                        }
                     }
                 }
             };
 
-    @Nullable private BluetoothHidDevice inputHost;
+    @Nullable private volatile BluetoothHidDevice inputHost;
     private boolean registered;
 
+    // Set while the stack hasn't answered the high resolution record registration yet.
+    private volatile boolean fallbackPending;
+
     /**
      * Register the HID Device's SDP record.
      *
      * @param inputHost Interface for managing the paired HID Host devices and sending the data.
+     * @param highResolution {@code true} to try the record with 16-bit Mouse movement first, and
+     *     fall back to the standard record if it is refused right away, or if the stack reports
+     *     that it couldn't be registered.
      */
     @MainThread
-    void registerApp(BluetoothProfile inputHost) {
-        this.inputHost = checkNotNull((BluetoothHidDevice) inputHost);
-        this.inputHost.registerApp(
-                Constants.SDP_RECORD, null, Constants.QOS_OUT, Runnable::run, callback);
+    void registerApp(BluetoothProfile inputHost, boolean highResolution) {
+        BluetoothHidDevice host = checkNotNull((BluetoothHidDevice) inputHost);
+        this.inputHost = host;
+        if (highResolution) {
+            mouseReport.setHighResolution(true);
+            // The answer may arrive before registerApp() returns.
+            fallbackPending = true;
+            if (host.registerApp(
+                    Constants.SDP_RECORD_HIGH_RES,
+                    null,
+                    Constants.QOS_OUT,
+                    Runnable::run,
+                    callback)) {
+                return;
+            }
+            fallbackPending = false;
+            Log.w(TAG, "High resolution SDP record was refused, using the standard one");
+        }
+        registerStandardApp();
+    }
+
+    /** Register the SDP record with the standard 8-bit Mouse movement. */
+    @MainThread
+    private void registerStandardApp() {
+        BluetoothHidDevice host = inputHost;
+        if (host == null) {
+            // Unregistered while waiting for the high resolution record.
+            return;
+        }
+        mouseReport.setHighResolution(false);
+        host.registerApp(Constants.SDP_RECORD, null, Constants.QOS_OUT, Runnable::run, callback);
     }
 
     /** Unregister the HID Device's SDP record. */
     @MainThread
     void unregisterApp() {
+        fallbackPending = false;
         if (inputHost != null && registered) {
             inputHost.unregisterApp();
         }
@@ -153,14 +249,34 @@ public class HidDeviceApp
      */
     @MainThread
     public void setDevice(@Nullable BluetoothDevice device) {
+        BluetoothDevice oldDevice = this.device;
         this.device = device;
+        if (device != null && !device.equals(oldDevice)) {
+            // The new host doesn't know the battery level yet.
+            batteryReport.reset();
+            batteryReportScheduler.send();
+        }
     }
 
     @Override
     @WorkerThread
-    public void sendMouse(boolean left, boolean right, boolean middle, int dX, int dY, int dWheel) {
+    public void sendMouse(
+            boolean left, boolean right, boolean middle, int dX, int dY, int dWheel, int dPan) {
+        BluetoothHidDevice inputHost = this.inputHost;
+        BluetoothDevice device = this.device;
+        if (bootProtocol) {
+            // The boot protocol fast path: no wheel, no zero report tracking.
+            byte[] report = mouseReport.setBootValue(left, right, middle, dX, dY);
+            if (inputHost != null && device != null) {
+                // The stack only lets the boot report IDs through in this mode, and doesn't send
+                // the ID byte itself.
+                inputHost.sendReport(device, Constants.ID_MOUSE, report);
+            }
+            return;
+        }
+
         // Store the current values in case the host will try to read them with a GET_REPORT call.
-        byte[] report = mouseReport.setValue(left, right, middle, dX, dY, dWheel);
+        byte[] report = mouseReport.setValue(left, right, middle, dX, dY, dWheel, dPan);
         if (inputHost != null && device != null) {
             // Check if there is any data to send at all. Save power by skipping zero reports.
             boolean isZeroReport = true;
@@ -178,14 +294,86 @@ public class HidDeviceApp
         }
     }
 
+    @Override
+    @AnyThread
+    public int getWheelMultiplier() {
+        return bootProtocol ? 1 : mouseReport.getWheelMultiplier();
+    }
+
+    @Override
+    @AnyThread
+    public int getPanMultiplier() {
+        return bootProtocol ? 1 : mouseReport.getPanMultiplier();
+    }
+
+    @Override
+    @WorkerThread
+    public void sendDigitizer(boolean tip, boolean barrel, boolean inRange, int x, int y) {
+        // Store the current values in case the host will try to read them with a GET_REPORT call.
+        byte[] report = digitizerReport.setValue(tip, barrel, inRange, x, y);
+        BluetoothHidDevice inputHost = this.inputHost;
+        BluetoothDevice device = this.device;
+        // There is no boot protocol digitizer.
+        if (inputHost != null && device != null && !bootProtocol) {
+            inputHost.sendReport(device, Constants.ID_DIGITIZER, report);
+        }
+    }
+
+    @Override
+    @AnyThread
+    public int getMaxMovement() {
+        return mouseReport.isHighResolution() && !bootProtocol
+                ? MouseReport.MAX_MOVEMENT_HIGH_RES
+                : MouseReport.MAX_MOVEMENT;
+    }
+
     @Override
     @WorkerThread
     public void sendKeyboard(
             int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
         // Store the current values in case the host will try to read them with a GET_REPORT call.
-        byte[] report = keyboardReport.setValue(modifier, key1, key2, key3, key4, key5, key6);
-        if (inputHost != null && device != null) {
-            inputHost.sendReport(device, Constants.ID_KEYBOARD, report);
+        sendKeyboardReport(keyboardReport.setValue(modifier, key1, key2, key3, key4, key5, key6));
+    }
+
+    @Override
+    @WorkerThread
+    public void sendKeyEvent(int modifier, int key, boolean down) {
+        sendKeyboardReport(keyboardReport.setKey(modifier, key, down));
+    }
+
+    /** @param changed Reports that have changed, as returned by {@link KeyboardReport}. */
+    @WorkerThread
+    private void sendKeyboardReport(int changed) {
+        BluetoothHidDevice inputHost = this.inputHost;
+        BluetoothDevice device = this.device;
+        if (changed == 0 || inputHost == null || device == null) {
+            return;
+        }
+        // The boot protocol only knows about the 6-key array.
+        if (bootProtocol) {
+            inputHost.sendReport(device, Constants.ID_KEYBOARD, keyboardReport.getBootReport());
+            return;
+        }
+        // A key never moves between the two reports, and both carry the same modifiers.
+        if ((changed & KeyboardReport.CHANGED_ARRAY) != 0) {
+            inputHost.sendReport(device, Constants.ID_KEYBOARD, keyboardReport.getReport());
+        }
+        if ((changed & KeyboardReport.CHANGED_NKRO) != 0) {
+            inputHost.sendReport(
+                    device, Constants.ID_KEYBOARD_NKRO, keyboardReport.getNkroReport());
+        }
+    }
+
+    @Override
+    @WorkerThread
+    public void sendConsumer(int usage) {
+        // Store the current values in case the host will try to read them with a GET_REPORT call.
+        byte[] report = consumerReport.setValue(usage);
+        BluetoothHidDevice inputHost = this.inputHost;
+        BluetoothDevice device = this.device;
+        // There is no boot protocol Consumer Control.
+        if (inputHost != null && device != null && !bootProtocol) {
+            inputHost.sendReport(device, Constants.ID_CONSUMER, report);
         }
     }
 
@@ -193,10 +381,19 @@ public class HidDeviceApp
     @MainThread
     public void sendBatteryLevel(float level) {
         // Store the current values in case the host will try to read them with a GET_REPORT call.
-        byte[] report = batteryReport.setValue(level);
-        if (inputHost != null && device != null) {
-            inputHost.sendReport(device, Constants.ID_BATTERY, report);
+        batteryReport.setValue(level);
+        batteryReportScheduler.send();
+    }
+
+    @MainThread
+    private boolean sendBatteryReport(byte[] report) {
+        BluetoothHidDevice inputHost = this.inputHost;
+        BluetoothDevice device = this.device;
+        if (inputHost == null || device == null || bootProtocol) {
+            return false;
         }
+        inputHost.sendReport(device, Constants.ID_BATTERY, report);
+        return true;
     }
 
     @BinderThread
@@ -235,10 +432,19 @@ public class HidDeviceApp
     private byte[] getReport(byte id) {
         switch (id) {
             case Constants.ID_KEYBOARD:
-                return keyboardReport.getReport();
+                return bootProtocol ? keyboardReport.getBootReport() : keyboardReport.getReport();
+
+            case Constants.ID_KEYBOARD_NKRO:
+                return keyboardReport.getNkroReport();
 
             case Constants.ID_MOUSE:
-                return mouseReport.getReport();
+                return bootProtocol ? mouseReport.getBootReport() : mouseReport.getReport();
+
+            case Constants.ID_DIGITIZER:
+                return digitizerReport.getReport();
+
+            case Constants.ID_CONSUMER:
+                return consumerReport.getReport();
 
             case Constants.ID_BATTERY:
                 return batteryReport.getReport();
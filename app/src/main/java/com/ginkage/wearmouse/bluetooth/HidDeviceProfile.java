@@ -55,7 +55,12 @@ public class HidDeviceProfile {
     @Nullable private BluetoothHidDevice service;
 
     HidDeviceProfile() {
-        this.bluetoothAdapter = checkNotNull(BluetoothAdapter.getDefaultAdapter());
+        this(checkNotNull(BluetoothAdapter.getDefaultAdapter()));
+    }
+
+    /** @param bluetoothAdapter Adapter that provides the profile proxy. */
+    HidDeviceProfile(BluetoothAdapter bluetoothAdapter) {
+        this.bluetoothAdapter = bluetoothAdapter;
     }
 
     /**
@@ -18,36 +18,177 @@ package com.ginkage.wearmouse.bluetooth;
 
 import java.util.Arrays;
 
-/** Helper class to store the keyboard state and retrieve the binary report. */
+/**
+ * Helper class to store the keyboard state and retrieve the binary report.
+ *
+ * <p>The state is kept as a bitmap of the pressed keys, so any number of keys can be held at once.
+ * In the report protocol mode, the first six keys go to the boot-compatible 6-key array report,
+ * which every host understands, and only the keys beyond that go to the N-key rollover bitmap
+ * report. A key stays in the report it was pressed in until it is released, so that the host never
+ * sees it released on the way. Both reports carry the same modifier byte.
+ *
+ * <p>In the boot protocol mode, the 6-key array report has all slots set to ErrorRollOver if more
+ * keys are pressed.
+ */
 public class KeyboardReport {
 
+    /** The 6-key array report has changed. */
+    static final int CHANGED_ARRAY = 1;
+
+    /** The N-key rollover bitmap report has changed. */
+    static final int CHANGED_NKRO = 2;
+
+    /** Number of key usages in the bitmap, starting from 0. */
+    private static final int KEY_COUNT = 104;
+
+    /** Largest usage that the 6-key array can hold. */
+    private static final int ARRAY_MAX_KEY = 101;
+
+    private static final int KEY_BYTES = KEY_COUNT / 8;
+    private static final int ARRAY_KEYS = 6;
+    private static final byte ERROR_ROLL_OVER = 1;
+
     private final byte[] keyboardData = "M0ABCDEF".getBytes();
+    private final byte[] bootKeyboardData = new byte[2 + ARRAY_KEYS];
+    private final byte[] nkroData = new byte[1 + KEY_BYTES];
+    private final byte[] keys = new byte[KEY_BYTES];
+    private final byte[] newKeys = new byte[KEY_BYTES];
+
+    /** Whether the bitmap report was sent since the last reset. */
+    private boolean nkroUsed;
 
     KeyboardReport() {
         Arrays.fill(keyboardData, (byte) 0);
     }
 
-    byte[] setValue(int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
-        keyboardData[0] = (byte) modifier;
-        keyboardData[1] = 0;
-        keyboardData[2] = (byte) key1;
-        keyboardData[3] = (byte) key2;
-        keyboardData[4] = (byte) key3;
-        keyboardData[5] = (byte) key4;
-        keyboardData[6] = (byte) key5;
-        keyboardData[7] = (byte) key6;
-        return keyboardData;
+    /**
+     * Replace the keyboard state with the specified keys.
+     *
+     * @return Combination of {@link #CHANGED_ARRAY} and {@link #CHANGED_NKRO} for the reports that
+     *     have changed, or 0 if the state is the same as before.
+     */
+    int setValue(int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
+        Arrays.fill(newKeys, (byte) 0);
+        setKeyBit(key1, true);
+        setKeyBit(key2, true);
+        setKeyBit(key3, true);
+        setKeyBit(key4, true);
+        setKeyBit(key5, true);
+        setKeyBit(key6, true);
+        return update(modifier);
+    }
+
+    /**
+     * Press or release a single key, keeping the rest of the keys as they are.
+     *
+     * @return Combination of {@link #CHANGED_ARRAY} and {@link #CHANGED_NKRO} for the reports that
+     *     have changed, or 0 if the state is the same as before.
+     */
+    int setKey(int modifier, int key, boolean down) {
+        System.arraycopy(keys, 0, newKeys, 0, KEY_BYTES);
+        setKeyBit(key, down);
+        return update(modifier);
+    }
+
+    /** Release all keys, without reporting it. */
+    void reset() {
+        Arrays.fill(keyboardData, (byte) 0);
+        Arrays.fill(nkroData, (byte) 0);
+        Arrays.fill(keys, (byte) 0);
+        nkroUsed = false;
     }
 
+    /** Get the boot-compatible report with up to 6 keys. */
     byte[] getReport() {
         return keyboardData;
     }
 
+    /** Get the N-key rollover bitmap report with the keys that didn't fit in the 6-key array. */
+    byte[] getNkroReport() {
+        return nkroData;
+    }
+
+    /** Get the 6-key array report for the boot protocol mode, which only has that report. */
+    byte[] getBootReport() {
+        System.arraycopy(keyboardData, 0, bootKeyboardData, 0, bootKeyboardData.length);
+        for (int i = 1; i < nkroData.length; i++) {
+            if (nkroData[i] != 0) {
+                Arrays.fill(bootKeyboardData, 2, 2 + ARRAY_KEYS, ERROR_ROLL_OVER);
+                break;
+            }
+        }
+        return bootKeyboardData;
+    }
+
+    private void setKeyBit(int key, boolean down) {
+        // Zero stands for "no key", and the usages beyond the bitmap can't be reported.
+        if (key <= 0 || key >= KEY_COUNT) {
+            return;
+        }
+        if (down) {
+            newKeys[key >> 3] |= (byte) (1 << (key & 7));
+        } else {
+            newKeys[key >> 3] &= (byte) ~(1 << (key & 7));
+        }
+    }
+
+    private static boolean isSet(byte[] bitmap, int offset, int key) {
+        return (bitmap[offset + (key >> 3)] & (1 << (key & 7))) != 0;
+    }
+
+    private int update(int modifier) {
+        int changed = 0;
+        if (keyboardData[0] != (byte) modifier) {
+            keyboardData[0] = (byte) modifier;
+            nkroData[0] = (byte) modifier;
+            // Once the host has seen the bitmap report, its modifiers have to be kept up to date.
+            changed |= nkroUsed ? CHANGED_ARRAY | CHANGED_NKRO : CHANGED_ARRAY;
+        }
+
+        // Drop the released keys from the array, keeping the order of the rest.
+        int count = 0;
+        for (int i = 0; i < ARRAY_KEYS; i++) {
+            byte key = keyboardData[2 + i];
+            if (key != 0 && isSet(newKeys, 0, key)) {
+                keyboardData[2 + count++] = key;
+            } else if (key != 0) {
+                changed |= CHANGED_ARRAY;
+            }
+        }
+        Arrays.fill(keyboardData, 2 + count, 2 + ARRAY_KEYS, (byte) 0);
+
+        for (int key = 1; key < KEY_COUNT; key++) {
+            boolean down = isSet(newKeys, 0, key);
+            if (down == isSet(keys, 0, key)) {
+                continue;
+            }
+            if (!down) {
+                if (isSet(nkroData, 1, key)) {
+                    nkroData[1 + (key >> 3)] &= (byte) ~(1 << (key & 7));
+                    changed |= CHANGED_NKRO;
+                }
+            } else if (count < ARRAY_KEYS && key <= ARRAY_MAX_KEY) {
+                keyboardData[2 + count++] = (byte) key;
+                changed |= CHANGED_ARRAY;
+            } else {
+                nkroData[1 + (key >> 3)] |= (byte) (1 << (key & 7));
+                changed |= CHANGED_NKRO;
+            }
+        }
+        System.arraycopy(newKeys, 0, keys, 0, KEY_BYTES);
+
+        if ((changed & CHANGED_NKRO) != 0) {
+            nkroUsed = true;
+        }
+        return changed;
+    }
+
     /** Interface to send the Keyboard data with. */
     public interface KeyboardDataSender {
         /**
          * Send Keyboard data to the connected HID Host device. Up to six buttons pressed
-         * simultaneously are supported (not including modifier keys).
+         * simultaneously are supported (not including modifier keys). Nothing is sent if the
+         * keyboard state is already the same.
          *
          * @param modifier Modifier keys bit mask (Ctrl/Shift/Alt/GUI).
          * @param key1 Scan code of the 1st button that is currently pressed (or 0 if none).
@@ -58,5 +199,15 @@ public class KeyboardReport {
          * @param key6 Scan code of the 6th button that is currently pressed (or 0 if none).
          */
         void sendKeyboard(int modifier, int key1, int key2, int key3, int key4, int key5, int key6);
+
+        /**
+         * Press or release a single key, leaving the other keys pressed. There is no limit on the
+         * number of keys held this way. Nothing is sent if the keyboard state hasn't changed.
+         *
+         * @param modifier Modifier keys bit mask (Ctrl/Shift/Alt/GUI).
+         * @param key Scan code of the button to press or release (or 0 to only set modifiers).
+         * @param down {@code true} to press the button, {@code false} to release it.
+         */
+        void sendKeyEvent(int modifier, int key, boolean down);
     }
 }
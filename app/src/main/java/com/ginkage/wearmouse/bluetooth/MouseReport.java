@@ -18,26 +18,126 @@ package com.ginkage.wearmouse.bluetooth;
 
 import java.util.Arrays;
 
-/** Helper class to store the mouse state and retrieve the binary report. */
+/**
+ * Helper class to store the mouse state and retrieve the binary report.
+ *
+ * <p>There are two report layouts, matching the two SDP records in {@link Constants}: the
+ * standard one with 8-bit X and Y, and the high resolution one with 16-bit little-endian X and Y,
+ * which delivers a fast movement in one report instead of several.
+ *
+ * <p>The feature report holds the Resolution Multiplier state of the wheel and the pan, as set by
+ * the host.
+ *
+ * <p>In the boot protocol mode, the host expects the fixed 3-byte boot mouse report instead.
+ */
 public class MouseReport {
 
-    private final byte[] mouseData = "BXYW".getBytes();
+    /** Largest movement along one axis that fits in a standard report. */
+    public static final int MAX_MOVEMENT = 127;
+
+    /** Largest movement along one axis that fits in a high resolution report. */
+    public static final int MAX_MOVEMENT_HIGH_RES = 32767;
+
+    private final byte[] mouseData = "BXYWP".getBytes();
+    private final byte[] mouseDataHighRes = "BXxYyWP".getBytes();
+    private final byte[] bootMouseData = new byte[3];
+
+    // Written on the binder thread by the host, read on the report dispatch thread.
+    private volatile byte featureValue;
+
+    private volatile boolean highResolution;
 
     MouseReport() {
         Arrays.fill(mouseData, (byte) 0);
+        Arrays.fill(mouseDataHighRes, (byte) 0);
+    }
+
+    /**
+     * Select the report layout. Must match the SDP record that was registered.
+     *
+     * @param highResolution {@code true} for 16-bit X and Y, {@code false} for 8-bit.
+     */
+    void setHighResolution(boolean highResolution) {
+        this.highResolution = highResolution;
     }
 
-    byte[] setValue(boolean left, boolean right, boolean middle, int x, int y, int wheel) {
+    /** @return {@code true} if the reports use 16-bit X and Y. */
+    boolean isHighResolution() {
+        return highResolution;
+    }
+
+    byte[] setValue(
+            boolean left, boolean right, boolean middle, int x, int y, int wheel, int pan) {
         int buttons = ((left ? 1 : 0) | (right ? 2 : 0) | (middle ? 4 : 0));
+        if (highResolution) {
+            mouseDataHighRes[0] = (byte) buttons;
+            mouseDataHighRes[1] = (byte) x;
+            mouseDataHighRes[2] = (byte) (x >> 8);
+            mouseDataHighRes[3] = (byte) y;
+            mouseDataHighRes[4] = (byte) (y >> 8);
+            mouseDataHighRes[5] = (byte) wheel;
+            mouseDataHighRes[6] = (byte) pan;
+            return mouseDataHighRes;
+        }
         mouseData[0] = (byte) buttons;
         mouseData[1] = (byte) x;
         mouseData[2] = (byte) y;
         mouseData[3] = (byte) wheel;
+        mouseData[4] = (byte) pan;
         return mouseData;
     }
 
     byte[] getReport() {
-        return mouseData;
+        return highResolution ? mouseDataHighRes : mouseData;
+    }
+
+    /**
+     * Store the mouse state as a boot protocol report. Movement that doesn't fit is clipped.
+     *
+     * @return Byte array that represents the report
+     */
+    byte[] setBootValue(boolean left, boolean right, boolean middle, int x, int y) {
+        bootMouseData[0] = (byte) ((left ? 1 : 0) | (right ? 2 : 0) | (middle ? 4 : 0));
+        bootMouseData[1] = (byte) Math.max(-MAX_MOVEMENT, Math.min(MAX_MOVEMENT, x));
+        bootMouseData[2] = (byte) Math.max(-MAX_MOVEMENT, Math.min(MAX_MOVEMENT, y));
+        return bootMouseData;
+    }
+
+    byte[] getBootReport() {
+        return bootMouseData;
+    }
+
+    /**
+     * Store the feature report received from the host.
+     *
+     * @param data Feature report without the report ID.
+     * @return {@code true} if the report was valid.
+     */
+    boolean setFeature(byte[] data) {
+        if (data.length < 1) {
+            return false;
+        }
+        featureValue = data[0];
+        return true;
+    }
+
+    /** Go back to the default multipliers, which a newly connected host expects. */
+    void resetFeature() {
+        featureValue = 0;
+    }
+
+    byte[] getFeatureReport() {
+        return new byte[] {featureValue};
+    }
+
+    /** @return Wheel units per detent, as enabled by the host. */
+    int getWheelMultiplier() {
+        return (featureValue & 0x03) != 0 ? Constants.SCROLL_MULTIPLIER : 1;
+    }
+
+    /** @return Pan units per detent, as enabled by the host. */
+    int getPanMultiplier() {
+        return (featureValue & 0x0C) != 0 ? Constants.SCROLL_MULTIPLIER : 1;
     }
 
     /** Interface to send the Mouse data with. */
@@ -51,7 +151,37 @@ public class MouseReport {
          * @param dX Mouse movement along X axis since the last event.
          * @param dY Mouse movement along Y axis since the last event.
          * @param dWheel Mouse wheel rotation since the last event.
+         * @param dPan Horizontal scroll since the last event.
+         */
+        void sendMouse(
+                boolean left, boolean right, boolean middle, int dX, int dY, int dWheel, int dPan);
+
+        /**
+         * Get the largest movement along X or Y axis that fits in one report.
+         *
+         * @return Maximum absolute value of {@code dX} and {@code dY}.
+         */
+        default int getMaxMovement() {
+            return MAX_MOVEMENT;
+        }
+
+        /**
+         * Get the scale of the wheel rotation, which depends on whether the host has enabled the
+         * high resolution scrolling.
+         *
+         * @return Number of {@code dWheel} units per wheel detent.
+         */
+        default int getWheelMultiplier() {
+            return 1;
+        }
+
+        /**
+         * Get the scale of the horizontal scroll.
+         *
+         * @return Number of {@code dPan} units per detent.
          */
-        void sendMouse(boolean left, boolean right, boolean middle, int dX, int dY, int dWheel);
+        default int getPanMultiplier() {
+            return 1;
+        }
     }
 }
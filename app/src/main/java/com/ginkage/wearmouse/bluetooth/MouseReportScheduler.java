@@ -0,0 +1,389 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.util.Log;
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Accumulates the Mouse movement and button events from any number of input sources, and sends
+ * them as one merged report per transmit slot of the Bluetooth link.
+ *
+ * <p>Movement that doesn't fit in one report is carried over to the next slot. Button events are
+ * applied one per report, so that no transition is ever merged away. Every button event is sent,
+ * even if it doesn't change the state (some hosts miss a single event, so the callers may repeat
+ * it on purpose). Otherwise, nothing is sent while there is no movement.
+ *
+ * <p>In the absolute mode, the pointer position and the Left button (as the tip switch) are sent
+ * with the Digitizer reports instead, while the wheel and the Right and Middle buttons still use
+ * the Mouse reports. When stopped, the pointer is reported out of range, so that the host hides
+ * it.
+ *
+ * <p>Scrolling is accumulated in fractions of a detent. If the host has enabled the high
+ * resolution scrolling, the fractions are sent as they come; otherwise only whole detents are.
+ */
+public class MouseReportScheduler {
+
+    /** Button index of the Left mouse button. */
+    public static final int BUTTON_LEFT = 0;
+    /** Button index of the Right mouse button. */
+    public static final int BUTTON_RIGHT = 1;
+    /** Button index of the Middle mouse button. */
+    public static final int BUTTON_MIDDLE = 2;
+
+    private static final String TAG = "MouseReportScheduler";
+
+    private static final int REPORT_PERIOD_LOW_US = 20000;
+    private static final int REPORT_PERIOD_HIGH_US = Constants.QOS_LATENCY;
+
+    // How long to wait for the report being sent when stopping.
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private final MouseReport.MouseDataSender dataSender;
+    private final DigitizerReport.DigitizerDataSender digitizerSender;
+    private final Object lock = new Object();
+
+    /** A queue of button events that are pending and need to be sent. */
+    private final ButtonEventQueue pendingEvents = new ButtonEventQueue();
+
+    /**
+     * Movement that is yet to be sent, packed with {@link #packMovement}. The packing is linear, so
+     * the sum of the packed values is the packed sum, and the sensor thread never takes a lock.
+     */
+    private final AtomicLong movement = new AtomicLong();
+
+    /** Pointer position for the absolute mode, packed with {@link #packPosition}. */
+    private final AtomicLong position = new AtomicLong();
+
+    /** Wheel rotation that is yet to be sent, in detents. */
+    @GuardedBy("lock")
+    private double dWheel;
+
+    /** Horizontal scroll that is yet to be sent, in detents. */
+    @GuardedBy("lock")
+    private double dPan;
+
+    private volatile boolean absolute;
+
+    // Only accessed by the scheduler thread.
+    private int buttons;
+    private int lastButtons;
+    private int lastPositionX;
+    private int lastPositionY;
+
+    @Nullable private ScheduledThreadPoolExecutor executor;
+    @Nullable private ScheduledFuture<?> scheduledFuture;
+
+    /**
+     * @param dataSender Interface to send the merged Mouse reports with.
+     * @param digitizerSender Interface to send the Digitizer reports with, in the absolute mode.
+     */
+    public MouseReportScheduler(
+            MouseReport.MouseDataSender dataSender,
+            DigitizerReport.DigitizerDataSender digitizerSender) {
+        this.dataSender = checkNotNull(dataSender);
+        this.digitizerSender = checkNotNull(digitizerSender);
+    }
+
+    /**
+     * Start sending the reports, if not started yet. Any movement and button events left from the
+     * previous session are discarded.
+     *
+     * @param reducedRate {@code true} to send the reports less often and save power, {@code false}
+     *     to send them once per each transmit slot.
+     * @param absolute {@code true} if the pointer is driven with {@link #setPosition}, {@code
+     *     false} if it is driven with {@link #addMovement}.
+     */
+    @MainThread
+    public void start(boolean reducedRate, boolean absolute) {
+        if (scheduledFuture != null) {
+            return;
+        }
+
+        // The button events were already drained by the last task of the previous session.
+        synchronized (lock) {
+            dWheel = 0;
+            dPan = 0;
+        }
+        movement.set(0);
+        position.set(
+                packPosition(DigitizerReport.MAX_POSITION / 2, DigitizerReport.MAX_POSITION / 2));
+        buttons = 0;
+        lastButtons = 0;
+        // Make sure the first position gets sent.
+        lastPositionX = -1;
+        lastPositionY = -1;
+        this.absolute = absolute;
+
+        long periodUs = reducedRate ? REPORT_PERIOD_LOW_US : REPORT_PERIOD_HIGH_US;
+        executor = new ScheduledThreadPoolExecutor(1);
+        scheduledFuture =
+                executor.scheduleAtFixedRate(this::flush, 0, periodUs, TimeUnit.MICROSECONDS);
+    }
+
+    /** Stop sending the reports. */
+    @MainThread
+    public void stop() {
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(false);
+            scheduledFuture = null;
+            // Only the consumer may take the events out of the queue.
+            executor.execute(pendingEvents::clear);
+            if (absolute) {
+                executor.execute(this::sendOutOfRange);
+            }
+            executor.shutdown();
+            // The next start() resets the state the running flush may still be using.
+            try {
+                if (!executor.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "Timed out waiting for the last report");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            executor = null;
+        }
+    }
+
+    /**
+     * Add movement to be sent with the next report.
+     *
+     * @param dX Mouse movement along X axis.
+     * @param dY Mouse movement along Y axis.
+     */
+    @AnyThread
+    public void addMovement(int dX, int dY) {
+        movement.getAndAdd(packMovement(dX, dY));
+    }
+
+    /**
+     * Add scrolling to be sent with the next report.
+     *
+     * @param dWheel Mouse wheel rotation, in detents.
+     * @param dPan Horizontal scroll, in detents.
+     */
+    @AnyThread
+    public void addScroll(double dWheel, double dPan) {
+        synchronized (lock) {
+            this.dWheel += dWheel;
+            this.dPan += dPan;
+        }
+    }
+
+    /**
+     * Set the pointer position to be sent with the next report, in the absolute mode.
+     *
+     * @param x Position along X axis, from 0 to {@link DigitizerReport#MAX_POSITION}.
+     * @param y Position along Y axis, from 0 to {@link DigitizerReport#MAX_POSITION}.
+     */
+    @AnyThread
+    public void setPosition(int x, int y) {
+        position.set(packPosition(x, y));
+    }
+
+    /**
+     * Enqueue a button press event. Ignored while the reports are not being sent.
+     *
+     * @param button Button index. Can be one of BUTTON_LEFT, BUTTON_RIGHT, BUTTON_MIDDLE.
+     * @param state {@code true} if the button is pressed, {@code false} otherwise.
+     */
+    @MainThread
+    public void setButton(int button, boolean state) {
+        if (scheduledFuture == null) {
+            return;
+        }
+        pendingEvents.offer(button, state);
+    }
+
+    @WorkerThread
+    private void flush() {
+        int event = pendingEvents.poll();
+        int eventMask = 0;
+        if (event != ButtonEventQueue.EMPTY) {
+            eventMask = 1 << ButtonEventQueue.getButton(event);
+            if (ButtonEventQueue.getState(event)) {
+                buttons |= eventMask;
+            } else {
+                buttons &= ~eventMask;
+            }
+        }
+
+        if (absolute) {
+            flushAbsolute(eventMask);
+        } else {
+            flushRelative(eventMask);
+        }
+    }
+
+    /** @param eventMask Mask of the button that had an event in this slot, or 0 if none. */
+    @WorkerThread
+    private void flushRelative(int eventMask) {
+        // The report layout may change when the SDP record is registered again.
+        int maxMovement = dataSender.getMaxMovement();
+        int wheelMultiplier = dataSender.getWheelMultiplier();
+        int panMultiplier = dataSender.getPanMultiplier();
+        double x;
+        double y;
+        int wheel;
+        int pan;
+
+        synchronized (lock) {
+            wheel = toScrollUnits(dWheel, wheelMultiplier);
+            dWheel -= (double) wheel / wheelMultiplier;
+            pan = toScrollUnits(dPan, panMultiplier);
+            dPan -= (double) pan / panMultiplier;
+        }
+
+        long pending = movement.getAndSet(0);
+        int dX = unpackMovementX(pending);
+        int dY = unpackMovementY(pending);
+        x = dX;
+        y = dY;
+
+        // Scale the shift down to fit the protocol, and keep the rest for the next report.
+        double scale = 1;
+        if (Math.abs(x) > maxMovement) {
+            scale = maxMovement / Math.abs(x);
+        }
+        if (Math.abs(y) * scale > maxMovement) {
+            scale = maxMovement / Math.abs(y);
+        }
+        x = Math.round(x * scale);
+        y = Math.round(y * scale);
+
+        if (x != dX || y != dY) {
+            movement.getAndAdd(packMovement(dX - (int) x, dY - (int) y));
+        }
+
+        if (x == 0 && y == 0 && wheel == 0 && pan == 0 && eventMask == 0) {
+            // Nothing has happened since the last report.
+            return;
+        }
+        lastButtons = buttons;
+
+        dataSender.sendMouse(
+                (buttons & (1 << BUTTON_LEFT)) != 0,
+                (buttons & (1 << BUTTON_RIGHT)) != 0,
+                (buttons & (1 << BUTTON_MIDDLE)) != 0,
+                (int) x,
+                (int) y,
+                wheel,
+                pan);
+    }
+
+    /** @param eventMask Mask of the button that had an event in this slot, or 0 if none. */
+    @WorkerThread
+    private void flushAbsolute(int eventMask) {
+        int wheelMultiplier = dataSender.getWheelMultiplier();
+        int panMultiplier = dataSender.getPanMultiplier();
+        int x;
+        int y;
+        int wheel;
+        int pan;
+
+        synchronized (lock) {
+            wheel = toScrollUnits(dWheel, wheelMultiplier);
+            dWheel -= (double) wheel / wheelMultiplier;
+            pan = toScrollUnits(dPan, panMultiplier);
+            dPan -= (double) pan / panMultiplier;
+        }
+
+        long packed = position.get();
+        x = unpackPositionX(packed);
+        y = unpackPositionY(packed);
+        // Relative movement has no meaning here.
+        movement.set(0);
+
+        int changed = (buttons ^ lastButtons) | eventMask;
+        lastButtons = buttons;
+
+        if (x != lastPositionX || y != lastPositionY || (changed & (1 << BUTTON_LEFT)) != 0) {
+            lastPositionX = x;
+            lastPositionY = y;
+            // There is no barrel switch to press on the watch.
+            digitizerSender.sendDigitizer((buttons & (1 << BUTTON_LEFT)) != 0, false, true, x, y);
+        }
+
+        int mouseButtons = (1 << BUTTON_RIGHT) | (1 << BUTTON_MIDDLE);
+        if (wheel != 0 || pan != 0 || (changed & mouseButtons) != 0) {
+            dataSender.sendMouse(
+                    false,
+                    (buttons & (1 << BUTTON_RIGHT)) != 0,
+                    (buttons & (1 << BUTTON_MIDDLE)) != 0,
+                    0,
+                    0,
+                    wheel,
+                    pan);
+        }
+    }
+
+    /** Release the tip and let the host hide the pointer, at the last position that was sent. */
+    @WorkerThread
+    private void sendOutOfRange() {
+        if (lastPositionX >= 0) {
+            digitizerSender.sendDigitizer(false, false, false, lastPositionX, lastPositionY);
+        }
+    }
+
+    private static long packMovement(int dX, int dY) {
+        // Not a bitwise packing: a negative Y borrows from X, which keeps the addition exact.
+        return ((long) dX << 32) + dY;
+    }
+
+    private static int unpackMovementY(long packed) {
+        return (int) packed;
+    }
+
+    private static int unpackMovementX(long packed) {
+        return (int) ((packed - unpackMovementY(packed)) >> 32);
+    }
+
+    private static long packPosition(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private static int unpackPositionX(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    private static int unpackPositionY(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Get the whole units of the accumulated scrolling that fit in one report. The fraction is
+     * left for later, so that slow scrolling isn't lost.
+     *
+     * @param detents Accumulated scrolling, in detents.
+     * @param multiplier Units per detent.
+     * @return Units to send now.
+     */
+    private static int toScrollUnits(double detents, int multiplier) {
+        long units = (long) (detents * multiplier);
+        return (int) Math.max(-MouseReport.MAX_MOVEMENT, Math.min(MouseReport.MAX_MOVEMENT, units));
+    }
+}
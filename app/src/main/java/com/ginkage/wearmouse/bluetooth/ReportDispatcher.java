@@ -0,0 +1,399 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.util.Log;
+import androidx.annotation.AnyThread;
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Sends the HID reports from a dedicated thread, so that the threads producing the input data
+ * never block on a slow {@code sendReport} call or on the profile state lock.
+ *
+ * <p>Reports are packed into primitive slots of a bounded lock-free queue (a sequence number per
+ * slot tells whether it is free or holds a published report), which keeps the producer path free
+ * of locks and allocations. If the queue is full, reports go to an overflow list instead, until the
+ * dispatch thread catches up. No report is ever dropped, since a lost key or button release would
+ * leave it stuck on the host, but consecutive Mouse movements in the overflow list are merged.
+ */
+class ReportDispatcher {
+
+    private static final String TAG = "ReportDispatcher";
+
+    /** Queue capacity, must be a power of two. */
+    private static final int CAPACITY = 64;
+
+    private static final int MASK = CAPACITY - 1;
+
+    private static final int TYPE_MOUSE = 0;
+    private static final int TYPE_KEYBOARD = 1;
+    private static final int TYPE_DIGITIZER = 2;
+    private static final int TYPE_KEY_EVENT = 3;
+    private static final int TYPE_CONSUMER = 4;
+
+    private final MouseReport.MouseDataSender mouseSender;
+    private final DigitizerReport.DigitizerDataSender digitizerSender;
+    private final KeyboardReport.KeyboardDataSender keyboardSender;
+    private final ConsumerReport.ConsumerDataSender consumerSender;
+
+    // Each slot holds either a sequence number equal to its position (free for the producer that
+    // claims this position) or position + 1 (published, ready for the consumer).
+    private final AtomicLongArray sequence = new AtomicLongArray(CAPACITY);
+    private final int[] types = new int[CAPACITY];
+    private final long[] payloads = new long[CAPACITY];
+
+    private final AtomicLong tail = new AtomicLong();
+
+    // Reports that didn't fit in the queue, in order. While there are any, new reports are added
+    // here as well, so that they can't overtake the older ones.
+    private final Object overflowLock = new Object();
+
+    @GuardedBy("overflowLock")
+    private int[] overflowTypes = new int[CAPACITY];
+
+    @GuardedBy("overflowLock")
+    private long[] overflowPayloads = new long[CAPACITY];
+
+    @GuardedBy("overflowLock")
+    private int overflowCount;
+
+    private volatile boolean overflowing;
+
+    // The overflow list taken by the dispatch thread, swapped with the one above to reuse them.
+    @GuardedBy("overflowLock")
+    private int[] takenTypes = new int[CAPACITY];
+
+    @GuardedBy("overflowLock")
+    private long[] takenPayloads = new long[CAPACITY];
+
+    // Only accessed by the dispatch thread (or by the main thread while it is not running).
+    private long head;
+
+    @Nullable private volatile Thread thread;
+    private volatile boolean running;
+
+    /**
+     * @param mouseSender Interface that actually sends the Mouse reports.
+     * @param digitizerSender Interface that actually sends the Digitizer reports.
+     * @param keyboardSender Interface that actually sends the Keyboard reports.
+     * @param consumerSender Interface that actually sends the Consumer Control reports.
+     */
+    ReportDispatcher(
+            MouseReport.MouseDataSender mouseSender,
+            DigitizerReport.DigitizerDataSender digitizerSender,
+            KeyboardReport.KeyboardDataSender keyboardSender,
+            ConsumerReport.ConsumerDataSender consumerSender) {
+        this.mouseSender = checkNotNull(mouseSender);
+        this.digitizerSender = checkNotNull(digitizerSender);
+        this.keyboardSender = checkNotNull(keyboardSender);
+        this.consumerSender = checkNotNull(consumerSender);
+        for (int i = 0; i < CAPACITY; i++) {
+            sequence.set(i, i);
+        }
+    }
+
+    /** Start the dispatch thread, if it isn't running yet. */
+    @MainThread
+    void start() {
+        if (thread != null) {
+            return;
+        }
+
+        // Whatever is left in the queue was meant for the previous session.
+        while (poll() || pollOverflow()) {}
+
+        running = true;
+        Thread newThread = new Thread(this::dispatchLoop, TAG);
+        thread = newThread;
+        newThread.start();
+    }
+
+    /** Stop the dispatch thread. Reports that weren't sent yet will be dropped. */
+    @MainThread
+    void stop() {
+        Thread oldThread = thread;
+        if (oldThread == null) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(oldThread);
+        try {
+            oldThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    /** Enqueue a Mouse report. */
+    @AnyThread
+    void sendMouse(
+            boolean left, boolean right, boolean middle, int dX, int dY, int dWheel, int dPan) {
+        long buttons = (left ? 1 : 0) | (right ? 2 : 0) | (middle ? 4 : 0);
+        long payload =
+                buttons
+                        | (((long) dX & 0xffff) << 8)
+                        | (((long) dY & 0xffff) << 24)
+                        | (((long) dWheel & 0xff) << 40)
+                        | (((long) dPan & 0xff) << 48);
+        offer(TYPE_MOUSE, payload);
+    }
+
+    /** Enqueue a Digitizer report. */
+    @AnyThread
+    void sendDigitizer(boolean tip, boolean barrel, boolean inRange, int x, int y) {
+        long flags = (tip ? 1 : 0) | (barrel ? 2 : 0) | (inRange ? 4 : 0);
+        long payload = flags | (((long) x & 0xffff) << 8) | (((long) y & 0xffff) << 24);
+        offer(TYPE_DIGITIZER, payload);
+    }
+
+    /** Enqueue a Keyboard report. */
+    @AnyThread
+    void sendKeyboard(
+            int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
+        long payload =
+                ((long) modifier & 0xff)
+                        | (((long) key1 & 0xff) << 8)
+                        | (((long) key2 & 0xff) << 16)
+                        | (((long) key3 & 0xff) << 24)
+                        | (((long) key4 & 0xff) << 32)
+                        | (((long) key5 & 0xff) << 40)
+                        | (((long) key6 & 0xff) << 48);
+        offer(TYPE_KEYBOARD, payload);
+    }
+
+    /** Enqueue a single key press or release. */
+    @AnyThread
+    void sendKeyEvent(int modifier, int key, boolean down) {
+        long payload =
+                ((long) modifier & 0xff) | (((long) key & 0xff) << 8) | ((down ? 1L : 0L) << 16);
+        offer(TYPE_KEY_EVENT, payload);
+    }
+
+    /** Enqueue a Consumer Control report. */
+    @AnyThread
+    void sendConsumer(int usage) {
+        offer(TYPE_CONSUMER, (long) usage & 0xffff);
+    }
+
+    private void offer(int type, long payload) {
+        if (overflowing || !tryOffer(type, payload)) {
+            addOverflow(type, payload);
+        }
+
+        Thread consumer = thread;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    private boolean tryOffer(int type, long payload) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) pos & MASK;
+            long diff = sequence.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    types[index] = type;
+                    payloads[index] = payload;
+                    // Publishing the sequence number makes the slot contents visible.
+                    sequence.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    private void addOverflow(int type, long payload) {
+        synchronized (overflowLock) {
+            if (!overflowing) {
+                Log.w(TAG, "Report queue is full, buffering the reports");
+                overflowing = true;
+            }
+
+            if (type == TYPE_MOUSE && overflowCount > 0) {
+                int last = overflowCount - 1;
+                if (overflowTypes[last] == TYPE_MOUSE) {
+                    long merged = mergeMouse(overflowPayloads[last], payload);
+                    if (merged != -1) {
+                        overflowPayloads[last] = merged;
+                        return;
+                    }
+                }
+            }
+
+            if (overflowCount == overflowTypes.length) {
+                overflowTypes = Arrays.copyOf(overflowTypes, overflowCount * 2);
+                overflowPayloads = Arrays.copyOf(overflowPayloads, overflowCount * 2);
+            }
+            overflowTypes[overflowCount] = type;
+            overflowPayloads[overflowCount] = payload;
+            overflowCount++;
+        }
+    }
+
+    /**
+     * Merge two Mouse reports into one, if they have the same buttons state and the sum of their
+     * movement still fits in a report.
+     *
+     * @return The merged payload, or -1 if the reports can't be merged.
+     */
+    private static long mergeMouse(long first, long second) {
+        if ((first & 0xff) != (second & 0xff)) {
+            return -1;
+        }
+
+        int dX = (short) (first >>> 8) + (short) (second >>> 8);
+        int dY = (short) (first >>> 24) + (short) (second >>> 24);
+        int dWheel = (byte) (first >>> 40) + (byte) (second >>> 40);
+        int dPan = (byte) (first >>> 48) + (byte) (second >>> 48);
+        if (dX != (short) dX
+                || dY != (short) dY
+                || dWheel != (byte) dWheel
+                || dPan != (byte) dPan) {
+            return -1;
+        }
+
+        return (first & 0xff)
+                | (((long) dX & 0xffff) << 8)
+                | (((long) dY & 0xffff) << 24)
+                | (((long) dWheel & 0xff) << 40)
+                | (((long) dPan & 0xff) << 48);
+    }
+
+    /**
+     * Send the reports from the overflow list, once everything queued before them has been sent.
+     *
+     * @return {@code true} if there were any reports, {@code false} otherwise.
+     */
+    private boolean pollOverflow() {
+        if (!overflowing) {
+            return false;
+        }
+
+        int count;
+        int[] types;
+        long[] payloads;
+        synchronized (overflowLock) {
+            // Reports that were queued just before the overflow started must go first.
+            if (poll()) {
+                return true;
+            }
+
+            // Take the whole list, so that the producers never wait for the reports to be sent.
+            // Anything queued after this goes to the queue, and is only polled after the list.
+            types = overflowTypes;
+            payloads = overflowPayloads;
+            overflowTypes = takenTypes;
+            overflowPayloads = takenPayloads;
+            takenTypes = types;
+            takenPayloads = payloads;
+            count = overflowCount;
+            overflowCount = 0;
+            overflowing = false;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (running) {
+                dispatch(types[i], payloads[i]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Take one report from the queue and send it.
+     *
+     * @return {@code true} if a report was taken, {@code false} if the queue is empty.
+     */
+    private boolean poll() {
+        int index = (int) head & MASK;
+        if (sequence.get(index) != head + 1) {
+            return false;
+        }
+
+        int type = types[index];
+        long payload = payloads[index];
+        sequence.set(index, head + CAPACITY);
+        head++;
+
+        if (running) {
+            dispatch(type, payload);
+        }
+        return true;
+    }
+
+    @WorkerThread
+    private void dispatch(int type, long payload) {
+        if (type == TYPE_MOUSE) {
+            mouseSender.sendMouse(
+                    (payload & 1) != 0,
+                    (payload & 2) != 0,
+                    (payload & 4) != 0,
+                    (short) (payload >>> 8),
+                    (short) (payload >>> 24),
+                    (byte) (payload >>> 40),
+                    (byte) (payload >>> 48));
+        } else if (type == TYPE_DIGITIZER) {
+            digitizerSender.sendDigitizer(
+                    (payload & 1) != 0,
+                    (payload & 2) != 0,
+                    (payload & 4) != 0,
+                    (int) ((payload >>> 8) & 0xffff),
+                    (int) ((payload >>> 24) & 0xffff));
+        } else if (type == TYPE_CONSUMER) {
+            consumerSender.sendConsumer((int) (payload & 0xffff));
+        } else if (type == TYPE_KEY_EVENT) {
+            keyboardSender.sendKeyEvent(
+                    (int) (payload & 0xff),
+                    (int) ((payload >>> 8) & 0xff),
+                    ((payload >>> 16) & 1) != 0);
+        } else {
+            keyboardSender.sendKeyboard(
+                    (int) (payload & 0xff),
+                    (int) ((payload >>> 8) & 0xff),
+                    (int) ((payload >>> 16) & 0xff),
+                    (int) ((payload >>> 24) & 0xff),
+                    (int) ((payload >>> 32) & 0xff),
+                    (int) ((payload >>> 40) & 0xff),
+                    (int) ((payload >>> 48) & 0xff));
+        }
+    }
+
+    @WorkerThread
+    private void dispatchLoop() {
+        while (running) {
+            if (!poll() && !pollOverflow()) {
+                LockSupport.park(this);
+            }
+        }
+    }
+}
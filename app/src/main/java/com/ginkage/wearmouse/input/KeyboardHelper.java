@@ -20,14 +20,13 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import androidx.annotation.IntDef;
 import com.ginkage.wearmouse.bluetooth.KeyboardReport.KeyboardDataSender;
-import com.google.common.collect.ImmutableMap;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Helper class that allows sending less key press states, keeps some handy constants and translates
- * characters to scan codes.
+ * characters to scan codes with the current {@link KeyboardLayout}.
  */
 public class KeyboardHelper {
 
@@ -79,116 +78,35 @@ public class KeyboardHelper {
         int UP = 82;
     }
 
-    private static final Map<Character, Integer> keyMap =
-            new ImmutableMap.Builder<Character, Integer>()
-                    .put('a', 0x04)
-                    .put('b', 0x05)
-                    .put('c', 0x06)
-                    .put('d', 0x07)
-                    .put('e', 0x08)
-                    .put('f', 0x09)
-                    .put('g', 0x0A)
-                    .put('h', 0x0B)
-                    .put('i', 0x0C)
-                    .put('j', 0x0D)
-                    .put('k', 0x0E)
-                    .put('l', 0x0F)
-                    .put('m', 0x10)
-                    .put('n', 0x11)
-                    .put('o', 0x12)
-                    .put('p', 0x13)
-                    .put('q', 0x14)
-                    .put('r', 0x15)
-                    .put('s', 0x16)
-                    .put('t', 0x17)
-                    .put('u', 0x18)
-                    .put('v', 0x19)
-                    .put('w', 0x1A)
-                    .put('x', 0x1B)
-                    .put('y', 0x1C)
-                    .put('z', 0x1D)
-                    .put('1', 0x1E)
-                    .put('2', 0x1F)
-                    .put('3', 0x20)
-                    .put('4', 0x21)
-                    .put('5', 0x22)
-                    .put('6', 0x23)
-                    .put('7', 0x24)
-                    .put('8', 0x25)
-                    .put('9', 0x26)
-                    .put('0', 0x27)
-                    .put(' ', 0x2C)
-                    .put('-', 0x2D)
-                    .put('=', 0x2E)
-                    .put('[', 0x2F)
-                    .put(']', 0x30)
-                    .put('\\', 0x31)
-                    .put(';', 0x33)
-                    .put('\'', 0x34)
-                    .put('`', 0x35)
-                    .put(',', 0x36)
-                    .put('.', 0x37)
-                    .put('/', 0x38)
-                    .build();
-
-    private static final Map<Character, Integer> shiftKeyMap =
-            new ImmutableMap.Builder<Character, Integer>()
-                    .put('A', 0x04)
-                    .put('B', 0x05)
-                    .put('C', 0x06)
-                    .put('D', 0x07)
-                    .put('E', 0x08)
-                    .put('F', 0x09)
-                    .put('G', 0x0A)
-                    .put('H', 0x0B)
-                    .put('I', 0x0C)
-                    .put('J', 0x0D)
-                    .put('K', 0x0E)
-                    .put('L', 0x0F)
-                    .put('M', 0x10)
-                    .put('N', 0x11)
-                    .put('O', 0x12)
-                    .put('P', 0x13)
-                    .put('Q', 0x14)
-                    .put('R', 0x15)
-                    .put('S', 0x16)
-                    .put('T', 0x17)
-                    .put('U', 0x18)
-                    .put('V', 0x19)
-                    .put('W', 0x1A)
-                    .put('X', 0x1B)
-                    .put('Y', 0x1C)
-                    .put('Z', 0x1D)
-                    .put('!', 0x1E)
-                    .put('@', 0x1F)
-                    .put('#', 0x20)
-                    .put('$', 0x21)
-                    .put('%', 0x22)
-                    .put('^', 0x23)
-                    .put('&', 0x24)
-                    .put('*', 0x25)
-                    .put('(', 0x26)
-                    .put(')', 0x27)
-                    .put('_', 0x2D)
-                    .put('+', 0x2E)
-                    .put('{', 0x2F)
-                    .put('}', 0x30)
-                    .put('|', 0x31)
-                    .put(':', 0x33)
-                    .put('"', 0x34)
-                    .put('~', 0x35)
-                    .put('<', 0x36)
-                    .put('>', 0x37)
-                    .put('?', 0x38)
-                    .build();
-
     private final KeyboardDataSender dataSender;
 
+    private volatile KeyboardLayout layout = KeyboardLayout.get(KeyboardLayout.Layout.US);
+    private volatile UnicodeInput unicodeInput =
+            new UnicodeInput(UnicodeInput.Method.NONE, layout);
+
     /** @param dataSender Interface to send the Keyboard data with. */
     KeyboardHelper(KeyboardDataSender dataSender) {
         this.dataSender = checkNotNull(dataSender);
     }
 
+    /**
+     * Set the keyboard layout that the host expects, to translate characters with.
+     *
+     * @param layout Layout to use for the text that is compiled from now on.
+     */
+    void setLayout(KeyboardLayout layout) {
+        this.layout = checkNotNull(layout);
+    }
+
+    /**
+     * Set the way to type the characters that the keyboard layout doesn't have.
+     *
+     * @param unicodeInput Unicode input method to use for the text that is compiled from now on.
+     */
+    void setUnicodeInput(UnicodeInput unicodeInput) {
+        this.unicodeInput = checkNotNull(unicodeInput);
+    }
+
     /**
      * Send Keyboard data to the connected HID Host device.
      *
@@ -259,27 +177,114 @@ public class KeyboardHelper {
     }
 
     /**
-     * Send a key press event, followed by an immediate release event, for the specified character.
+     * Press or release a single key, leaving the other keys as they are.
      *
-     * @param key Character to send.
+     * @param modifier Modifier keys bit mask (Ctrl/Shift/Alt/GUI).
+     * @param key Scan code of the button to press or release.
+     * @param down {@code true} to press the button, {@code false} to release it.
      */
-    void sendChar(char key) {
-        boolean shift = false;
-        Integer code = keyMap.get(key);
-        if (code == null) {
-            shift = true;
-            code = shiftKeyMap.get(key);
-            if (code == null) {
-                return;
+    void sendKeyEvent(@Modifier int modifier, int key, boolean down) {
+        dataSender.sendKeyEvent(modifier, key, down);
+    }
+
+    /**
+     * Compile the text into keyboard report frames that can be sent with {@link #sendFrame}.
+     * Characters that can't be typed with the layout are composed with the current {@link
+     * UnicodeInput} method, or skipped if that isn't possible either.
+     *
+     * <p>Each frame releases the previous key and presses the next one at the same time, so the
+     * host sees a single transition per character. A separate release is only needed when the same
+     * key is typed twice in a row, and once at the end.
+     *
+     * @param text Text to compile.
+     * @return Frames, each one holding the modifier bit mask and the scan code of the pressed key.
+     */
+    int[] compileText(CharSequence text) {
+        KeyboardLayout layout = this.layout;
+        UnicodeInput unicodeInput = this.unicodeInput;
+        FrameBuffer frames = new FrameBuffer(text.length() * 2 + 1);
+        for (int i = 0, n = text.length(); i < n; ++i) {
+            // The layout entries have the same format as the frames.
+            int frame = layout.getKey(text.charAt(i));
+            if (frame != 0) {
+                frames.add(frame);
+                continue;
+            }
+
+            int codePoint = Character.codePointAt(text, i);
+            i += Character.charCount(codePoint) - 1;
+            int[] sequence = unicodeInput.expand(codePoint);
+            if (sequence != null) {
+                // Compose sequences start with a modifier chord, so nothing may be held before.
+                frames.release();
+                frames.addAll(sequence);
             }
         }
 
-        sendKeyDown(shift ? Modifier.LEFT_SHIFT : Modifier.NONE, code);
-        sendKeysUp(Modifier.NONE);
+        frames.release();
+        return frames.toArray();
+    }
+
+    /**
+     * Send one frame produced by {@link #compileText}.
+     *
+     * @param frame Modifier bit mask and the scan code of the pressed key (or 0 if none).
+     */
+    void sendFrame(int frame) {
+        sendKeyDown(frame >> 8, frame & 0xFF);
     }
 
     private void sendKeysDown(
             @Modifier int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
         dataSender.sendKeyboard(modifier, key1, key2, key3, key4, key5, key6);
     }
+
+    /** Growing array of keyboard report frames, that inserts the releases between repeated keys. */
+    static class FrameBuffer {
+        private int[] frames;
+        private int count;
+
+        /** @param capacity Expected number of frames. */
+        FrameBuffer(int capacity) {
+            frames = new int[Math.max(capacity, 1)];
+        }
+
+        /**
+         * Append a frame, releasing the previous key first if it's the same one.
+         *
+         * @param frame Modifier bit mask and the scan code of the pressed key (or 0 if none).
+         */
+        void add(int frame) {
+            int code = frame & 0xFF;
+            if (code != 0 && count > 0 && (frames[count - 1] & 0xFF) == code) {
+                append(frame & 0xFF00);
+            }
+            append(frame);
+        }
+
+        /** Append the frames as they are. */
+        void addAll(int[] sequence) {
+            for (int frame : sequence) {
+                append(frame);
+            }
+        }
+
+        /** Release all keys and modifiers, if any are pressed. */
+        void release() {
+            if (count > 0 && frames[count - 1] != Modifier.NONE) {
+                append(Modifier.NONE);
+            }
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(frames, count);
+        }
+
+        private void append(int frame) {
+            if (count == frames.length) {
+                frames = Arrays.copyOf(frames, count * 2);
+            }
+            frames[count++] = frame;
+        }
+    }
 }
@@ -46,6 +46,7 @@ public class KeyboardInputController {
                 @MainThread
                 public void onConnectionStateChanged(BluetoothDevice device, int state) {
                     if (state == BluetoothProfile.STATE_DISCONNECTED) {
+                        textInjector.cancel();
                         ui.onDeviceDisconnected();
                     }
                 }
@@ -54,6 +55,7 @@ public class KeyboardInputController {
                 @MainThread
                 public void onAppStatusChanged(boolean registered) {
                     if (!registered) {
+                        textInjector.cancel();
                         ui.onDeviceDisconnected();
                     }
                 }
@@ -66,12 +68,16 @@ public class KeyboardInputController {
     private final Ui ui;
     private final HidDataSender hidDataSender;
     private final KeyboardHelper keyboardHelper;
+    private final TextInjector textInjector;
+
+    private SettingsUtil settings;
 
     /** @param ui Callback for receiving the UI updates. */
     public KeyboardInputController(Ui ui) {
         this.ui = checkNotNull(ui);
         this.hidDataSender = HidDataSender.getInstance();
         this.keyboardHelper = new KeyboardHelper(hidDataSender);
+        this.textInjector = new TextInjector(keyboardHelper, hidDataSender.getReportPeriodUs());
     }
 
     /**
@@ -109,11 +115,15 @@ public class KeyboardInputController {
      * @param context The context to register listener with.
      */
     public void onCreate(Context context) {
+        settings = new SettingsUtil(context);
         hidDataSender.register(context, profileListener);
     }
 
     /** Should be called in the Activity's (or Fragment's) onResume() method. */
     public void onResume() {
+        KeyboardLayout layout = KeyboardLayout.get(settings.getKeyboardLayout());
+        keyboardHelper.setLayout(layout);
+        keyboardHelper.setUnicodeInput(new UnicodeInput(settings.getUnicodeInput(), layout));
         if (!hidDataSender.isConnected()) {
             ui.onDeviceDisconnected();
         }
@@ -125,6 +135,7 @@ public class KeyboardInputController {
      * @param context The context to unregister listener with.
      */
     public void onDestroy(Context context) {
+        textInjector.shutdown();
         hidDataSender.unregister(context, profileListener);
     }
 
@@ -137,9 +148,7 @@ public class KeyboardInputController {
         if (result != null) {
             CharSequence text = result.getCharSequence(Intent.EXTRA_TEXT);
             if (text != null) {
-                for (int i = 0, n = text.length(); i < n; ++i) {
-                    keyboardHelper.sendChar(text.charAt(i));
-                }
+                textInjector.start(text);
             }
         }
     }
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.input;
+
+import androidx.annotation.IntDef;
+import com.ginkage.wearmouse.input.KeyboardHelper.Key;
+import com.ginkage.wearmouse.input.KeyboardHelper.Modifier;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Translates characters to scan codes for the keyboard layout configured on the host.
+ *
+ * <p>Each layout is a dense table indexed by the character code (Latin-1 range only), holding the
+ * modifier bit mask in the high byte and the scan code in the low byte, or 0 if the character
+ * can't be typed directly. Characters that need a dead key are not mapped.
+ */
+public class KeyboardLayout {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({Layout.US, Layout.FRENCH, Layout.GERMAN, Layout.DVORAK})
+    public @interface Layout {
+        int US = 0;
+        int FRENCH = 1;
+        int GERMAN = 2;
+        int DVORAK = 3;
+    }
+
+    private static final int TABLE_SIZE = 256;
+
+    // Scan codes of the character keys, ordered by their position on the ISO keyboard: the number
+    // row, then the three letter rows, then the extra key next to the left Shift.
+    private static final int[] scanCodes = {
+        0x35, 0x1E, 0x1F, 0x20, 0x21, 0x22, 0x23, 0x24, 0x25, 0x26, 0x27, 0x2D, 0x2E,
+        0x14, 0x1A, 0x08, 0x15, 0x17, 0x1C, 0x18, 0x0C, 0x12, 0x13, 0x2F, 0x30, 0x31,
+        0x04, 0x16, 0x07, 0x09, 0x0A, 0x0B, 0x0D, 0x0E, 0x0F, 0x33, 0x34,
+        0x1D, 0x1B, 0x06, 0x19, 0x05, 0x11, 0x10, 0x36, 0x37, 0x38,
+        0x64,
+    };
+
+    // The key at the end of the top letter row sits next to Enter on the ISO keyboard, and has a
+    // scan code of its own there.
+    private static final int ISO_HASH_INDEX = 25;
+    private static final int ISO_HASH_SCAN_CODE = 0x32;
+
+    // In the layout strings below, space stands for a key that produces no character (or a dead
+    // key) in that shift state.
+
+    private static final KeyboardLayout US =
+            new KeyboardLayout(
+                    "`1234567890-="
+                            + "qwertyuiop[]\\"
+                            + "asdfghjkl;'"
+                            + "zxcvbnm,./"
+                            + " ",
+                    "~!@#$%^&*()_+"
+                            + "QWERTYUIOP{}|"
+                            + "ASDFGHJKL:\""
+                            + "ZXCVBNM<>?"
+                            + " ",
+                    null,
+                    false);
+
+    private static final KeyboardLayout FRENCH =
+            new KeyboardLayout(
+                    "\u00B2&\u00E9\"'(-\u00E8_\u00E7\u00E0)="
+                            + "azertyuiop $*"
+                            + "qsdfghjklm\u00F9"
+                            + "wxcvbn,;:!"
+                            + "<",
+                    " 1234567890\u00B0+"
+                            + "AZERTYUIOP \u00A3\u00B5"
+                            + "QSDFGHJKLM%"
+                            + "WXCVBN?./\u00A7"
+                            + ">",
+                    "   #{[| \\^@]}"
+                            + "           \u00A4 "
+                            + "           "
+                            + "          "
+                            + " ",
+                    true);
+
+    private static final KeyboardLayout GERMAN =
+            new KeyboardLayout(
+                    " 1234567890\u00DF "
+                            + "qwertzuiop\u00FC+#"
+                            + "asdfghjkl\u00F6\u00E4"
+                            + "yxcvbnm,.-"
+                            + "<",
+                    "\u00B0!\"\u00A7$%&/()=? "
+                            + "QWERTZUIOP\u00DC*'"
+                            + "ASDFGHJKL\u00D6\u00C4"
+                            + "YXCVBNM;:_"
+                            + ">",
+                    "  \u00B2\u00B3   {[]}\\ "
+                            + "@          ~ "
+                            + "           "
+                            + "      \u00B5   "
+                            + "|",
+                    true);
+
+    private static final KeyboardLayout DVORAK =
+            new KeyboardLayout(
+                    "`1234567890[]"
+                            + "',.pyfgcrl/=\\"
+                            + "aoeuidhtns-"
+                            + ";qjkxbmwvz"
+                            + " ",
+                    "~!@#$%^&*(){}"
+                            + "\"<>PYFGCRL?+|"
+                            + "AOEUIDHTNS_"
+                            + ":QJKXBMWVZ"
+                            + " ",
+                    null,
+                    false);
+
+    private final short[] table = new short[TABLE_SIZE];
+    private final boolean iso;
+
+    private KeyboardLayout(String normal, String shift, String altGr, boolean iso) {
+        this.iso = iso;
+        table[' '] = Key.SPACE;
+        table['\n'] = Key.ENTER;
+        table['\t'] = Key.TAB;
+        // The first match wins, so that the simplest way to type a character is used.
+        fill(normal, Modifier.NONE);
+        fill(shift, Modifier.LEFT_SHIFT);
+        if (altGr != null) {
+            fill(altGr, Modifier.RIGHT_ALT);
+        }
+    }
+
+    /**
+     * Get the layout by its identifier.
+     *
+     * @param layout Layout identifier, as stored in the settings.
+     * @return The layout, or US if the identifier is unknown.
+     */
+    public static KeyboardLayout get(@Layout int layout) {
+        switch (layout) {
+            case Layout.FRENCH:
+                return FRENCH;
+            case Layout.GERMAN:
+                return GERMAN;
+            case Layout.DVORAK:
+                return DVORAK;
+            default:
+                return US;
+        }
+    }
+
+    /**
+     * Look up the keys to press for the specified character.
+     *
+     * @param c Character to type.
+     * @return Modifier bit mask in the high byte and the scan code in the low byte, or 0 if the
+     *     character can't be typed with this layout.
+     */
+    int getKey(char c) {
+        return c < TABLE_SIZE ? table[c] : 0;
+    }
+
+    private void fill(String chars, @Modifier int modifier) {
+        for (int i = 0; i < scanCodes.length; i++) {
+            char c = chars.charAt(i);
+            if (c != ' ' && c < TABLE_SIZE && table[c] == 0) {
+                int scanCode = iso && i == ISO_HASH_INDEX ? ISO_HASH_SCAN_CODE : scanCodes[i];
+                table[c] = (short) ((modifier << 8) | scanCode);
+            }
+        }
+    }
+}
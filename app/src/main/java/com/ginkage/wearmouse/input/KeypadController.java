@@ -22,7 +22,9 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import androidx.annotation.MainThread;
+import com.ginkage.wearmouse.bluetooth.ConsumerReport;
 import com.ginkage.wearmouse.bluetooth.HidDataSender;
+import com.ginkage.wearmouse.bluetooth.MouseReportScheduler;
 import com.ginkage.wearmouse.input.KeyboardHelper.Key;
 import com.ginkage.wearmouse.input.SettingsUtil.SettingKey;
 
@@ -50,6 +52,14 @@ public class KeypadController {
     // Key to press on a swipe from center.
     private static final int[] swipeKey = {Key.ESCAPE, Key.BACKSPACE, Key.TAB, Key.SPACE};
 
+    // Consumer Control key to press on a swipe from center, in the media mode.
+    private static final int[] swipeMediaKey = {
+        ConsumerReport.PLAY_PAUSE,
+        ConsumerReport.SCAN_PREVIOUS,
+        ConsumerReport.MUTE,
+        ConsumerReport.SCAN_NEXT
+    };
+
     /** Callback for the UI. */
     public interface Ui {
         /** Display the hint on how to use the Keypad mode. */
@@ -87,9 +97,18 @@ public class KeypadController {
          * @return The localized key name.
          */
         String getKeyName(int scanCode);
+
+        /**
+         * Get the localized name for the specified Consumer Control key.
+         *
+         * @param usage The Consumer page usage we need a name for.
+         * @return The localized key name.
+         */
+        String getMediaKeyName(int usage);
     }
 
     private final int[] keyState = {NONE, NONE};
+    private final int[] newKeyState = {NONE, NONE};
 
     private final HidDataSender.ProfileListener profileListener =
             new HidDataSender.ProfileListener() {
@@ -119,10 +138,15 @@ public class KeypadController {
     private final SettingsUtil settings;
     private final HidDataSender hidDataSender;
     private final KeyboardHelper keyboardHelper;
+    private final MouseReportScheduler scheduler;
 
     private int touchArea;
     private int swipeArea;
     private boolean m8Way;
+    private boolean mediaMode;
+
+    // The wheel rotation that hasn't been turned into volume steps yet, in the media mode.
+    private float dWheel;
 
     /**
      * @param context The context to retrieve shared preferences with.
@@ -135,6 +159,7 @@ public class KeypadController {
         this.settings = new SettingsUtil(context);
         this.hidDataSender = HidDataSender.getInstance();
         this.keyboardHelper = new KeyboardHelper(hidDataSender);
+        this.scheduler = new MouseReportScheduler(hidDataSender, hidDataSender);
     }
 
     /**
@@ -146,12 +171,15 @@ public class KeypadController {
      */
     public KeypadGestureDetector.GestureListener onCreate(Context context) {
         hidDataSender.register(context, profileListener);
+        scheduler.start(settings.getBoolean(SettingKey.REDUCED_RATE), false);
         return new KeypadGestureListener();
     }
 
     /** Should be called in the Activity's (or Fragment's) onResume() method. */
     public void onResume() {
         m8Way = settings.getBoolean(SettingKey.CURSOR_8_WAY);
+        mediaMode = settings.getBoolean(SettingKey.KEYPAD_MEDIA);
+        dWheel = 0;
         ui.setCenterText("", m8Way);
         touchArea = CENTER_AREA;
         swipeArea = CENTER_AREA;
@@ -164,6 +192,7 @@ public class KeypadController {
      * @param context The context to unregister listener with.
      */
     public void onDestroy(Context context) {
+        scheduler.stop();
         hidDataSender.unregister(context, profileListener);
     }
 
@@ -173,33 +202,83 @@ public class KeypadController {
      * @param delta Movement of the Mouse Wheel.
      */
     public void onRotaryInput(float delta) {
-        hidDataSender.sendMouse(false, false, false, 0, 0, (int) delta);
+        if (mediaMode) {
+            // One volume step per detent, the direction matches the scrolling one.
+            dWheel += delta;
+            for (; dWheel >= 1; dWheel--) {
+                sendMediaKeyPress(ConsumerReport.VOLUME_UP);
+            }
+            for (; dWheel <= -1; dWheel++) {
+                sendMediaKeyPress(ConsumerReport.VOLUME_DOWN);
+            }
+            return;
+        }
+
+        // The scheduler scales it to the host's wheel units, and spreads a fast flick over as many
+        // reports as it takes to fit.
+        scheduler.addScroll(delta, 0);
     }
 
     private int getSwipeKey() {
         return swipeKey[fourWay[swipeArea]];
     }
 
+    private int getSwipeMediaKey() {
+        return swipeMediaKey[fourWay[swipeArea]];
+    }
+
+    private String getSwipeKeyName() {
+        return mediaMode
+                ? keyNameProvider.getMediaKeyName(getSwipeMediaKey())
+                : keyNameProvider.getKeyName(getSwipeKey());
+    }
+
     private void sendKeyPress(int key) {
         keyboardHelper.sendKeyDown(0, key);
         keyboardHelper.sendKeysUp(0);
     }
 
+    private void sendMediaKeyPress(int usage) {
+        hidDataSender.sendConsumer(usage);
+        hidDataSender.sendConsumer(ConsumerReport.NONE);
+    }
+
     private void sendKeyState() {
         int index = 0;
 
         if (touchArea >= 0) {
-            keyState[index++] = pressKey[fourWay[touchArea]];
+            newKeyState[index++] = pressKey[fourWay[touchArea]];
             if (m8Way && eightWay[touchArea] >= 0) {
-                keyState[index++] = pressKey[eightWay[touchArea]];
+                newKeyState[index++] = pressKey[eightWay[touchArea]];
             }
         }
 
-        while (index < keyState.length) {
-            keyState[index++] = NONE;
+        while (index < newKeyState.length) {
+            newKeyState[index++] = NONE;
         }
 
-        keyboardHelper.sendKeysDown(0, keyState[0], keyState[1]);
+        // Only send the keys that have actually changed, the ones that are still held stay as is.
+        for (int key : keyState) {
+            if (key != NONE && !contains(newKeyState, key)) {
+                keyboardHelper.sendKeyEvent(0, key, false);
+            }
+        }
+        for (int key : newKeyState) {
+            if (key != NONE && !contains(keyState, key)) {
+                keyboardHelper.sendKeyEvent(0, key, true);
+            }
+        }
+
+        System.arraycopy(newKeyState, 0, keyState, 0, keyState.length);
+    }
+
+    private static boolean contains(int[] keys, int key) {
+        for (int k : keys) {
+            if (k == key) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private class KeypadGestureListener implements KeypadGestureDetector.GestureListener {
@@ -234,7 +313,7 @@ public class KeypadController {
                 // When a swipe in the center area is detected, keypad forcefully switches to the
                 // 4-way cursor.
                 ui.setCenterText(
-                        area == CENTER_AREA ? "" : keyNameProvider.getKeyName(getSwipeKey()),
+                        area == CENTER_AREA ? "" : getSwipeKeyName(),
                         m8Way && area == CENTER_AREA);
             }
         }
@@ -242,7 +321,11 @@ public class KeypadController {
         @Override
         public void onTouchUp() {
             if (swipeArea != CENTER_AREA) {
-                sendKeyPress(getSwipeKey());
+                if (mediaMode) {
+                    sendMediaKeyPress(getSwipeMediaKey());
+                } else {
+                    sendKeyPress(getSwipeKey());
+                }
             } else {
                 touchArea = CENTER_AREA;
                 sendKeyState();
@@ -26,6 +26,7 @@ import android.view.MotionEvent;
 import android.view.Surface;
 import androidx.annotation.MainThread;
 import com.ginkage.wearmouse.bluetooth.HidDataSender;
+import com.ginkage.wearmouse.bluetooth.MouseReportScheduler;
 import com.ginkage.wearmouse.input.MouseSensorListener.HandMode;
 import com.ginkage.wearmouse.input.MouseSensorListener.MouseButton;
 import com.ginkage.wearmouse.input.SettingsUtil.SettingKey;
@@ -35,6 +36,9 @@ import com.ginkage.wearmouse.sensors.SensorServiceConnection;
 /** Controls the sensor-based Mouse input behaviour for the corresponding UI. */
 public class MouseController {
 
+    /** Height to width ratio of the absolute pointer window. */
+    private static final double WINDOW_ASPECT_RATIO = 3.0 / 4.0;
+
     /** Callback for the UI. */
     public interface Ui {
         /** Called when the connection with the current device has been lost. */
@@ -67,6 +71,7 @@ public class MouseController {
     private final Ui ui;
     private final SettingsUtil settings;
     private final HidDataSender hidDataSender;
+    private final MouseReportScheduler scheduler;
     private final MouseSensorListener sensorListener;
     private final SensorServiceConnection connection;
 
@@ -78,7 +83,8 @@ public class MouseController {
         this.ui = checkNotNull(ui);
         this.settings = new SettingsUtil(context);
         this.hidDataSender = HidDataSender.getInstance();
-        this.sensorListener = new MouseSensorListener(hidDataSender);
+        this.scheduler = new MouseReportScheduler(hidDataSender, hidDataSender);
+        this.sensorListener = new MouseSensorListener(scheduler);
         this.connection = new SensorServiceConnection(context, this::onServiceConnected);
     }
 
@@ -94,12 +100,16 @@ public class MouseController {
 
     /** Should be called in the Activity's (or Fragment's) onStart() method. */
     public void onStart() {
+        scheduler.start(
+                settings.getBoolean(SettingKey.REDUCED_RATE),
+                settings.getBoolean(SettingKey.ABSOLUTE_POINTER));
         connection.bind();
     }
 
     /** Should be called in the Activity's (or Fragment's) onStop() method. */
     public void onStop() {
         connection.unbind();
+        scheduler.stop();
     }
 
     /**
@@ -162,6 +172,11 @@ public class MouseController {
     public void setMouseHand(@HandMode int hand) {
         settings.putMouseHand(hand);
         sensorListener.setHand(hand);
+
+        SensorService service = connection.getService();
+        if (service != null) {
+            service.setCursorHandMode(hand);
+        }
     }
 
     /**
@@ -175,10 +190,27 @@ public class MouseController {
     }
 
     private void onServiceConnected(SensorService service) {
-        sensorListener.setLefty(isLefty(service.getApplicationContext()));
-        sensorListener.setHand(settings.getMouseHand());
-        sensorListener.setStabilize(settings.getBoolean(SettingKey.STABILIZE));
-        service.startInput(sensorListener, settings.getBoolean(SettingKey.REDUCED_RATE));
+        boolean lefty = isLefty(service.getApplicationContext());
+        @HandMode int hand = settings.getMouseHand();
+        boolean stabilize = settings.getBoolean(SettingKey.STABILIZE);
+        boolean reducedRate = settings.getBoolean(SettingKey.REDUCED_RATE);
+        boolean batched = settings.getBoolean(SettingKey.BATCHED_SENSORS);
+        boolean merged = settings.getBoolean(SettingKey.MERGED_SENSORS);
+        boolean absolute = settings.getBoolean(SettingKey.ABSOLUTE_POINTER);
+        service.setTraceRecording(settings.getBoolean(SettingKey.RECORD_SENSOR_TRACE));
+        // The native side only computes the relative movement.
+        if (settings.getBoolean(SettingKey.NATIVE_CURSOR) && !absolute) {
+            service.startCursorInput(
+                    sensorListener, reducedRate, batched, merged, hand, lefty, stabilize);
+        } else {
+            sensorListener.setLefty(lefty);
+            sensorListener.setHand(hand);
+            sensorListener.setStabilize(stabilize);
+            sensorListener.setAbsolute(absolute);
+            double windowWidth = Math.toRadians(settings.getAbsoluteWindow());
+            sensorListener.setAbsoluteWindow(windowWidth, windowWidth * WINDOW_ASPECT_RATIO);
+            service.startInput(sensorListener, reducedRate, batched, merged);
+        }
     }
 
     private boolean isLefty(Context context) {
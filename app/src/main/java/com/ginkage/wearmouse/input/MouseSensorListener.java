@@ -19,15 +19,17 @@ package com.ginkage.wearmouse.input;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import androidx.annotation.IntDef;
-import com.ginkage.wearmouse.bluetooth.MouseReport.MouseDataSender;
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+import com.ginkage.wearmouse.bluetooth.DigitizerReport;
+import com.ginkage.wearmouse.bluetooth.MouseReportScheduler;
 import com.ginkage.wearmouse.sensors.SensorService;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.util.ArrayList;
-import java.util.List;
 
 /** Helper class that interprets sensor data and translates it to Mouse data events. */
-public class MouseSensorListener implements SensorService.OrientationListener {
+public class MouseSensorListener
+        implements SensorService.OrientationListener, SensorService.CursorListener {
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({HandMode.LEFT, HandMode.CENTER, HandMode.RIGHT})
@@ -40,37 +42,29 @@ public class MouseSensorListener implements SensorService.OrientationListener {
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({MouseButton.LEFT, MouseButton.RIGHT, MouseButton.MIDDLE})
     public @interface MouseButton {
-        int LEFT = 0;
-        int RIGHT = 1;
-        int MIDDLE = 2;
+        int LEFT = MouseReportScheduler.BUTTON_LEFT;
+        int RIGHT = MouseReportScheduler.BUTTON_RIGHT;
+        int MIDDLE = MouseReportScheduler.BUTTON_MIDDLE;
     }
 
     private static final double CURSOR_SPEED = 1024.0 / (Math.PI / 4);
     private static final double STABILIZE_BIAS = 16.0;
+    private static final double DEFAULT_WINDOW_WIDTH = Math.PI / 3;
+    private static final double DEFAULT_WINDOW_HEIGHT = Math.PI / 4;
 
-    static final class ButtonEvent {
-        final @MouseButton int button;
-        final boolean state;
-
-        ButtonEvent(@MouseButton int b, boolean s) {
-            button = b;
-            state = s;
-        }
-    }
-
-    /**
-     * A list of button events that are pending and need to be sent. The oldest event is at the
-     * front.
-     */
-    private final List<ButtonEvent> pendingEvents = new ArrayList<>();
-
-    private final MouseDataSender dataSender;
+    private final MouseReportScheduler scheduler;
 
     private double yaw;
     private double pitch;
     private double dYaw;
     private double dPitch;
-    private double dWheel;
+
+    /** Orientation that corresponds to the center of the screen, in the absolute mode. */
+    private double centerYaw;
+
+    private double centerPitch;
+    private double windowWidth = DEFAULT_WINDOW_WIDTH;
+    private double windowHeight = DEFAULT_WINDOW_HEIGHT;
 
     /**
      * Whether this is the very first event we received after starting to listen or changing the
@@ -78,16 +72,14 @@ public class MouseSensorListener implements SensorService.OrientationListener {
      */
     private boolean firstRead;
 
-    private boolean leftButtonPressed;
-    private boolean rightButtonPressed;
-    private boolean middleButtonPressed;
     private @HandMode int handMode;
     private boolean stabilize;
     private boolean lefty;
+    private boolean absolute;
 
-    /** @param dataSender Interface to send Mouse data with. */
-    MouseSensorListener(MouseDataSender dataSender) {
-        this.dataSender = checkNotNull(dataSender);
+    /** @param scheduler Scheduler to send Mouse data with. */
+    MouseSensorListener(MouseReportScheduler scheduler) {
+        this.scheduler = checkNotNull(scheduler);
     }
 
     @Override
@@ -129,7 +121,12 @@ public class MouseSensorListener implements SensorService.OrientationListener {
         if (firstRead) {
             this.yaw = yaw;
             this.pitch = pitch;
+            centerYaw = yaw;
+            centerPitch = pitch;
             firstRead = false;
+        } else if (absolute) {
+            this.yaw = highpass(this.yaw, yaw);
+            this.pitch = highpass(this.pitch, pitch);
         } else {
             final double newYaw = highpass(this.yaw, yaw);
             final double newPitch = highpass(this.pitch, pitch);
@@ -144,12 +141,22 @@ public class MouseSensorListener implements SensorService.OrientationListener {
             this.dPitch += dPitch;
         }
 
-        sendCurrentState();
+        if (absolute) {
+            sendAbsoluteState();
+        } else {
+            sendCurrentState();
+        }
+    }
+
+    @Override
+    @WorkerThread
+    public void onCursorMove(int dX, int dY) {
+        // The native side has already done all of the above.
+        scheduler.addMovement(dX, dY);
     }
 
     /** Should be called in the controller's onCreate() method. */
     void onCreate() {
-        pendingEvents.clear();
         firstRead = true;
         yaw = 0;
         pitch = 0;
@@ -163,10 +170,9 @@ public class MouseSensorListener implements SensorService.OrientationListener {
      * @param button Button index. Can be one of LEFT, RIGHT, MIDDLE.
      * @param state {@code true} if the button is pressed, {@code false} otherwise.
      */
+    @MainThread
     void sendButtonEvent(@MouseButton int button, boolean state) {
-        synchronized (pendingEvents) {
-            pendingEvents.add(new ButtonEvent(button, state));
-        }
+        scheduler.setButton(button, state);
     }
 
     /**
@@ -177,9 +183,19 @@ public class MouseSensorListener implements SensorService.OrientationListener {
      * @param wheel Extra Wheel rotation.
      */
     void sendMouseMove(double x, double y, double wheel) {
-        dYaw += x / CURSOR_SPEED;
-        dPitch += y / CURSOR_SPEED;
-        dWheel += wheel;
+        if (absolute) {
+            // Move the window instead, the position is updated with the next sensor event.
+            centerYaw = clamp(centerYaw + x / CURSOR_SPEED);
+            centerPitch += y / CURSOR_SPEED;
+        } else {
+            dYaw += x / CURSOR_SPEED;
+            dPitch += y / CURSOR_SPEED;
+        }
+
+        // Don't wait for the next sensor event to scroll. The scheduler keeps the fractions.
+        if (wheel != 0) {
+            scheduler.addScroll(wheel, 0);
+        }
     }
 
     /**
@@ -210,6 +226,29 @@ public class MouseSensorListener implements SensorService.OrientationListener {
         lefty = isLefty;
     }
 
+    /**
+     * Sets the absolute mode, where the orientation maps directly to the pointer position on the
+     * screen instead of moving it. The mapping is centered on the orientation at the first event.
+     *
+     * @param absolute {@code true} if absolute mode is active, {@code false} if not.
+     */
+    void setAbsolute(boolean absolute) {
+        this.absolute = absolute;
+        firstRead = true;
+    }
+
+    /**
+     * Sets the range of the orientations that cover the whole screen in the absolute mode. If the
+     * watch is turned beyond that, the range follows it.
+     *
+     * @param width Horizontal angle of the window, in radians.
+     * @param height Vertical angle of the window, in radians.
+     */
+    void setAbsoluteWindow(double width, double height) {
+        windowWidth = width;
+        windowHeight = height;
+    }
+
     private static double clamp(double val) {
         while (val <= -Math.PI) {
             val += 2 * Math.PI;
@@ -234,80 +273,45 @@ public class MouseSensorListener implements SensorService.OrientationListener {
         return newVal + alpha * delta;
     }
 
-    /**
-     * Returns {@code true} if we couldn't send the full displacement in one go (if it didn't fit in
-     * one byte), {@code false} otherwise.
-     */
-    private boolean sendCurrentState() {
-        boolean overflow = false;
-        double dX = dYaw * CURSOR_SPEED;
-        double dY = dPitch * CURSOR_SPEED;
-        double dZ = dWheel;
-
-        // Scale the shift down to fit the protocol.
-        if (dX > 127) {
-            dY *= 127.0 / dX;
-            dX = 127;
-            overflow = true;
-        }
-        if (dX < -127) {
-            dY *= -127.0 / dX;
-            dX = -127;
-            overflow = true;
-        }
-        if (dY > 127) {
-            dX *= 127.0 / dY;
-            dY = 127;
-            overflow = true;
-        }
-        if (dY < -127) {
-            dX *= -127.0 / dY;
-            dY = -127;
-            overflow = true;
+    /** Maps the current orientation to the pointer position within the window. */
+    private void sendAbsoluteState() {
+        double x = clamp(centerYaw - yaw);
+        double y = centerPitch - pitch;
+
+        // Drag the window along when the watch is turned past its edge, so that the pointer is
+        // always under control.
+        double halfWidth = windowWidth / 2;
+        double halfHeight = windowHeight / 2;
+        if (Math.abs(x) > halfWidth) {
+            double edge = Math.copySign(halfWidth, x);
+            centerYaw = clamp(centerYaw - (x - edge));
+            x = edge;
         }
-        if (dZ > 127) {
-            dZ = 127;
-            overflow = true;
+        if (Math.abs(y) > halfHeight) {
+            double edge = Math.copySign(halfHeight, y);
+            centerPitch -= y - edge;
+            y = edge;
         }
-        if (dZ < -127) {
-            dZ = -127;
-            overflow = true;
-        }
-
-        final byte x = (byte) Math.round(dX);
-        final byte y = (byte) Math.round(dY);
-        final byte z = (byte) Math.round(dZ);
-        sendData(x, y, z);
 
-        // Only subtract the part of the error that was already sent.
-        if (x != 0) {
-            dYaw -= x / CURSOR_SPEED;
-        }
-        if (y != 0) {
-            dPitch -= y / CURSOR_SPEED;
-        }
-        if (z != 0) {
-            dWheel -= z;
-        }
-
-        return overflow;
+        scheduler.setPosition(
+                (int) Math.round((x / windowWidth + 0.5) * DigitizerReport.MAX_POSITION),
+                (int) Math.round((y / windowHeight + 0.5) * DigitizerReport.MAX_POSITION));
     }
 
-    private void sendData(byte x, byte y, byte wheel) {
-        synchronized (pendingEvents) {
-            if (!pendingEvents.isEmpty()) {
-                ButtonEvent event = pendingEvents.remove(0);
-                if (event.button == MouseButton.LEFT) {
-                    leftButtonPressed = event.state;
-                } else if (event.button == MouseButton.RIGHT) {
-                    rightButtonPressed = event.state;
-                } else if (event.button == MouseButton.MIDDLE) {
-                    middleButtonPressed = event.state;
-                }
-            }
+    /**
+     * Hands the whole pixels of the accumulated displacement over to the scheduler, which takes
+     * care of fitting them into the reports.
+     */
+    private void sendCurrentState() {
+        final int x = (int) Math.round(dYaw * CURSOR_SPEED);
+        final int y = (int) Math.round(dPitch * CURSOR_SPEED);
+        if (x == 0 && y == 0) {
+            return;
         }
+        scheduler.addMovement(x, y);
 
-        dataSender.sendMouse(
-                leftButtonPressed, rightButtonPressed, middleButtonPressed, x, y, wheel);
+        // Only subtract the part of the error that was already sent.
+        dYaw -= x / CURSOR_SPEED;
+        dPitch -= y / CURSOR_SPEED;
     }
 }
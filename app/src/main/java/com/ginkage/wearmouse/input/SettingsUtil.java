@@ -21,7 +21,9 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import android.content.Context;
 import android.content.SharedPreferences;
 import androidx.annotation.StringDef;
+import com.ginkage.wearmouse.input.KeyboardLayout.Layout;
 import com.ginkage.wearmouse.input.MouseSensorListener.HandMode;
+import com.ginkage.wearmouse.input.UnicodeInput.Method;
 import com.google.common.collect.ImmutableMap;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -31,6 +33,7 @@ import java.util.Map;
 public class SettingsUtil {
 
     private static final String SETTINGS_PREF = "com.ginkage.wearmouse.SETTINGS";
+    private static final int DEFAULT_ABSOLUTE_WINDOW_DEGREES = 60;
 
     /** These constants correspond to the various preferences in the Settings menu. */
     @Retention(RetentionPolicy.SOURCE)
@@ -40,7 +43,17 @@ public class SettingsUtil {
         SettingKey.CURSOR_8_WAY,
         SettingKey.REDUCED_RATE,
         SettingKey.STABILIZE,
-        SettingKey.STAY_CONNECTED
+        SettingKey.STAY_CONNECTED,
+        SettingKey.NATIVE_CURSOR,
+        SettingKey.BATCHED_SENSORS,
+        SettingKey.MERGED_SENSORS,
+        SettingKey.RECORD_SENSOR_TRACE,
+        SettingKey.HIGH_RES_MOUSE,
+        SettingKey.ABSOLUTE_POINTER,
+        SettingKey.ABSOLUTE_WINDOW,
+        SettingKey.KEYPAD_MEDIA,
+        SettingKey.KEYBOARD_LAYOUT,
+        SettingKey.UNICODE_INPUT
     })
     public @interface SettingKey {
         String CALIBRATION = "pref_settingCalibration";
@@ -49,6 +62,16 @@ public class SettingsUtil {
         String REDUCED_RATE = "pref_settingReducedRate";
         String STABILIZE = "pref_settingStabilize";
         String STAY_CONNECTED = "pref_settingStayConnected";
+        String NATIVE_CURSOR = "pref_settingNativeCursor";
+        String BATCHED_SENSORS = "pref_settingBatchedSensors";
+        String MERGED_SENSORS = "pref_settingMergedSensors";
+        String RECORD_SENSOR_TRACE = "pref_settingRecordSensorTrace";
+        String HIGH_RES_MOUSE = "pref_settingHighResMouse";
+        String ABSOLUTE_POINTER = "pref_settingAbsolutePointer";
+        String ABSOLUTE_WINDOW = "pref_settingAbsoluteWindow";
+        String KEYPAD_MEDIA = "pref_settingKeypadMedia";
+        String KEYBOARD_LAYOUT = "pref_settingKeyboardLayout";
+        String UNICODE_INPUT = "pref_settingUnicodeInput";
     }
 
     private static final Map<String, Boolean> defaults =
@@ -58,6 +81,13 @@ public class SettingsUtil {
                     .put(SettingKey.REDUCED_RATE, false)
                     .put(SettingKey.STABILIZE, false)
                     .put(SettingKey.STAY_CONNECTED, false)
+                    .put(SettingKey.NATIVE_CURSOR, false)
+                    .put(SettingKey.BATCHED_SENSORS, false)
+                    .put(SettingKey.MERGED_SENSORS, false)
+                    .put(SettingKey.RECORD_SENSOR_TRACE, false)
+                    .put(SettingKey.HIGH_RES_MOUSE, false)
+                    .put(SettingKey.ABSOLUTE_POINTER, false)
+                    .put(SettingKey.KEYPAD_MEDIA, false)
                     .build();
 
     private final SharedPreferences sharedPref;
@@ -88,6 +118,66 @@ public class SettingsUtil {
         sharedPref.edit().putInt(SettingKey.MOUSE_HAND, hand).apply();
     }
 
+    /**
+     * Get the horizontal angle that covers the whole screen in the absolute pointer mode.
+     *
+     * @return Angle in degrees.
+     * @see MouseSensorListener
+     */
+    public int getAbsoluteWindow() {
+        return sharedPref.getInt(SettingKey.ABSOLUTE_WINDOW, DEFAULT_ABSOLUTE_WINDOW_DEGREES);
+    }
+
+    /**
+     * Save the horizontal angle that covers the whole screen in the absolute pointer mode.
+     *
+     * @param degrees Angle in degrees.
+     * @see MouseSensorListener
+     */
+    public void putAbsoluteWindow(int degrees) {
+        sharedPref.edit().putInt(SettingKey.ABSOLUTE_WINDOW, degrees).apply();
+    }
+
+    /**
+     * Get the keyboard layout configured on the host.
+     *
+     * @return Keyboard layout identifier.
+     * @see KeyboardLayout
+     */
+    public @Layout int getKeyboardLayout() {
+        return sharedPref.getInt(SettingKey.KEYBOARD_LAYOUT, Layout.US);
+    }
+
+    /**
+     * Save the keyboard layout configured on the host.
+     *
+     * @param layout Keyboard layout identifier.
+     * @see KeyboardLayout
+     */
+    public void putKeyboardLayout(@Layout int layout) {
+        sharedPref.edit().putInt(SettingKey.KEYBOARD_LAYOUT, layout).apply();
+    }
+
+    /**
+     * Get the way to type the characters that the keyboard layout doesn't have.
+     *
+     * @return Unicode input method identifier.
+     * @see UnicodeInput
+     */
+    public @Method int getUnicodeInput() {
+        return sharedPref.getInt(SettingKey.UNICODE_INPUT, Method.NONE);
+    }
+
+    /**
+     * Save the way to type the characters that the keyboard layout doesn't have.
+     *
+     * @param method Unicode input method identifier.
+     * @see UnicodeInput
+     */
+    public void putUnicodeInput(@Method int method) {
+        sharedPref.edit().putInt(SettingKey.UNICODE_INPUT, method).apply();
+    }
+
     /**
      * Gets the boolean value that corresponds to the specified key.
      *
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.input;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.MainThread;
+import androidx.annotation.WorkerThread;
+import com.ginkage.wearmouse.input.KeyboardHelper.Modifier;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Types text on the connected HID Host device from a background thread.
+ *
+ * <p>The text is first compiled into a primitive array of keyboard report frames, which are then
+ * sent one per transmit slot of the Bluetooth link, so that a long text neither blocks the main
+ * thread nor overflows the report queue.
+ */
+class TextInjector {
+
+    private final KeyboardHelper keyboardHelper;
+    private final long reportPeriodUs;
+    private final Handler mainThreadHandler = new Handler(Looper.getMainLooper());
+
+    @Nullable private ScheduledThreadPoolExecutor executor;
+    @Nullable private Injection current;
+
+    /**
+     * @param keyboardHelper Helper to compile the text and send the frames with.
+     * @param reportPeriodUs Interval between the frames, in microseconds.
+     */
+    TextInjector(KeyboardHelper keyboardHelper, long reportPeriodUs) {
+        this.keyboardHelper = checkNotNull(keyboardHelper);
+        this.reportPeriodUs = reportPeriodUs;
+    }
+
+    /**
+     * Start typing the text, cancelling the previous injection if it is still running.
+     *
+     * @param text Text to type.
+     */
+    @MainThread
+    void start(CharSequence text) {
+        cancel();
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(1);
+        }
+
+        Injection injection = new Injection(text.toString());
+        current = injection;
+        injection.future =
+                executor.scheduleAtFixedRate(
+                        injection::sendNextFrame, 0, reportPeriodUs, TimeUnit.MICROSECONDS);
+    }
+
+    /** Stop typing, releasing any keys that are still pressed. */
+    @MainThread
+    void cancel() {
+        Injection injection = current;
+        if (injection == null) {
+            return;
+        }
+        current = null;
+        injection.cancelled = true;
+        injection.future.cancel(false);
+
+        // The executor has a single thread, so this goes after the last frame that was sent.
+        executor.execute(() -> keyboardHelper.sendKeysUp(Modifier.NONE));
+    }
+
+    /** Cancel the current injection and stop the background thread. */
+    @MainThread
+    void shutdown() {
+        cancel();
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private class Injection {
+        private final String text;
+
+        // Set once on the main thread, right after scheduling.
+        private ScheduledFuture<?> future;
+
+        private volatile boolean cancelled;
+
+        // Only accessed by the executor thread.
+        @Nullable private int[] frames;
+        private int position;
+
+        Injection(String text) {
+            this.text = text;
+        }
+
+        @WorkerThread
+        void sendNextFrame() {
+            if (cancelled) {
+                return;
+            }
+            if (frames == null) {
+                frames = keyboardHelper.compileText(text);
+            } else if (position == frames.length) {
+                // Already finished, waiting for the main thread to stop the schedule.
+                return;
+            }
+
+            if (position < frames.length) {
+                keyboardHelper.sendFrame(frames[position++]);
+            }
+            if (position == frames.length) {
+                mainThreadHandler.post(this::onFinished);
+            }
+        }
+
+        @MainThread
+        private void onFinished() {
+            if (current != this) {
+                return;
+            }
+            current = null;
+            future.cancel(false);
+        }
+    }
+}
@@ -23,23 +23,14 @@ import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import androidx.annotation.MainThread;
 import com.ginkage.wearmouse.bluetooth.HidDataSender;
-import com.ginkage.wearmouse.input.MouseSensorListener.ButtonEvent;
+import com.ginkage.wearmouse.bluetooth.MouseReportScheduler;
 import com.ginkage.wearmouse.input.MouseSensorListener.MouseButton;
 import com.ginkage.wearmouse.input.SettingsUtil.SettingKey;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-import javax.annotation.Nullable;
 
 public class TouchpadController {
 
     private static final String TAG = "TouchpadController";
 
-    private static final int DATA_RATE_LOW_US = 20000;
-    private static final int DATA_RATE_HIGH_US = 11250;
-
     /** Callback for the UI. */
     public interface Ui {
         /** Called when the connection with the current device has been lost. */
@@ -71,21 +62,17 @@ public class TouchpadController {
 
     private final Ui ui;
     private final HidDataSender hidDataSender;
-    private final List<ButtonEvent> pendingEvents = new ArrayList<>();
+    private final MouseReportScheduler scheduler;
 
+    // The fractional parts of the movement that haven't been sent yet.
     private float dX;
     private float dY;
-    private float dWheel;
-    private boolean leftButton;
-    private boolean rightButton;
-
-    @Nullable private ScheduledFuture<?> scheduledFuture;
-    private ScheduledThreadPoolExecutor executor;
 
     /** @param ui Callback for receiving the UI updates. */
     public TouchpadController(Ui ui) {
         this.ui = checkNotNull(ui);
         this.hidDataSender = HidDataSender.getInstance();
+        this.scheduler = new MouseReportScheduler(hidDataSender, hidDataSender);
     }
 
     /**
@@ -97,15 +84,7 @@ public class TouchpadController {
      */
     public TouchpadGestureDetector.GestureListener onCreate(Context context) {
         hidDataSender.register(context, profileListener);
-
-        if (scheduledFuture == null) {
-            boolean reducedRate = new SettingsUtil(context).getBoolean(SettingKey.REDUCED_RATE);
-            long samplingPeriodUs = reducedRate ? DATA_RATE_LOW_US : DATA_RATE_HIGH_US;
-            executor = new ScheduledThreadPoolExecutor(1);
-            scheduledFuture =
-                    executor.scheduleAtFixedRate(
-                            this::sendData, 0, samplingPeriodUs, TimeUnit.MICROSECONDS);
-        }
+        scheduler.start(new SettingsUtil(context).getBoolean(SettingKey.REDUCED_RATE), false);
 
         return new TouchpadGestureListener();
     }
@@ -116,12 +95,7 @@ public class TouchpadController {
      * @param context The context to unregister listener with.
      */
     public void onDestroy(Context context) {
-        if (scheduledFuture != null) {
-            executor.shutdownNow();
-            scheduledFuture.cancel(true);
-            scheduledFuture = null;
-        }
-
+        scheduler.stop();
         hidDataSender.unregister(context, profileListener);
     }
 
@@ -131,9 +105,7 @@ public class TouchpadController {
      * @param delta Movement of the Mouse Wheel.
      */
     public void onRotaryInput(float delta) {
-        synchronized (pendingEvents) {
-            dWheel += delta;
-        }
+        scheduler.addScroll(delta, 0);
     }
 
     private class TouchpadGestureListener implements TouchpadGestureDetector.GestureListener {
@@ -159,49 +131,31 @@ public class TouchpadController {
 
         @Override
         public void onMove(float x, float y) {
-            synchronized (pendingEvents) {
-                dX += x;
-                dY += y;
-            }
+            sendMove(x, y);
         }
 
         @Override
-        public void onScroll(float wheel) {
-            synchronized (pendingEvents) {
-                dWheel += wheel;
-            }
+        public void onScroll(float wheel, float pan) {
+            scheduler.addScroll(wheel, pan);
         }
 
         private void sendButtonEvent(@MouseButton int button, boolean state) {
-            synchronized (pendingEvents) {
-                // Looks like one event is not enough
-                ButtonEvent event = new ButtonEvent(button, state);
-                pendingEvents.add(event);
-                pendingEvents.add(event);
-            }
+            // Looks like one event is not enough
+            scheduler.setButton(button, state);
+            scheduler.setButton(button, state);
         }
     }
 
-    private void sendData() {
-        int x, y, wheel;
-        synchronized (pendingEvents) {
-            x = (int) dX;
-            y = (int) dY;
-            wheel = (int) dWheel;
-            dX -= x;
-            dY -= y;
-            dWheel -= wheel;
-
-            if (!pendingEvents.isEmpty()) {
-                ButtonEvent event = pendingEvents.remove(0);
-                if (event.button == MouseButton.LEFT) {
-                    leftButton = event.state;
-                } else {
-                    rightButton = event.state;
-                }
-            }
-        }
+    private void sendMove(float x, float y) {
+        dX += x;
+        dY += y;
 
-        hidDataSender.sendMouse(leftButton, rightButton, false, x, y, wheel);
+        final int intX = (int) dX;
+        final int intY = (int) dY;
+        if (intX != 0 || intY != 0) {
+            scheduler.addMovement(intX, intY);
+            dX -= intX;
+            dY -= intY;
+        }
     }
 }
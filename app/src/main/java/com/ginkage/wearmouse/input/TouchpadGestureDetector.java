@@ -39,7 +39,7 @@ public class TouchpadGestureDetector {
 
         void onMove(float dX, float dY);
 
-        void onScroll(float dWheel);
+        void onScroll(float dWheel, float dPan);
     }
 
     private final GestureListener gestureListener;
@@ -70,6 +70,9 @@ public class TouchpadGestureDetector {
         private boolean alwaysInTapRegion;
         private boolean inDoubleTap;
         private boolean inRightClick;
+        // Set once the scroll direction is known, until the fingers are lifted or added.
+        private boolean scrollLocked;
+        private boolean scrollVertical;
 
         TouchpadGestureListener(Context context) {
             gestureDetector = new GestureDetector(context, this);
@@ -106,6 +109,7 @@ public class TouchpadGestureDetector {
                     downFocusX = focusX;
                     downFocusY = focusY;
                     alwaysInTapRegion = true;
+                    scrollLocked = false;
                     break;
                 case MotionEvent.ACTION_MOVE:
                     {
@@ -119,7 +123,19 @@ public class TouchpadGestureDetector {
                         }
 
                         if (inRightClick && !alwaysInTapRegion && count > 1) {
-                            gestureListener.onScroll((lastY - focusY) / 10.0f);
+                            // Stick to the dominant axis, so that a vertical scroll doesn't
+                            // wander sideways.
+                            if (!scrollLocked) {
+                                scrollLocked = true;
+                                scrollVertical =
+                                        Math.abs(focusY - downFocusY)
+                                                >= Math.abs(focusX - downFocusX);
+                            }
+                            if (scrollVertical) {
+                                gestureListener.onScroll((lastY - focusY) / 10.0f, 0);
+                            } else {
+                                gestureListener.onScroll(0, (focusX - lastX) / 10.0f);
+                            }
                         } else {
                             gestureListener.onMove(focusX - lastX, focusY - lastY);
                         }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.input;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import android.util.SparseArray;
+import androidx.annotation.IntDef;
+import com.ginkage.wearmouse.input.KeyboardHelper.FrameBuffer;
+import com.ginkage.wearmouse.input.KeyboardHelper.Modifier;
+import com.ginkage.wearmouse.input.KeyboardLayout.Layout;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import javax.annotation.Nullable;
+
+/**
+ * Expands the characters that the keyboard layout doesn't have into the key sequences that the
+ * host operating system uses to enter an arbitrary Unicode character.
+ *
+ * <ul>
+ *   <li>Linux (GTK and IBus): Ctrl+Shift+U, then the hexadecimal code point, then Space.
+ *   <li>Windows: the decimal code on the numeric keypad while Alt is held. Codes below 256 are
+ *       prefixed with 0, which picks the Windows-1252 code page that matches Latin-1. Larger codes
+ *       only work in the rich edit controls, and Num Lock has to be on.
+ *   <li>macOS: four hexadecimal digits per UTF-16 code unit while Option is held, with the
+ *       "Unicode Hex Input" source selected on the host.
+ * </ul>
+ *
+ * <p>The expanded sequences are cached per character. The cache is not synchronized, so an
+ * instance must only be used on one thread at a time.
+ */
+public class UnicodeInput {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({Method.NONE, Method.LINUX, Method.WINDOWS, Method.MACOS})
+    public @interface Method {
+        int NONE = 0;
+        int LINUX = 1;
+        int WINDOWS = 2;
+        int MACOS = 3;
+    }
+
+    // Scan codes of the numeric keypad digits, from 0 to 9.
+    private static final int[] numpadKeys = {
+        0x62, 0x59, 0x5A, 0x5B, 0x5C, 0x5D, 0x5E, 0x5F, 0x60, 0x61,
+    };
+
+    private static final int[] UNSUPPORTED = new int[0];
+
+    private final @Method int method;
+    private final KeyboardLayout layout;
+    private final SparseArray<int[]> cache = new SparseArray<>();
+
+    /**
+     * @param method Method to use.
+     * @param layout Keyboard layout configured on the host, to type the hexadecimal digits with.
+     */
+    public UnicodeInput(@Method int method, KeyboardLayout layout) {
+        this.method = method;
+        this.layout = checkNotNull(layout);
+    }
+
+    /**
+     * Get the frames that type the specified character. The sequence starts with no keys pressed,
+     * and ends with all keys released.
+     *
+     * @param codePoint Unicode code point of the character.
+     * @return Keyboard report frames, or {@code null} if the character can't be typed.
+     */
+    @Nullable
+    int[] expand(int codePoint) {
+        if (method == Method.NONE) {
+            return null;
+        }
+
+        int[] sequence = cache.get(codePoint);
+        if (sequence == null) {
+            sequence = compose(codePoint);
+            cache.put(codePoint, sequence);
+        }
+        return sequence != UNSUPPORTED ? sequence : null;
+    }
+
+    private int[] compose(int codePoint) {
+        FrameBuffer frames = new FrameBuffer(16);
+        switch (method) {
+            case Method.LINUX:
+                int chord = (Modifier.LEFT_CTRL | Modifier.LEFT_SHIFT) << 8;
+                int keyU = layout.getKey('u');
+                if (keyU == 0) {
+                    return UNSUPPORTED;
+                }
+                frames.add(chord);
+                frames.add(chord | keyU);
+                frames.release();
+                if (!addKeys(frames, layout, Integer.toHexString(codePoint) + ' ', Modifier.NONE)) {
+                    return UNSUPPORTED;
+                }
+                break;
+
+            case Method.WINDOWS:
+                int alt = Modifier.LEFT_ALT << 8;
+                String digits =
+                        codePoint < 0x100 ? "0" + codePoint : Integer.toString(codePoint);
+                frames.add(alt);
+                for (int i = 0; i < digits.length(); i++) {
+                    frames.add(alt | numpadKeys[digits.charAt(i) - '0']);
+                }
+                break;
+
+            case Method.MACOS:
+                // Unicode Hex Input replaces the host layout, and its keys are where US ones are.
+                KeyboardLayout hexLayout = KeyboardLayout.get(Layout.US);
+                frames.add(Modifier.LEFT_ALT << 8);
+                for (char unit : Character.toChars(codePoint)) {
+                    String hex = Integer.toHexString(0x10000 | unit).substring(1);
+                    if (!addKeys(frames, hexLayout, hex, Modifier.LEFT_ALT)) {
+                        return UNSUPPORTED;
+                    }
+                }
+                break;
+
+            default:
+                return UNSUPPORTED;
+        }
+
+        frames.release();
+        return frames.toArray();
+    }
+
+    private static boolean addKeys(
+            FrameBuffer frames, KeyboardLayout layout, String keys, @Modifier int heldModifier) {
+        for (int i = 0; i < keys.length(); i++) {
+            int key = layout.getKey(keys.charAt(i));
+            if (key == 0) {
+                return false;
+            }
+            frames.add(key | (heldModifier << 8));
+        }
+        return true;
+    }
+}
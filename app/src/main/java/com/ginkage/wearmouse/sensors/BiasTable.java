@@ -0,0 +1,156 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.sensors;
+
+import android.util.Log;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+
+/**
+ * Gyroscope bias table indexed by the temperature, since the bias of MEMS gyroscopes shifts as the
+ * watch warms up on the wrist. Each bin holds a bias and the weight of the data it is based on,
+ * the bias in between the bins is interpolated. The table is stored as a compact binary blob.
+ */
+class BiasTable {
+
+    private static final String TAG = "BiasTable";
+
+    // Temperature of the first bin and the distance between the bins, in degrees Celsius.
+    private static final double MIN_TEMPERATURE = 10;
+    private static final double BIN_SIZE = 2;
+    private static final int BIN_COUNT = 20;
+
+    // Each bin consists of the three-axis bias and its weight.
+    private static final int FIELDS = 4;
+    private static final int WEIGHT = 3;
+
+    // Weight at which the bins stop accumulating, so that they keep following the sensor aging.
+    private static final float MAX_WEIGHT = 1000;
+
+    private final float[] bins = new float[BIN_COUNT * FIELDS];
+
+    /** Remove all the entries from the table. */
+    void clear() {
+        for (int i = 0; i < bins.length; i++) {
+            bins[i] = 0;
+        }
+    }
+
+    /**
+     * Add the bias measured at the given temperature to the nearest bin.
+     *
+     * @param temperature Sensor temperature, in degrees Celsius.
+     * @param x Bias around the X axis.
+     * @param y Bias around the Y axis.
+     * @param z Bias around the Z axis.
+     * @param weight Weight of the data the bias is based on.
+     */
+    void add(double temperature, double x, double y, double z, double weight) {
+        if (weight <= 0) {
+            return;
+        }
+
+        int offset = getBin(Math.round(getPosition(temperature))) * FIELDS;
+        float oldWeight = bins[offset + WEIGHT];
+        float rate = (float) (weight / (oldWeight + weight));
+        bins[offset] += (x - bins[offset]) * rate;
+        bins[offset + 1] += (y - bins[offset + 1]) * rate;
+        bins[offset + 2] += (z - bins[offset + 2]) * rate;
+        bins[offset + WEIGHT] = (float) Math.min(oldWeight + weight, MAX_WEIGHT);
+    }
+
+    /**
+     * Retrieve the bias for the given temperature, interpolated between the nearest bins that have
+     * any data on either side. Beyond the outermost bins, their bias is used as is.
+     *
+     * @param temperature Sensor temperature, in degrees Celsius.
+     * @param bias Vector to receive the bias.
+     * @return {@code true} if there was any data to compute the bias from, {@code false}
+     *     otherwise.
+     */
+    boolean get(double temperature, Vector bias) {
+        double position = getPosition(temperature);
+        int below = getBin((long) Math.floor(position));
+        while (below >= 0 && bins[below * FIELDS + WEIGHT] == 0) {
+            below--;
+        }
+        int above = getBin((long) Math.ceil(position));
+        while (above < BIN_COUNT && bins[above * FIELDS + WEIGHT] == 0) {
+            above++;
+        }
+
+        if (below < 0 && above >= BIN_COUNT) {
+            return false;
+        } else if (below < 0 || above >= BIN_COUNT || below == above) {
+            int offset = (below < 0 ? above : below) * FIELDS;
+            bias.set(bins[offset], bins[offset + 1], bins[offset + 2]);
+        } else {
+            double t = Math.max(0, Math.min(1, (position - below) / (above - below)));
+            int lo = below * FIELDS;
+            int hi = above * FIELDS;
+            bias.set(
+                    bins[lo] + (bins[hi] - bins[lo]) * t,
+                    bins[lo + 1] + (bins[hi + 1] - bins[lo + 1]) * t,
+                    bins[lo + 2] + (bins[hi + 2] - bins[lo + 2]) * t);
+        }
+        return true;
+    }
+
+    /**
+     * Serialize the table.
+     *
+     * @return Base64-encoded little-endian array of the bin values.
+     */
+    String encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(bins.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(bins);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    /**
+     * Restore the table serialized with {@link #encode}. The table is cleared if the data is
+     * missing or malformed.
+     *
+     * @param data Serialized table.
+     */
+    void decode(String data) {
+        clear();
+        if (data.isEmpty()) {
+            return;
+        }
+
+        try {
+            byte[] bytes = Base64.getDecoder().decode(data);
+            if (bytes.length != bins.length * 4) {
+                Log.e(TAG, "Unexpected bias table size: " + bytes.length);
+                return;
+            }
+            ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(bins);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Malformed bias table", e);
+        }
+    }
+
+    private static double getPosition(double temperature) {
+        return (temperature - MIN_TEMPERATURE) / BIN_SIZE;
+    }
+
+    private static int getBin(long index) {
+        return (int) Math.max(0, Math.min(BIN_COUNT - 1, index));
+    }
+}
@@ -19,14 +19,18 @@ package com.ginkage.wearmouse.sensors;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.util.Log;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 
 /**
  * Helper class to gather some stats and store the calibration data. Right now it calculates a lot
  * more stats than actually needed. Some of them are used for logging the sensors quality (and
  * filing bugs), other may be required in the future, e.g. for bias.
+ *
+ * <p>The stats are updated in a streaming fashion (Welford's algorithm for the mean and variance,
+ * the P-square estimator for the median), so adding a sample neither allocates nor sorts anything.
+ * After every sample, the confidence interval is checked against a threshold, and calibration
+ * finishes as soon as the mean is known well enough, instead of always waiting for the maximum
+ * number of samples.
  */
 class CalibrationData {
 
@@ -38,6 +42,7 @@ class CalibrationData {
     static final String KEY_SIGMA = "sigma";
     static final String KEY_DELTA = "delta";
     static final String KEY_COMPLETE = "complete";
+    static final String KEY_BIAS_TABLE = "bias_table";
 
     // Student's distribution T values for 95% (two-sided) confidence interval.
     private static final double[] Tn = {
@@ -55,26 +60,42 @@ class CalibrationData {
         40, 50, 60, 80, 100, 120, 200
     };
 
+    // Don't trust the confidence interval before we have at least this many samples.
+    private static final int MIN_SAMPLES = 25;
+
+    // Give up waiting for the confidence interval to shrink after this many samples.
+    private static final int MAX_SAMPLES = Nn[Nn.length - 1];
+
+    // Calibration is complete when the confidence interval is this narrow on all axes, rad/s.
+    private static final double DELTA_THRESHOLD = 0.002;
+
+    // How many weighted samples of a learned bias a stored calibration is worth when merging.
+    private static final double CALIBRATION_WEIGHT = 200;
+
+    // The bias learned in a single session never replaces more than this part of the stored one.
+    // It comes from a low-pass filter that only remembers the last few seconds, so the weight
+    // overstates how much it can be trusted after a long static period.
+    private static final double MAX_MERGE_RATE = 0.5;
+
     private final SharedPreferences sharedPref;
 
     private int count;
     private boolean complete;
-    private final Vector sum = new Vector();
-    private final Vector sumSq = new Vector();
     private final Vector mean = new Vector();
     private final Vector m2 = new Vector();
-    private final Vector d = new Vector();
     private final Vector s2 = new Vector();
     private final Vector sigma = new Vector();
     private final Vector s = new Vector();
     private final Vector delta = new Vector();
     private final Vector low = new Vector();
     private final Vector high = new Vector();
-    private final Vector temp = new Vector();
     private final Vector median = new Vector();
-    private ArrayList<Float> xData = new ArrayList<>();
-    private ArrayList<Float> yData = new ArrayList<>();
-    private ArrayList<Float> zData = new ArrayList<>();
+    private final StreamingMedian xMedian = new StreamingMedian();
+    private final StreamingMedian yMedian = new StreamingMedian();
+    private final StreamingMedian zMedian = new StreamingMedian();
+    private final BiasTable biasTable = new BiasTable();
+    private final Vector currentBias = new Vector();
+    private double temperature = Double.NaN;
 
     /** @param context The Context to access shared preferences with. */
     CalibrationData(Context context) {
@@ -91,19 +112,42 @@ class CalibrationData {
         return complete;
     }
 
+    /**
+     * Set the current sensor temperature, which new bias values are filed under, and which the bias
+     * is looked up for.
+     *
+     * @param celsius Sensor temperature, in degrees Celsius.
+     */
+    void setTemperature(double celsius) {
+        temperature = celsius;
+    }
+
+    /**
+     * Retrieve the gyroscope bias for the current temperature. Falls back to the median if the
+     * temperature is unknown, or there is no data in the bias table yet.
+     *
+     * @return Three-axis gyroscope bias vector.
+     */
+    Vector getBias() {
+        if (Double.isNaN(temperature) || !biasTable.get(temperature, currentBias)) {
+            currentBias.set(median);
+        }
+        return currentBias;
+    }
+
     /** Prepare to collect new calibration data. */
     void reset() {
         complete = false;
+        biasTable.clear();
         count = 0;
-        sum.reset();
-        sumSq.reset();
         mean.reset();
+        m2.reset();
         median.reset();
         sigma.reset();
         delta.reset();
-        xData = new ArrayList<>();
-        yData = new ArrayList<>();
-        zData = new ArrayList<>();
+        xMedian.reset();
+        yMedian.reset();
+        zMedian.reset();
         storeData();
     }
 
@@ -154,15 +198,24 @@ class CalibrationData {
             return true;
         }
 
-        xData.add(data[0]);
-        yData.add(data[1]);
-        zData.add(data[2]);
-
-        sum.add(temp.set(data[0], data[1], data[2]));
-        sumSq.add(temp.square());
         count++;
 
-        if (count >= Nn[Nn.length - 1]) {
+        // Welford's update: M2 accumulates the squared differences from the current mean.
+        double dx = data[0] - mean.x;
+        double dy = data[1] - mean.y;
+        double dz = data[2] - mean.z;
+        mean.x += dx / count;
+        mean.y += dy / count;
+        mean.z += dz / count;
+        m2.x += dx * (data[0] - mean.x);
+        m2.y += dy * (data[1] - mean.y);
+        m2.z += dz * (data[2] - mean.z);
+
+        xMedian.add(data[0]);
+        yMedian.add(data[1]);
+        zMedian.add(data[2]);
+
+        if (count >= MIN_SAMPLES) {
             calcDelta();
         }
 
@@ -171,17 +224,27 @@ class CalibrationData {
 
     // Calculates the confidence interval (mean +- delta) and some other related values, like
     // standard deviation, etc. See https://en.wikipedia.org/wiki/Student%27s_t-distribution
+    // The T value is taken for the closest tabulated number of degrees of freedom that doesn't
+    // exceed the actual one, which errs on the side of a wider interval.
     void calcDelta() {
-        int idx = Arrays.binarySearch(Nn, count);
-        median.set(median(xData), median(yData), median(zData));
-
-        mean.set(sum).divide(count);
-        m2.set(mean).square();
-        d.set(sumSq).divide(count).subtract(m2);
-        s2.set(d).multiply(count).divide(count - 1);
-        sigma.set(d).sqrt();
+        int idx = Arrays.binarySearch(Nn, count - 1);
+        if (idx < 0) {
+            idx = -idx - 2;
+        }
+
+        s2.set(m2).divide(count - 1);
         s.set(s2).sqrt();
         delta.set(s).multiply(Tn[idx]).divide(Math.sqrt(count));
+
+        if (count < MAX_SAMPLES
+                && (delta.x >= DELTA_THRESHOLD
+                        || delta.y >= DELTA_THRESHOLD
+                        || delta.z >= DELTA_THRESHOLD)) {
+            return;
+        }
+
+        median.set(xMedian.get(), yMedian.get(), zMedian.get());
+        sigma.set(m2).divide(count).sqrt();
         low.set(mean).subtract(delta);
         high.set(mean).add(delta);
 
@@ -197,11 +260,39 @@ class CalibrationData {
                         low.x, high.x, median.x, mean.x, delta.x, sigma.x, low.y, high.y, median.y,
                         mean.y, delta.y, sigma.y, low.z, high.z, median.z, mean.z, delta.z,
                         sigma.z));
+        Log.d(TAG, "Calibration finished after " + count + " samples");
 
-        if (idx == Nn.length - 1) {
-            complete = true;
-            storeData();
+        complete = true;
+        if (!Double.isNaN(temperature)) {
+            biasTable.add(temperature, median.x, median.y, median.z, CALIBRATION_WEIGHT);
         }
+        storeData();
+    }
+
+    /**
+     * Merge the gyroscope bias learned by the sensor fusion into the stored median and into the
+     * bias table at the current temperature, so that the next session starts with a more precise
+     * bias than the last manual calibration.
+     *
+     * @param bias Raw three-axis gyroscope bias learned in the session.
+     * @param weight Sum of the sample weights the learned bias is based on.
+     */
+    void merge(double[] bias, double weight) {
+        if (!Double.isFinite(bias[0]) || !Double.isFinite(bias[1]) || !Double.isFinite(bias[2])) {
+            return;
+        }
+
+        double rate = Math.min(MAX_MERGE_RATE, weight / (weight + CALIBRATION_WEIGHT));
+        median.set(
+                median.x + (bias[0] - median.x) * rate,
+                median.y + (bias[1] - median.y) * rate,
+                median.z + (bias[2] - median.z) * rate);
+        if (!Double.isNaN(temperature)) {
+            biasTable.add(
+                    temperature, bias[0], bias[1], bias[2], Math.min(weight, CALIBRATION_WEIGHT));
+        }
+        Log.d(TAG, "Merged learned bias with weight " + weight + ", median = " + median);
+        storeData();
     }
 
     void readData() {
@@ -210,15 +301,7 @@ class CalibrationData {
         sigma.set(sharedPref.getString(KEY_SIGMA, "0,0,0"));
         delta.set(sharedPref.getString(KEY_DELTA, "0,0,0"));
         complete = sharedPref.getBoolean(KEY_COMPLETE, false);
-    }
-
-    private static float median(ArrayList<Float> list) {
-        Collections.sort(list);
-        int count = list.size();
-        int middle = count / 2;
-        return (count % 2 == 1)
-                ? list.get(middle)
-                : (list.get(middle - 1) + list.get(middle)) / 2.0f;
+        biasTable.decode(sharedPref.getString(KEY_BIAS_TABLE, ""));
     }
 
     private void storeData() {
@@ -229,6 +312,105 @@ class CalibrationData {
                 .putString(KEY_SIGMA, sigma.toString())
                 .putString(KEY_DELTA, delta.toString())
                 .putBoolean(KEY_COMPLETE, complete)
+                .putString(KEY_BIAS_TABLE, biasTable.encode())
                 .apply();
     }
+
+    /**
+     * P-square estimator of the median (Jain and Chlamtac, 1985). Keeps five markers whose heights
+     * approximate the minimum, the quartiles, the median and the maximum of the samples seen so
+     * far, and adjusts them with a piecewise-parabolic prediction as new samples arrive.
+     */
+    private static final class StreamingMedian {
+        // Increments of the desired marker positions per sample, for the 0.5 quantile.
+        private static final double[] INCREMENTS = {0, 0.25, 0.5, 0.75, 1};
+
+        private final double[] heights = new double[5];
+        private final double[] positions = new double[5];
+        private final double[] desired = new double[5];
+        private final double[] scratch = new double[5];
+        private int count;
+
+        void reset() {
+            count = 0;
+        }
+
+        void add(double value) {
+            if (count < 5) {
+                heights[count++] = value;
+                if (count == 5) {
+                    Arrays.sort(heights);
+                    for (int i = 0; i < 5; i++) {
+                        positions[i] = i;
+                        desired[i] = 4 * INCREMENTS[i];
+                    }
+                }
+                return;
+            }
+            count++;
+
+            int k;
+            if (value < heights[0]) {
+                heights[0] = value;
+                k = 0;
+            } else if (value >= heights[4]) {
+                heights[4] = value;
+                k = 3;
+            } else {
+                k = 0;
+                while (value >= heights[k + 1]) {
+                    k++;
+                }
+            }
+
+            for (int i = k + 1; i < 5; i++) {
+                positions[i]++;
+            }
+            for (int i = 0; i < 5; i++) {
+                desired[i] += INCREMENTS[i];
+            }
+
+            for (int i = 1; i < 4; i++) {
+                double d = desired[i] - positions[i];
+                if ((d >= 1 && positions[i + 1] - positions[i] > 1)
+                        || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                    int sign = d > 0 ? 1 : -1;
+                    double height = parabolic(i, sign);
+                    if (heights[i - 1] >= height || height >= heights[i + 1]) {
+                        height = linear(i, sign);
+                    }
+                    heights[i] = height;
+                    positions[i] += sign;
+                }
+            }
+        }
+
+        double get() {
+            if (count >= 5) {
+                return heights[2];
+            }
+            if (count == 0) {
+                return 0;
+            }
+            // Too few samples for the markers, the exact median is cheap.
+            System.arraycopy(heights, 0, scratch, 0, count);
+            Arrays.sort(scratch, 0, count);
+            int middle = count / 2;
+            return (count % 2 == 1) ? scratch[middle] : (scratch[middle - 1] + scratch[middle]) / 2;
+        }
+
+        private double parabolic(int i, int sign) {
+            double n = positions[i];
+            double nPrev = positions[i - 1];
+            double nNext = positions[i + 1];
+            double next = (n - nPrev + sign) * (heights[i + 1] - heights[i]) / (nNext - n);
+            double prev = (nNext - n - sign) * (heights[i] - heights[i - 1]) / (n - nPrev);
+            return heights[i] + sign * (next + prev) / (nNext - nPrev);
+        }
+
+        private double linear(int i, int sign) {
+            double step = (heights[i + sign] - heights[i]) / (positions[i + sign] - positions[i]);
+            return heights[i] + sign * step;
+        }
+    }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.sensors;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps the native sensor fusion state between the input sessions, both in memory and in shared
+ * preferences, so that a new session (e.g. after switching between the input modes) doesn't start
+ * the filter from scratch. The orientation is only carried over if the snapshot is fresh, since
+ * the watch may have moved in the meantime. The learned bias is carried over as the raw gyroscope
+ * bias, so that it stays consistent with the calibration of the new session.
+ */
+class FusionSnapshot {
+
+    private static final String TAG = "FusionSnapshot";
+
+    private static final String DATA_PREF = "com.ginkage.wearmouse.FUSION";
+    private static final String KEY_DATA = "data";
+    private static final String KEY_TIMESTAMP = "timestamp";
+    private static final String KEY_VALID = "valid";
+
+    // How long the orientation stays valid after the session has ended.
+    private static final long MAX_AGE_NS = 2_000_000_000L;
+
+    private final SharedPreferences sharedPref;
+    private final double[] data = new double[SensorFusionJni.SNAPSHOT_SIZE];
+    private long timestampNs;
+    private boolean valid;
+
+    /** @param context The Context to access shared preferences with. */
+    FusionSnapshot(Context context) {
+        this.sharedPref = context.getSharedPreferences(DATA_PREF, Context.MODE_PRIVATE);
+        readData();
+    }
+
+    /**
+     * Check if there is a snapshot to restore.
+     *
+     * @return {@code true} if the snapshot was taken, or {@code false} otherwise.
+     */
+    boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Check if the orientation in the snapshot can still be trusted.
+     *
+     * @return {@code true} if the snapshot was taken recently (and since the last boot).
+     */
+    boolean isFresh() {
+        long age = SystemClock.elapsedRealtimeNanos() - timestampNs;
+        return valid && age >= 0 && age <= MAX_AGE_NS;
+    }
+
+    /**
+     * Retrieve the snapshot contents, to restore them or to take a new snapshot into.
+     *
+     * @return The native snapshot array.
+     */
+    double[] getData() {
+        return data;
+    }
+
+    /** Mark the data just taken as a new valid snapshot, and persist it. */
+    void update() {
+        timestampNs = SystemClock.elapsedRealtimeNanos();
+        valid = true;
+        storeData();
+    }
+
+    /** Discard the snapshot, e.g. because the sensors were calibrated again. */
+    void reset() {
+        valid = false;
+        storeData();
+    }
+
+    private void readData() {
+        valid = sharedPref.getBoolean(KEY_VALID, false);
+        timestampNs = sharedPref.getLong(KEY_TIMESTAMP, 0);
+        String[] values = sharedPref.getString(KEY_DATA, "").split(",");
+        if (values.length != data.length) {
+            valid = false;
+            return;
+        }
+
+        try {
+            for (int i = 0; i < data.length; i++) {
+                data[i] = Double.parseDouble(values[i]);
+            }
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Malformed snapshot", e);
+            valid = false;
+        }
+    }
+
+    private void storeData() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < data.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(data[i]);
+        }
+
+        sharedPref
+                .edit()
+                .putString(KEY_DATA, builder.toString())
+                .putLong(KEY_TIMESTAMP, timestampNs)
+                .putBoolean(KEY_VALID, valid)
+                .apply();
+    }
+}
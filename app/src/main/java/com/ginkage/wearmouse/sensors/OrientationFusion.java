@@ -16,7 +16,11 @@
 
 package com.ginkage.wearmouse.sensors;
 
+import android.content.Context;
+import com.ginkage.wearmouse.sensors.SensorService.CursorListener;
 import com.ginkage.wearmouse.sensors.SensorService.OrientationListener;
+import java.io.File;
+import javax.annotation.Nullable;
 
 /**
  * A module that sends the sensor-fused absolute orientation quaternion of the watch with a
@@ -26,29 +30,134 @@ class OrientationFusion {
 
     private static final String TAG = "OrientationFusion";
 
+    private final double[] learnedCalibration = new double[3];
+    private final FusionSnapshot snapshot;
+
     private SensorFusionJni tracker;
+    @Nullable private String tracePath;
+
+    /** @param context The Context to persist the sensor fusion state with. */
+    OrientationFusion(Context context) {
+        snapshot = new FusionSnapshot(context);
+    }
+
+    /**
+     * Sets the file to record the raw sensor events into, starting from the next session.
+     *
+     * @param traceFile the trace file, or {@code null} to stop recording.
+     */
+    void setTraceFile(@Nullable File traceFile) {
+        tracePath = traceFile != null ? traceFile.getPath() : null;
+    }
 
     /**
      * Starts listening to the sensors and providing the orientation data.
      *
      * @param listener the callback to receive the orientation data.
      * @param samplingPeriodUs the period between the sensors readings in microseconds.
+     * @param maxReportLatencyUs how long the sensor readings may be batched for, 0 to disable.
+     * @param mergedEvents whether both sensors should be read on a single native thread.
      */
-    void start(OrientationListener listener, int samplingPeriodUs, Vector calibrationData) {
+    void start(
+            OrientationListener listener,
+            int samplingPeriodUs,
+            int maxReportLatencyUs,
+            boolean mergedEvents,
+            Vector calibrationData) {
         if (tracker == null) {
             tracker =
                 new SensorFusionJni(
                     new double[]{ calibrationData.x, calibrationData.y, calibrationData.z },
+                    snapshot.isValid() ? snapshot.getData() : null,
+                    snapshot.isFresh(),
                     samplingPeriodUs,
+                    maxReportLatencyUs,
+                    mergedEvents,
+                    tracePath,
                     listener);
         }
     }
 
-    /** Stops listening to the sensors. */
-    void stop() {
+    /**
+     * Starts listening to the sensors and providing the cursor movement.
+     *
+     * @param listener the callback to receive the cursor movement.
+     * @param samplingPeriodUs the period between the sensors readings in microseconds.
+     * @param maxReportLatencyUs how long the sensor readings may be batched for, 0 to disable.
+     * @param mergedEvents whether both sensors should be read on a single native thread.
+     * @param handMode the current watch location.
+     * @param lefty whether the watch is worn upside down.
+     * @param stabilize whether the pointer stabilization is enabled.
+     */
+    void startCursor(
+            CursorListener listener,
+            int samplingPeriodUs,
+            int maxReportLatencyUs,
+            boolean mergedEvents,
+            Vector calibrationData,
+            int handMode,
+            boolean lefty,
+            boolean stabilize) {
+        if (tracker == null) {
+            tracker =
+                new SensorFusionJni(
+                    new double[]{ calibrationData.x, calibrationData.y, calibrationData.z },
+                    snapshot.isValid() ? snapshot.getData() : null,
+                    snapshot.isFresh(),
+                    samplingPeriodUs,
+                    maxReportLatencyUs,
+                    mergedEvents,
+                    tracePath,
+                    listener,
+                    handMode,
+                    lefty,
+                    stabilize);
+        }
+    }
+
+    /**
+     * Replaces the gyroscope bias for the running session.
+     *
+     * @param calibrationData the new gyroscope bias.
+     */
+    void setCalibration(Vector calibrationData) {
+        if (tracker != null) {
+            tracker.setCalibration(
+                    new double[] {calibrationData.x, calibrationData.y, calibrationData.z});
+        }
+    }
+
+    /**
+     * Changes the watch location for the cursor movement.
+     *
+     * @param handMode the current watch location.
+     */
+    void setHandMode(int handMode) {
         if (tracker != null) {
-            tracker.destroy();
+            tracker.setHandMode(handMode);
+        }
+    }
+
+    /**
+     * Stops listening to the sensors.
+     *
+     * @param calibrationData the calibration to merge the gyroscope bias learned in this session
+     *     into.
+     */
+    void stop(CalibrationData calibrationData) {
+        if (tracker != null) {
+            double weight = tracker.getCalibration(learnedCalibration);
+            if (weight > 0) {
+                calibrationData.merge(learnedCalibration, weight);
+            }
+            tracker.destroy(snapshot.getData());
+            snapshot.update();
             tracker = null;
         }
     }
+
+    /** Discards the sensor fusion state kept from the previous sessions. */
+    void resetSnapshot() {
+        snapshot.reset();
+    }
 }
@@ -18,36 +18,162 @@ package com.ginkage.wearmouse.sensors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.ginkage.wearmouse.sensors.SensorService.CursorListener;
 import com.ginkage.wearmouse.sensors.SensorService.OrientationListener;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import javax.annotation.Nullable;
 
 /** JNI for accessing the native sensor fusion implementation. */
 class SensorFusionJni {
 
+    // The buffer shared with the native code holds the orientation quaternion. The native thread
+    // writes it right before calling onOrientation(), so it is only ever read on that same thread.
+    private static final int BUFFER_SIZE = 4 * Double.BYTES;
+
+    /** Number of doubles in the native filter state snapshot. */
+    static final int SNAPSHOT_SIZE;
+
     private final long nativeSensorFusionPtr;
-    private final OrientationListener listener;
+    @Nullable private final OrientationListener orientationListener;
+    @Nullable private final CursorListener cursorListener;
+    private final ByteBuffer buffer =
+            ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.nativeOrder());
+    private final DoubleBuffer sharedOrientation = buffer.asDoubleBuffer();
     private final double[] orientation = new double[4];
 
     static {
         System.loadLibrary("sensor_fusion_jni");
+        SNAPSHOT_SIZE = nativeGetSnapshotSize();
     }
 
     /** Initializes the native sensor fusion. Must be called before this object can be used. */
-    SensorFusionJni(double[] calibration, int samplingPeriodUs, OrientationListener listener) {
-        nativeSensorFusionPtr = nativeInit(calibration, samplingPeriodUs);
-        this.listener = checkNotNull(listener);
+    SensorFusionJni(
+            double[] calibration,
+            @Nullable double[] snapshot,
+            boolean freshSnapshot,
+            int samplingPeriodUs,
+            int maxReportLatencyUs,
+            boolean mergedEvents,
+            @Nullable String tracePath,
+            OrientationListener listener) {
+        this.orientationListener = checkNotNull(listener);
+        this.cursorListener = null;
+        nativeSensorFusionPtr =
+                nativeInit(
+                        buffer,
+                        calibration,
+                        snapshot,
+                        freshSnapshot,
+                        samplingPeriodUs,
+                        maxReportLatencyUs,
+                        mergedEvents,
+                        false,
+                        0,
+                        false,
+                        false,
+                        tracePath);
+    }
+
+    /**
+     * Initializes the native sensor fusion in the cursor mode, where the orientation is translated
+     * to the cursor movement on the native side. Must be called before this object can be used.
+     */
+    SensorFusionJni(
+            double[] calibration,
+            @Nullable double[] snapshot,
+            boolean freshSnapshot,
+            int samplingPeriodUs,
+            int maxReportLatencyUs,
+            boolean mergedEvents,
+            @Nullable String tracePath,
+            CursorListener listener,
+            int handMode,
+            boolean lefty,
+            boolean stabilize) {
+        this.orientationListener = null;
+        this.cursorListener = checkNotNull(listener);
+        nativeSensorFusionPtr =
+                nativeInit(
+                        buffer,
+                        calibration,
+                        snapshot,
+                        freshSnapshot,
+                        samplingPeriodUs,
+                        maxReportLatencyUs,
+                        mergedEvents,
+                        true,
+                        handMode,
+                        lefty,
+                        stabilize,
+                        tracePath);
+    }
+
+    /** Sets the current watch location, only has effect in the cursor mode. */
+    void setHandMode(int handMode) {
+        nativeSetHandMode(nativeSensorFusionPtr, handMode);
+    }
+
+    /** Replaces the gyroscope bias subtracted from the raw readings, e.g. when it has drifted. */
+    void setCalibration(double[] calibration) {
+        nativeSetCalibration(nativeSensorFusionPtr, calibration);
     }
 
-    /** De-initializes the native sensor fusion. Must be called before releasing this object. */
-    void destroy() {
-        nativeDestroy(nativeSensorFusionPtr);
+    /**
+     * Retrieves the raw gyroscope bias learned by the sensor fusion in this session, i.e. the
+     * initial calibration corrected by the bias estimated while the watch was static.
+     *
+     * @param calibration Array to receive the three-axis bias.
+     * @return Sum of the sample weights the estimate is based on, or 0 if there is none.
+     */
+    double getCalibration(double[] calibration) {
+        return nativeGetCalibration(nativeSensorFusionPtr, calibration);
+    }
+
+    /**
+     * De-initializes the native sensor fusion. Must be called before releasing this object.
+     *
+     * @param snapshot Array of {@link #SNAPSHOT_SIZE} to receive the final filter state.
+     */
+    void destroy(double[] snapshot) {
+        nativeDestroy(nativeSensorFusionPtr, snapshot);
     }
 
     /** Called from the native thread whenever new gyroscope sensor data is available. */
     void onOrientation() {
-        listener.onOrientation(orientation);
+        for (int i = 0; i < orientation.length; i++) {
+            orientation[i] = sharedOrientation.get(i);
+        }
+        orientationListener.onOrientation(orientation);
+    }
+
+    /** Called from the native thread whenever the cursor has moved, in the cursor mode only. */
+    void onCursorMove(int dX, int dY) {
+        cursorListener.onCursorMove(dX, dY);
     }
 
-    private native long nativeInit(double[] calibration, int samplingPeriodUs);
+    private static native int nativeGetSnapshotSize();
+
+    private native long nativeInit(
+            ByteBuffer buffer,
+            double[] calibration,
+            @Nullable double[] snapshot,
+            boolean freshSnapshot,
+            int samplingPeriodUs,
+            int maxReportLatencyUs,
+            boolean mergedEvents,
+            boolean cursorMode,
+            int handMode,
+            boolean lefty,
+            boolean stabilize,
+            @Nullable String tracePath);
+
+    private native void nativeSetHandMode(long nativeSensorFusionPtr, int handMode);
+
+    private native void nativeSetCalibration(long nativeSensorFusionPtr, double[] calibration);
+
+    private native double nativeGetCalibration(long nativeSensorFusionPtr, double[] calibration);
 
-    private native void nativeDestroy(long nativeSensorFusionPtr);
+    private native void nativeDestroy(long nativeSensorFusionPtr, double[] snapshot);
 }
@@ -17,15 +17,19 @@
 package com.ginkage.wearmouse.sensors;
 
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.BatteryManager;
 import android.os.Binder;
 import android.os.IBinder;
 import android.util.Log;
+import java.io.File;
 import javax.annotation.Nullable;
 
 /** Service that listens to the sensors events and handles the data. */
@@ -35,6 +39,10 @@ public class SensorService extends Service {
 
     private static final int DATA_RATE_LOW_US = 20000;
     private static final int DATA_RATE_HIGH_US = 11250;
+    private static final int MAX_REPORT_LATENCY_US = 45000;
+
+    // Can be pulled from a debuggable build with "adb exec-out run-as <package> cat files/...".
+    private static final String TRACE_FILE_NAME = "sensors.wmst";
 
     /** Interface for binding the service to an activity. */
     class LocalBinder extends Binder {
@@ -58,6 +66,17 @@ public class SensorService extends Service {
         void onOrientation(double[] quaternion);
     }
 
+    /** Interface for subscribing to the cursor movement computed from the orientation. */
+    public interface CursorListener {
+        /**
+         * Called when the orientation change has moved the cursor by at least one pixel.
+         *
+         * @param dX Cursor movement along X axis.
+         * @param dY Cursor movement along Y axis.
+         */
+        void onCursorMove(int dX, int dY);
+    }
+
     /** Callback to be notified of the calibration completion. */
     public interface CalibrationListener {
         /**
@@ -97,8 +116,23 @@ public class SensorService extends Service {
                 public void onAccuracyChanged(Sensor sensor, int accuracy) {}
             };
 
+    // There is no public API for the gyroscope temperature, and the battery is the one temperature
+    // sensor that every watch has. It sits right next to the IMU and warms up along with it.
+    private final BroadcastReceiver temperatureReceiver =
+            new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    int temperature =
+                            intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, Integer.MIN_VALUE);
+                    if (temperature != Integer.MIN_VALUE) {
+                        onTemperatureChanged(temperature / 10.0);
+                    }
+                }
+            };
+
     private SensorManager sensorManager;
     private OrientationFusion orientation;
+    private double temperature = Double.NaN;
 
     private boolean calibrating;
     private boolean registered;
@@ -119,11 +153,14 @@ public class SensorService extends Service {
         calibrationData = new CalibrationData(this);
         sensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
 
-        orientation = new OrientationFusion();
+        orientation = new OrientationFusion(this);
+
+        registerReceiver(temperatureReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
     }
 
     @Override
     public void onDestroy() {
+        unregisterReceiver(temperatureReceiver);
         stopInput();
         super.onDestroy();
     }
@@ -152,21 +189,91 @@ public class SensorService extends Service {
         }
 
         calibrationData.reset();
+        orientation.resetSnapshot();
         calibrating = true;
         registered = true;
     }
 
+    /**
+     * Sets whether the raw sensor events of the next input sessions are recorded into a trace
+     * file, which can be replayed by the host build of the native sensor fusion. Each session
+     * overwrites the trace of the previous one.
+     *
+     * @param record {@code true} to record the sensor events, {@code false} otherwise.
+     */
+    public void setTraceRecording(boolean record) {
+        orientation.setTraceFile(record ? new File(getFilesDir(), TRACE_FILE_NAME) : null);
+    }
+
     /**
      * Starts listening for the sensors data and providing the device orientation.
      *
      * @param listener Callback to receive the device orientation.
      * @param reducedRate {@code true} if orientation events should be provided at 50 Hz, {@code
      *     false} for 88.89 Hz.
+     * @param batched {@code true} if the sensors data may be batched in the hardware FIFO to save
+     *     power, at the cost of latency. Orientation is then provided once per batch. Both
+     *     sensors are then read on a single thread, regardless of {@code mergedEvents}.
+     * @param mergedEvents {@code true} if both sensors should be read on a single thread, and
+     *     their events processed in strict timestamp order.
+     */
+    public void startInput(
+            OrientationListener listener,
+            boolean reducedRate,
+            boolean batched,
+            boolean mergedEvents) {
+        stopInput();
+        orientation.start(
+                listener,
+                getSamplingPeriodUs(reducedRate),
+                getMaxReportLatencyUs(batched),
+                mergedEvents,
+                calibrationData.getBias());
+    }
+
+    /**
+     * Starts listening for the sensors data and providing the mouse cursor movement. This does the
+     * same job as {@link #startInput} followed by the orientation-to-cursor conversion, but the
+     * listener is only called when the cursor has actually moved.
+     *
+     * @param listener Callback to receive the cursor movement.
+     * @param reducedRate {@code true} if the sensors should be sampled at 50 Hz, {@code false} for
+     *     88.89 Hz.
+     * @param batched {@code true} if the sensors data may be batched in the hardware FIFO. Implies
+     *     {@code mergedEvents}.
+     * @param mergedEvents {@code true} if both sensors should be read on a single thread.
+     * @param handMode The current watch location: left wrist (0), in the hand (1), right wrist
+     *     (2).
+     * @param lefty {@code true} if the watch is worn upside down.
+     * @param stabilize {@code true} if pointer stabilization is enabled.
      */
-    public void startInput(OrientationListener listener, boolean reducedRate) {
+    public void startCursorInput(
+            CursorListener listener,
+            boolean reducedRate,
+            boolean batched,
+            boolean mergedEvents,
+            int handMode,
+            boolean lefty,
+            boolean stabilize) {
         stopInput();
-        int samplingPeriodUs = reducedRate ? DATA_RATE_LOW_US : DATA_RATE_HIGH_US;
-        orientation.start(listener, samplingPeriodUs, calibrationData.getMedian());
+        orientation.startCursor(
+                listener,
+                getSamplingPeriodUs(reducedRate),
+                getMaxReportLatencyUs(batched),
+                mergedEvents,
+                calibrationData.getBias(),
+                handMode,
+                lefty,
+                stabilize);
+    }
+
+    /**
+     * Changes the watch location for the input started with {@link #startCursorInput}.
+     *
+     * @param handMode The current watch location.
+     */
+    public void setCursorHandMode(int handMode) {
+        orientation.setHandMode(handMode);
     }
 
     /** Stops all sensors interactions. */
@@ -177,8 +284,26 @@ public class SensorService extends Service {
             sensorManager.unregisterListener(sensorEventListener);
         }
 
-        orientation.stop();
+        orientation.stop(calibrationData);
 
         calibrationListener = null;
     }
+
+    // The bias is looked up for the new temperature and swapped into the running session, if any.
+    private void onTemperatureChanged(double celsius) {
+        if (celsius == temperature) {
+            return;
+        }
+        temperature = celsius;
+        calibrationData.setTemperature(celsius);
+        orientation.setCalibration(calibrationData.getBias());
+    }
+
+    private static int getSamplingPeriodUs(boolean reducedRate) {
+        return reducedRate ? DATA_RATE_LOW_US : DATA_RATE_HIGH_US;
+    }
+
+    private static int getMaxReportLatencyUs(boolean batched) {
+        return batched ? MAX_REPORT_LATENCY_US : 0;
+    }
 }
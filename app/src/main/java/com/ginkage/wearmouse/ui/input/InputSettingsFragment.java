@@ -20,10 +20,12 @@ import android.app.Activity;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.StrictMode;
+import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceFragment;
 import android.preference.SwitchPreference;
 import com.ginkage.wearmouse.R;
+import com.ginkage.wearmouse.bluetooth.HidDataSender;
 import com.ginkage.wearmouse.input.SettingsUtil;
 import com.ginkage.wearmouse.input.SettingsUtil.SettingKey;
 import com.ginkage.wearmouse.ui.onboarding.OnboardingController;
@@ -56,8 +58,46 @@ public class InputSettingsFragment extends PreferenceFragment {
 
         initBooleanPref(SettingKey.STABILIZE);
         initBooleanPref(SettingKey.CURSOR_8_WAY);
+        initBooleanPref(SettingKey.KEYPAD_MEDIA);
         initBooleanPref(SettingKey.REDUCED_RATE);
         initBooleanPref(SettingKey.STAY_CONNECTED);
+        initBooleanPref(SettingKey.NATIVE_CURSOR);
+        initBooleanPref(SettingKey.BATCHED_SENSORS);
+        initBooleanPref(SettingKey.MERGED_SENSORS);
+        initBooleanPref(SettingKey.RECORD_SENSOR_TRACE);
+        initBooleanPref(SettingKey.ABSOLUTE_POINTER);
+        initBooleanPref(SettingKey.HIGH_RES_MOUSE);
+        findPreference(SettingKey.HIGH_RES_MOUSE)
+                .setOnPreferenceChangeListener(
+                        (p, newVal) -> {
+                            settings.setBoolean(SettingKey.HIGH_RES_MOUSE, (Boolean) newVal);
+                            HidDataSender.getInstance().setHighResolutionMouse((Boolean) newVal);
+                            return true;
+                        });
+
+        ListPreference windowPref = (ListPreference) findPreference(SettingKey.ABSOLUTE_WINDOW);
+        windowPref.setValue(String.valueOf(settings.getAbsoluteWindow()));
+        windowPref.setOnPreferenceChangeListener(
+                (p, newVal) -> {
+                    settings.putAbsoluteWindow(Integer.parseInt((String) newVal));
+                    return true;
+                });
+
+        ListPreference layoutPref = (ListPreference) findPreference(SettingKey.KEYBOARD_LAYOUT);
+        layoutPref.setValue(String.valueOf(settings.getKeyboardLayout()));
+        layoutPref.setOnPreferenceChangeListener(
+                (p, newVal) -> {
+                    settings.putKeyboardLayout(Integer.parseInt((String) newVal));
+                    return true;
+                });
+
+        ListPreference unicodePref = (ListPreference) findPreference(SettingKey.UNICODE_INPUT);
+        unicodePref.setValue(String.valueOf(settings.getUnicodeInput()));
+        unicodePref.setOnPreferenceChangeListener(
+                (p, newVal) -> {
+                    settings.putUnicodeInput(Integer.parseInt((String) newVal));
+                    return true;
+                });
 
         updateCalibrationPref();
         calibrationPref.setOnPreferenceChangeListener(
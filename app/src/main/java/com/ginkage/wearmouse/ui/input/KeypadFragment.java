@@ -33,6 +33,7 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.constraintlayout.widget.ConstraintLayout.LayoutParams;
 import com.ginkage.wearmouse.R;
+import com.ginkage.wearmouse.bluetooth.ConsumerReport;
 import com.ginkage.wearmouse.input.KeyboardHelper.Key;
 import com.ginkage.wearmouse.input.KeypadController;
 import com.ginkage.wearmouse.input.KeypadGestureDetector;
@@ -214,9 +215,22 @@ public class KeypadFragment extends Fragment {
                         .put(Key.SPACE, getString(R.string.key_name_space))
                         .build();
 
+        private final Map<Integer, String> mediaName =
+                new ImmutableMap.Builder<Integer, String>()
+                        .put(ConsumerReport.PLAY_PAUSE, getString(R.string.key_name_play_pause))
+                        .put(ConsumerReport.SCAN_PREVIOUS, getString(R.string.key_name_previous))
+                        .put(ConsumerReport.MUTE, getString(R.string.key_name_mute))
+                        .put(ConsumerReport.SCAN_NEXT, getString(R.string.key_name_next))
+                        .build();
+
         @Override
         public String getKeyName(int scanCode) {
             return swipeName.get(scanCode);
         }
+
+        @Override
+        public String getMediaKeyName(int usage) {
+            return mediaName.get(usage);
+        }
     }
 }
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatteryReportSchedulerTest {
+
+    private static final long MINUTE_MS = 60000;
+
+    private final BatteryReport report = new BatteryReport();
+    private final List<Long> sentMs = new ArrayList<>();
+    private final List<Integer> sentLevels = new ArrayList<>();
+
+    private BatteryReportScheduler scheduler;
+    private long timeMs;
+    private boolean connected;
+
+    /** The posted task and its time, like a main thread handler that never runs on its own. */
+    @Nullable private Runnable deferredTask;
+
+    private long deferredMs;
+
+    @Before
+    public void setUp() {
+        timeMs = 0;
+        connected = true;
+        deferredTask = null;
+        scheduler =
+                new BatteryReportScheduler(
+                        report,
+                        data -> {
+                            if (!connected) {
+                                return false;
+                            }
+                            sentMs.add(timeMs);
+                            sentLevels.add((int) data[0]);
+                            return true;
+                        },
+                        () -> timeMs,
+                        new BatteryReportScheduler.TaskScheduler() {
+                            @Override
+                            public void postDelayed(Runnable task, long delayMs) {
+                                assertTrue("Only one report may be deferred", deferredTask == null);
+                                deferredTask = task;
+                                deferredMs = timeMs + delayMs;
+                            }
+
+                            @Override
+                            public void removeCallbacks(Runnable task) {
+                                if (task == deferredTask) {
+                                    deferredTask = null;
+                                }
+                            }
+                        });
+    }
+
+    @Test
+    public void levelWithinTheIntervalIsDeferred() {
+        sendLevel(0, 50);
+        sendLevel(15000, 45);
+        assertEquals(Collections.singletonList(50), sentLevels);
+        assertEquals(MINUTE_MS, deferredMs);
+
+        runDeferred(MINUTE_MS);
+        assertEquals(Arrays.asList(50, 45), sentLevels);
+        assertEquals(Arrays.asList(0L, MINUTE_MS), sentMs);
+    }
+
+    @Test
+    public void newerLevelReplacesTheDeferredOne() {
+        sendLevel(0, 50);
+        sendLevel(10000, 45);
+        sendLevel(20000, 40);
+
+        runDeferred(Long.MAX_VALUE);
+        assertEquals(Arrays.asList(50, 40), sentLevels);
+    }
+
+    @Test
+    public void levelIsSentAgainAfterReconnecting() {
+        connected = false;
+        sendLevel(0, 50);
+        assertTrue("Sent " + sentLevels, sentLevels.isEmpty());
+
+        connected = true;
+        timeMs = 1000;
+        report.reset();
+        scheduler.send();
+        assertEquals(Collections.singletonList(50), sentLevels);
+    }
+
+    @Test
+    public void replayedBroadcastsSendFewReports() {
+        // Broadcasts every 20 seconds, as the voltage and the temperature change. The level drops
+        // by 1% every 6 minutes for two hours, flickering back up for one broadcast now and then,
+        // and then the watch is put on the charger, which adds 1% every 30 seconds for 15 minutes.
+        List<long[]> broadcasts = new ArrayList<>();
+        long broadcastMs = 0;
+        for (int i = 0; i < 360; i++, broadcastMs += 20000) {
+            int level = 80 - i / 18;
+            if (i % 18 == 1 && i > 18) {
+                level++;
+            }
+            broadcasts.add(new long[] {broadcastMs, level});
+        }
+        int level = 60;
+        for (int i = 0; i < 45; i++, broadcastMs += 20000) {
+            if (i % 3 != 0) {
+                level++;
+            }
+            broadcasts.add(new long[] {broadcastMs, Math.min(level, 100)});
+        }
+
+        for (long[] broadcast : broadcasts) {
+            runDeferred(broadcast[0]);
+            sendLevel(broadcast[0], (int) broadcast[1]);
+        }
+        runDeferred(Long.MAX_VALUE);
+
+        // One report per whole percent while discharging, and the flicker is never sent. The first
+        // change has no direction yet, so it takes two percent.
+        assertEquals(80, (int) sentLevels.get(0));
+        for (int i = 1; i < 20; i++) {
+            assertEquals(79 - i, (int) sentLevels.get(i));
+        }
+        // While charging, the reports are spaced out, but the last level still gets through.
+        for (int i = 1; i < sentLevels.size(); i++) {
+            assertTrue(
+                    "Reports are too close: " + sentMs,
+                    sentMs.get(i) - sentMs.get(i - 1) >= MINUTE_MS);
+        }
+        assertEquals(90, (int) sentLevels.get(sentLevels.size() - 1));
+        assertTrue("Sent " + sentLevels, sentLevels.size() < broadcasts.size() / 10);
+    }
+
+    /** Same as {@code HidDeviceApp.sendBatteryLevel}. */
+    private void sendLevel(long timeMs, int percent) {
+        this.timeMs = timeMs;
+        report.setValue(percent / 100f);
+        scheduler.send();
+    }
+
+    /** Run the deferred report, if it is due by the given time. */
+    private void runDeferred(long timeMs) {
+        Runnable task = deferredTask;
+        if (task != null && deferredMs <= timeMs) {
+            deferredTask = null;
+            this.timeMs = deferredMs;
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BatteryReportTest {
+
+    private static final long MINUTE_MS = 60000;
+
+    private BatteryReport report;
+
+    @Before
+    public void setUp() {
+        report = new BatteryReport();
+    }
+
+    @Test
+    public void firstLevelIsSentRightAway() {
+        report.setValue(0.5f);
+        assertEquals(0, report.getSendDelayMs(0));
+        report.setSent(0);
+        assertEquals(BatteryReport.NEVER, report.getSendDelayMs(1000));
+    }
+
+    @Test
+    public void firstChangeNeedsTheHysteresisInBothDirections() {
+        report.setValue(0.5f);
+        report.setSent(0);
+
+        report.setValue(0.49f);
+        assertEquals(BatteryReport.NEVER, report.getSendDelayMs(10 * MINUTE_MS));
+        report.setValue(0.51f);
+        assertEquals(BatteryReport.NEVER, report.getSendDelayMs(10 * MINUTE_MS));
+        report.setValue(0.48f);
+        assertEquals(0, report.getSendDelayMs(10 * MINUTE_MS));
+    }
+
+    @Test
+    public void sameDirectionOnlyNeedsOnePercent() {
+        report.setValue(0.5f);
+        report.setSent(0);
+        report.setValue(0.48f);
+        report.setSent(MINUTE_MS);
+
+        report.setValue(0.47f);
+        assertEquals(0, report.getSendDelayMs(2 * MINUTE_MS));
+        report.setValue(0.49f);
+        assertEquals(BatteryReport.NEVER, report.getSendDelayMs(2 * MINUTE_MS));
+        report.setValue(0.5f);
+        assertEquals(0, report.getSendDelayMs(2 * MINUTE_MS));
+    }
+
+    @Test
+    public void levelWithinTheIntervalIsDeferred() {
+        report.setValue(0.5f);
+        report.setSent(0);
+        report.setValue(0.45f);
+        assertEquals(MINUTE_MS - 15000, report.getSendDelayMs(15000));
+        assertEquals(0, report.getSendDelayMs(MINUTE_MS));
+    }
+
+    @Test
+    public void resetSendsTheLevelAgain() {
+        report.setValue(0.5f);
+        report.setSent(0);
+        report.reset();
+        assertEquals(0, report.getSendDelayMs(1000));
+    }
+}
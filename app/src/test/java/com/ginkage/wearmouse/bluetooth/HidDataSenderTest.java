@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class HidDataSenderTest {
+
+    private static final long TIMEOUT_MS = 10000;
+    private static final int KEY_EVENTS = 10;
+
+    /** Takes {@code sendDelayMs} to send every report, like a congested Bluetooth link. */
+    private static class SlowHidDeviceApp extends HidDeviceApp {
+
+        final long sendDelayMs;
+        final List<Integer> keys = new ArrayList<>();
+        int totalX;
+
+        SlowHidDeviceApp(long sendDelayMs) {
+            this.sendDelayMs = sendDelayMs;
+        }
+
+        @Override
+        public void sendMouse(
+                boolean left, boolean right, boolean middle, int dX, int dY, int dWheel, int dPan) {
+            sleep();
+            synchronized (this) {
+                totalX += dX;
+                notifyAll();
+            }
+        }
+
+        @Override
+        public void sendKeyEvent(int modifier, int key, boolean down) {
+            sleep();
+            synchronized (this) {
+                if (down) {
+                    keys.add(key);
+                }
+                notifyAll();
+            }
+        }
+
+        private void sleep() {
+            try {
+                TimeUnit.MILLISECONDS.sleep(sendDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized void awaitReports(int keyCount, int x) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (keys.size() < keyCount || totalX < x) {
+                long left = deadline - System.currentTimeMillis();
+                assertTrue("Timed out waiting for the reports", left > 0);
+                wait(left);
+            }
+        }
+    }
+
+    /** Returns how long the producer calls took in total, in milliseconds. */
+    private static long sendAll(long sendDelayMs) throws InterruptedException {
+        SlowHidDeviceApp app = new SlowHidDeviceApp(sendDelayMs);
+        // The data path never touches the profile, so it doesn't need an adapter.
+        HidDataSender sender = new HidDataSender(app, new HidDeviceProfile(null));
+
+        // Nothing is connected yet, so this one must be dropped.
+        sender.sendKeyEvent(0, 1, true);
+        sender.connectForTesting();
+        try {
+            long startNs = System.nanoTime();
+            for (int i = 0; i < KEY_EVENTS; i++) {
+                sender.sendMouse(false, false, false, 1, 0, 0, 0);
+                sender.sendKeyEvent(0, 4 + i, true);
+                sender.sendMouse(false, false, false, 1, 0, 0, 0);
+                sender.sendKeyEvent(0, 4 + i, false);
+            }
+            long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+
+            app.awaitReports(KEY_EVENTS, 2 * KEY_EVENTS);
+            synchronized (app) {
+                assertEquals(Arrays.asList(4, 5, 6, 7, 8, 9, 10, 11, 12, 13), app.keys);
+                assertEquals(2 * KEY_EVENTS, app.totalX);
+            }
+            return elapsedMs;
+        } finally {
+            sender.disconnectForTesting();
+        }
+    }
+
+    @Test
+    public void producersDontWaitForSlowLink() throws InterruptedException {
+        long sendDelayMs = 50;
+        long fastMs = sendAll(0);
+        long slowMs = sendAll(sendDelayMs);
+
+        // Waiting for the link would cost a send delay per report, 2 seconds in total. The bound
+        // is a single send, so that only a producer that waits can fail it.
+        assertTrue("Producers took " + fastMs + " ms with an idle link", fastMs < sendDelayMs);
+        assertTrue("Producers took " + slowMs + " ms with a slow link", slowMs < sendDelayMs);
+    }
+}
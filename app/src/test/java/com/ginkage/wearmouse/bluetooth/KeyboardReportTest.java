@@ -0,0 +1,122 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeyboardReportTest {
+
+    private static final int SHIFT = 0x02;
+    private static final int NKRO_BYTES = 14;
+
+    private KeyboardReport report;
+
+    @Before
+    public void setUp() {
+        report = new KeyboardReport();
+    }
+
+    @Test
+    public void firstSixKeysUseTheArrayReport() {
+        for (int key = 4; key < 10; key++) {
+            assertEquals(KeyboardReport.CHANGED_ARRAY, report.setKey(0, key, true));
+        }
+        assertArrayEquals(new byte[] {0, 0, 4, 5, 6, 7, 8, 9}, report.getReport());
+        assertArrayEquals(new byte[NKRO_BYTES], report.getNkroReport());
+    }
+
+    @Test
+    public void unchangedStateIsNotReported() {
+        report.setKey(0, 4, true);
+        assertEquals(0, report.setKey(0, 4, true));
+        assertEquals(0, report.setValue(0, 4, 0, 0, 0, 0, 0));
+        assertEquals(0, report.setKey(0, 5, false));
+    }
+
+    @Test
+    public void keysBeyondSixGoToTheBitmapReport() {
+        for (int key = 4; key < 10; key++) {
+            report.setKey(0, key, true);
+        }
+        assertEquals(KeyboardReport.CHANGED_NKRO, report.setKey(0, 10, true));
+        assertArrayEquals(new byte[] {0, 0, 4, 5, 6, 7, 8, 9}, report.getReport());
+        assertEquals(1 << (10 & 7), report.getNkroReport()[1 + (10 >> 3)]);
+    }
+
+    @Test
+    public void keysStayInTheirReportUntilReleased() {
+        for (int key = 4; key < 11; key++) {
+            report.setKey(0, key, true);
+        }
+        // A free slot in the array doesn't take the key from the bitmap.
+        assertEquals(KeyboardReport.CHANGED_ARRAY, report.setKey(0, 5, false));
+        assertArrayEquals(new byte[] {0, 0, 4, 6, 7, 8, 9, 0}, report.getReport());
+        assertEquals(1 << (10 & 7), report.getNkroReport()[1 + (10 >> 3)]);
+
+        assertEquals(KeyboardReport.CHANGED_NKRO, report.setKey(0, 10, false));
+        assertArrayEquals(new byte[NKRO_BYTES], report.getNkroReport());
+        // The next key goes to the array again.
+        assertEquals(KeyboardReport.CHANGED_ARRAY, report.setKey(0, 11, true));
+        assertArrayEquals(new byte[] {0, 0, 4, 6, 7, 8, 9, 11}, report.getReport());
+    }
+
+    @Test
+    public void keysBeyondTheArrayRangeGoToTheBitmapReport() {
+        assertEquals(KeyboardReport.CHANGED_NKRO, report.setKey(0, 103, true));
+        assertArrayEquals(new byte[8], report.getReport());
+        assertEquals((byte) (1 << (103 & 7)), report.getNkroReport()[1 + (103 >> 3)]);
+    }
+
+    @Test
+    public void modifiersGoToTheBitmapReportOnceItIsUsed() {
+        assertEquals(KeyboardReport.CHANGED_ARRAY, report.setKey(SHIFT, 0, true));
+        for (int key = 4; key < 11; key++) {
+            report.setKey(SHIFT, key, true);
+        }
+        assertEquals(
+                KeyboardReport.CHANGED_ARRAY | KeyboardReport.CHANGED_NKRO,
+                report.setKey(0, 0, true));
+        assertEquals(0, report.getReport()[0]);
+        assertEquals(0, report.getNkroReport()[0]);
+    }
+
+    @Test
+    public void bootReportRollsOverBeyondSixKeys() {
+        for (int key = 4; key < 10; key++) {
+            report.setKey(0, key, true);
+        }
+        assertArrayEquals(new byte[] {0, 0, 4, 5, 6, 7, 8, 9}, report.getBootReport());
+        report.setKey(SHIFT, 10, true);
+        assertArrayEquals(new byte[] {SHIFT, 0, 1, 1, 1, 1, 1, 1}, report.getBootReport());
+    }
+
+    @Test
+    public void resetReleasesAllKeys() {
+        for (int key = 4; key < 11; key++) {
+            report.setKey(SHIFT, key, true);
+        }
+        report.reset();
+        assertArrayEquals(new byte[8], report.getReport());
+        assertArrayEquals(new byte[NKRO_BYTES], report.getNkroReport());
+        // Only the array report is used again.
+        assertEquals(KeyboardReport.CHANGED_ARRAY, report.setKey(SHIFT, 4, true));
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MouseReportSchedulerTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * Pointer movement of a fast horizontal flick, one entry per orientation event at 200 Hz, as
+     * {dX, dY} pairs.
+     */
+    private static final int[][] FLICK_TRACE = {
+        {3, 0}, {12, 1}, {40, 3}, {110, 6}, {260, 10}, {480, 14}, {720, 17}, {910, 18},
+        {980, 16}, {900, 12}, {700, 7}, {450, 3}, {240, 0}, {100, -2}, {35, -2}, {10, -1}, {2, 0}
+    };
+
+    /** Records the button state of every report. */
+    private static class FakeSender
+            implements MouseReport.MouseDataSender, DigitizerReport.DigitizerDataSender {
+
+        final List<Boolean> left = new ArrayList<>();
+        final List<Boolean> right = new ArrayList<>();
+        final List<Boolean> inRange = new ArrayList<>();
+        int totalX;
+        int totalY;
+        int totalWheel;
+        int minWheel;
+        int maxWheel;
+        volatile boolean stopped;
+        volatile int reportsAfterStop;
+        volatile int maxMovement = MouseReport.MAX_MOVEMENT;
+        volatile int wheelMultiplier = 1;
+
+        @Override
+        public synchronized void sendMouse(
+                boolean left, boolean right, boolean middle, int dX, int dY, int dWheel, int dPan) {
+            if (stopped) {
+                reportsAfterStop++;
+            }
+            this.left.add(left);
+            this.right.add(right);
+            totalX += dX;
+            totalY += dY;
+            totalWheel += dWheel;
+            minWheel = Math.min(minWheel, dWheel);
+            maxWheel = Math.max(maxWheel, dWheel);
+            notifyAll();
+        }
+
+        @Override
+        public int getMaxMovement() {
+            return maxMovement;
+        }
+
+        @Override
+        public int getWheelMultiplier() {
+            return wheelMultiplier;
+        }
+
+        @Override
+        public synchronized void sendDigitizer(
+                boolean tip, boolean barrel, boolean inRange, int x, int y) {
+            left.add(tip);
+            this.inRange.add(inRange);
+            notifyAll();
+        }
+
+        synchronized void awaitReports(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (left.size() < count) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("Timed out waiting for reports", remaining > 0);
+                wait(remaining);
+            }
+        }
+
+        synchronized void awaitWheel(int wheel) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (totalWheel != wheel) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("Timed out waiting for reports", remaining > 0);
+                wait(remaining);
+            }
+        }
+
+        synchronized void awaitMovement(int x, int y) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (totalX != x || totalY != y) {
+                long remaining = deadline - System.currentTimeMillis();
+                assertTrue("Timed out waiting for reports", remaining > 0);
+                wait(remaining);
+            }
+        }
+    }
+
+    private FakeSender sender;
+    private MouseReportScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        sender = new FakeSender();
+        scheduler = new MouseReportScheduler(sender, sender);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.stop();
+    }
+
+    @Test
+    public void sendsRepeatedButtonEvents() throws InterruptedException {
+        scheduler.start(false, false);
+        scheduler.setButton(MouseReportScheduler.BUTTON_LEFT, true);
+        scheduler.setButton(MouseReportScheduler.BUTTON_LEFT, true);
+        scheduler.setButton(MouseReportScheduler.BUTTON_LEFT, false);
+        scheduler.setButton(MouseReportScheduler.BUTTON_LEFT, false);
+        sender.awaitReports(4);
+        assertEquals(List.of(true, true, false, false), sender.left);
+    }
+
+    @Test
+    public void keepsButtonEventsWhenQueueIsFull() throws InterruptedException {
+        scheduler.start(false, false);
+        // Far more than the queue holds, and than get sent while they are being added.
+        List<Boolean> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            scheduler.setButton(MouseReportScheduler.BUTTON_LEFT, i % 2 == 0);
+            expected.add(i % 2 == 0);
+        }
+        sender.awaitReports(expected.size());
+        synchronized (sender) {
+            assertEquals(expected, sender.left);
+        }
+    }
+
+    @Test
+    public void sendsRepeatedButtonEventsInAbsoluteMode() throws InterruptedException {
+        scheduler.start(false, true);
+        scheduler.setButton(MouseReportScheduler.BUTTON_LEFT, true);
+        scheduler.setButton(MouseReportScheduler.BUTTON_LEFT, true);
+        sender.awaitReports(2);
+        assertEquals(List.of(true, true), sender.left);
+    }
+
+    @Test
+    public void sendsRightButtonWithMouseReportInAbsoluteMode() throws InterruptedException {
+        scheduler.start(false, true);
+        sender.awaitReports(1);
+        scheduler.setButton(MouseReportScheduler.BUTTON_RIGHT, true);
+        scheduler.setButton(MouseReportScheduler.BUTTON_RIGHT, false);
+        sender.awaitReports(3);
+        synchronized (sender) {
+            assertEquals(List.of(true, false), sender.right);
+        }
+    }
+
+    @Test
+    public void stopHidesThePointerInAbsoluteMode() throws InterruptedException {
+        scheduler.start(false, true);
+        scheduler.setPosition(100, 200);
+        sender.awaitReports(1);
+        scheduler.stop();
+        synchronized (sender) {
+            int last = sender.inRange.size() - 1;
+            assertFalse(sender.inRange.get(last));
+            assertFalse(sender.inRange.subList(0, last).contains(false));
+        }
+    }
+
+    @Test
+    public void splitsMovementAcrossReports() throws InterruptedException {
+        scheduler.start(false, false);
+        scheduler.addMovement(1000, -300);
+        scheduler.addMovement(-1, -2);
+        scheduler.addMovement(-500, 1);
+        sender.awaitMovement(499, -301);
+        synchronized (sender) {
+            // 499 doesn't fit in less than four reports of 127.
+            assertTrue(sender.left.size() >= 4);
+        }
+    }
+
+    @Test
+    public void splitsFastScrollAcrossReports() throws InterruptedException {
+        sender.wheelMultiplier = Constants.SCROLL_MULTIPLIER;
+        scheduler.start(false, false);
+        // A fast crown flick, which is more high resolution units than fit in one report.
+        scheduler.addScroll(40, 0);
+        sender.awaitWheel(40 * Constants.SCROLL_MULTIPLIER);
+        synchronized (sender) {
+            assertEquals(0, sender.minWheel);
+            assertTrue(sender.maxWheel <= MouseReport.MAX_MOVEMENT);
+        }
+    }
+
+    @Test
+    public void highResolutionSendsFewerReportsPerGesture() throws InterruptedException {
+        int standardReports = countReportsForFlick(MouseReport.MAX_MOVEMENT);
+        int highResReports = countReportsForFlick(MouseReport.MAX_MOVEMENT_HIGH_RES);
+
+        int expectedStandard = 0;
+        for (int[] event : FLICK_TRACE) {
+            int largest = Math.max(Math.abs(event[0]), Math.abs(event[1]));
+            expectedStandard += (largest + MouseReport.MAX_MOVEMENT - 1) / MouseReport.MAX_MOVEMENT;
+        }
+        assertEquals(expectedStandard, standardReports);
+        assertEquals(FLICK_TRACE.length, highResReports);
+    }
+
+    /** Replays {@link #FLICK_TRACE} one event per report, and counts the reports it took. */
+    private int countReportsForFlick(int maxMovement) throws InterruptedException {
+        sender = new FakeSender();
+        sender.maxMovement = maxMovement;
+        scheduler.stop();
+        scheduler = new MouseReportScheduler(sender, sender);
+        scheduler.start(false, false);
+
+        int x = 0;
+        int y = 0;
+        for (int[] event : FLICK_TRACE) {
+            scheduler.addMovement(event[0], event[1]);
+            x += event[0];
+            y += event[1];
+            sender.awaitMovement(x, y);
+        }
+        synchronized (sender) {
+            return sender.left.size();
+        }
+    }
+
+    @Test
+    public void stopWaitsForTheRunningFlush() {
+        for (int i = 0; i < 50; i++) {
+            scheduler.start(false, false);
+            scheduler.setButton(MouseReportScheduler.BUTTON_LEFT, true);
+            scheduler.addMovement(1000, 1000);
+            scheduler.stop();
+            sender.stopped = true;
+            Thread.yield();
+            assertEquals(0, sender.reportsAfterStop);
+            sender.stopped = false;
+        }
+    }
+}
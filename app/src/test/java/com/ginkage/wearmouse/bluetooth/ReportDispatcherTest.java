@@ -0,0 +1,179 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.bluetooth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReportDispatcherTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    /** Records the reports, optionally blocking the dispatch thread until released. */
+    private static class FakeSender
+            implements MouseReport.MouseDataSender,
+                    DigitizerReport.DigitizerDataSender,
+                    KeyboardReport.KeyboardDataSender,
+                    ConsumerReport.ConsumerDataSender {
+
+        final List<String> events = new ArrayList<>();
+        final CountDownLatch gate = new CountDownLatch(1);
+        volatile boolean blocking;
+        int mouseReports;
+        int totalX;
+
+        @Override
+        public void sendMouse(
+                boolean left, boolean right, boolean middle, int dX, int dY, int dWheel, int dPan) {
+            block();
+            synchronized (this) {
+                mouseReports++;
+                totalX += dX;
+                if (left) {
+                    events.add("left");
+                }
+                notifyAll();
+            }
+        }
+
+        @Override
+        public void sendDigitizer(boolean tip, boolean barrel, boolean inRange, int x, int y) {
+            record("digitizer " + x + "," + y);
+        }
+
+        @Override
+        public void sendKeyboard(
+                int modifier, int key1, int key2, int key3, int key4, int key5, int key6) {
+            record("keyboard " + key1);
+        }
+
+        @Override
+        public void sendKeyEvent(int modifier, int key, boolean down) {
+            record((down ? "down " : "up ") + key);
+        }
+
+        @Override
+        public void sendConsumer(int usage) {
+            record("consumer " + usage);
+        }
+
+        private void block() {
+            if (blocking) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void record(String event) {
+            block();
+            synchronized (this) {
+                events.add(event);
+                notifyAll();
+            }
+        }
+
+        synchronized void awaitEvents(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (events.size() < count) {
+                long left = deadline - System.currentTimeMillis();
+                assertTrue("Timed out waiting for the reports", left > 0);
+                wait(left);
+            }
+        }
+    }
+
+    private FakeSender sender;
+    private ReportDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        sender = new FakeSender();
+        dispatcher = new ReportDispatcher(sender, sender, sender, sender);
+        dispatcher.start();
+    }
+
+    @After
+    public void tearDown() {
+        sender.gate.countDown();
+        dispatcher.stop();
+    }
+
+    @Test
+    public void deliversReportsInOrder() throws InterruptedException {
+        dispatcher.sendKeyEvent(0, 4, true);
+        dispatcher.sendConsumer(ConsumerReport.VOLUME_UP);
+        dispatcher.sendDigitizer(false, false, true, 10, 20);
+        dispatcher.sendKeyEvent(0, 4, false);
+
+        sender.awaitEvents(4);
+        List<String> expected =
+                Arrays.asList(
+                        "down 4",
+                        "consumer " + ConsumerReport.VOLUME_UP,
+                        "digitizer 10,20",
+                        "up 4");
+        assertEquals(expected, sender.events);
+    }
+
+    @Test
+    public void keepsKeyReleasesWhenQueueIsFull() throws InterruptedException {
+        sender.blocking = true;
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int key = 4 + i % 26;
+            dispatcher.sendKeyEvent(0, key, true);
+            dispatcher.sendKeyEvent(0, key, false);
+            expected.add("down " + key);
+            expected.add("up " + key);
+        }
+        sender.blocking = false;
+        sender.gate.countDown();
+
+        sender.awaitEvents(expected.size());
+        assertEquals(expected, sender.events);
+    }
+
+    @Test
+    public void mergesMovementWhenQueueIsFull() throws InterruptedException {
+        sender.blocking = true;
+        for (int i = 0; i < 1000; i++) {
+            dispatcher.sendMouse(false, false, false, 1, 0, 0, 0);
+        }
+        dispatcher.sendMouse(true, false, false, 0, 0, 0, 0);
+        dispatcher.sendKeyEvent(0, 4, false);
+        sender.blocking = false;
+        sender.gate.countDown();
+
+        sender.awaitEvents(2);
+        synchronized (sender) {
+            assertEquals(Arrays.asList("left", "up 4"), sender.events);
+            assertEquals(1000, sender.totalX);
+            assertTrue("Movement wasn't merged", sender.mouseReports < 1000);
+        }
+    }
+}
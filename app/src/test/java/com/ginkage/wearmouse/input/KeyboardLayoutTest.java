@@ -0,0 +1,56 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.input;
+
+import static org.junit.Assert.assertEquals;
+
+import com.ginkage.wearmouse.input.KeyboardHelper.Modifier;
+import com.ginkage.wearmouse.input.KeyboardLayout.Layout;
+import org.junit.Test;
+
+public class KeyboardLayoutTest {
+
+    private static final int BACKSLASH = 0x31;
+    private static final int NON_US_HASH = 0x32;
+    private static final int SHIFT = Modifier.LEFT_SHIFT << 8;
+
+    @Test
+    public void ansiLayoutsUseTheBackslashKey() {
+        assertEquals(BACKSLASH, KeyboardLayout.get(Layout.US).getKey('\\'));
+        assertEquals(SHIFT | BACKSLASH, KeyboardLayout.get(Layout.US).getKey('|'));
+        assertEquals(BACKSLASH, KeyboardLayout.get(Layout.DVORAK).getKey('\\'));
+    }
+
+    @Test
+    public void isoLayoutsUseTheNonUsHashKey() {
+        KeyboardLayout german = KeyboardLayout.get(Layout.GERMAN);
+        assertEquals(NON_US_HASH, german.getKey('#'));
+        assertEquals(SHIFT | NON_US_HASH, german.getKey('\''));
+
+        KeyboardLayout french = KeyboardLayout.get(Layout.FRENCH);
+        assertEquals(NON_US_HASH, french.getKey('*'));
+        assertEquals(SHIFT | NON_US_HASH, french.getKey('\u00B5'));
+    }
+
+    @Test
+    public void isoLayoutsKeepTheOtherKeys() {
+        KeyboardLayout german = KeyboardLayout.get(Layout.GERMAN);
+        assertEquals(0x30, german.getKey('+'));
+        assertEquals(SHIFT | 0x30, german.getKey('*'));
+        assertEquals(0x1C, german.getKey('z'));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.input;
+
+import static org.junit.Assert.assertEquals;
+
+import com.ginkage.wearmouse.bluetooth.DigitizerReport;
+import com.ginkage.wearmouse.bluetooth.MouseReport;
+import com.ginkage.wearmouse.bluetooth.MouseReportScheduler;
+import java.lang.management.ManagementFactory;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MouseSensorListenerTest {
+
+    /** Long enough for the JIT to kick in, so that the measured run is the steady state. */
+    private static final int WARMUP_SAMPLES = 100000;
+
+    /** About 20 minutes of the sensor events. */
+    private static final int REPLAY_SAMPLES = 100000;
+
+    private static final double RATE_HZ = 89;
+
+    private MouseSensorListener listener;
+    private final double[] quaternion = new double[4];
+
+    @Before
+    public void setUp() {
+        MouseReport.MouseDataSender mouseSender = (l, r, m, x, y, wheel, pan) -> {};
+        DigitizerReport.DigitizerDataSender digitizerSender = (tip, barrel, inRange, x, y) -> {};
+        listener = new MouseSensorListener(new MouseReportScheduler(mouseSender, digitizerSender));
+        listener.onCreate();
+        listener.setStabilize(true);
+    }
+
+    @Test
+    public void relativeModeDoesNotAllocate() {
+        assertEquals(0, measureAllocatedBytes());
+    }
+
+    @Test
+    public void absoluteModeDoesNotAllocate() {
+        listener.setAbsolute(true);
+        assertEquals(0, measureAllocatedBytes());
+    }
+
+    private long measureAllocatedBytes() {
+        replay(0, WARMUP_SAMPLES);
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        // The first call may allocate on its own, so it is not a part of the measurement.
+        threads.getCurrentThreadAllocatedBytes();
+        long before = threads.getCurrentThreadAllocatedBytes();
+        long baseline = threads.getCurrentThreadAllocatedBytes() - before;
+        before = threads.getCurrentThreadAllocatedBytes();
+        replay(WARMUP_SAMPLES, REPLAY_SAMPLES);
+        return threads.getCurrentThreadAllocatedBytes() - before - baseline;
+    }
+
+    /** Feeds the listener with a slow wrist movement: yaw and pitch swinging back and forth. */
+    private void replay(int first, int count) {
+        for (int i = first; i < first + count; i++) {
+            double t = i / RATE_HZ;
+            double yaw = 0.5 * Math.sin(t * 0.7);
+            double pitch = 0.3 * Math.sin(t * 1.1);
+            double cy = Math.cos(yaw / 2);
+            double sy = Math.sin(yaw / 2);
+            double cp = Math.cos(pitch / 2);
+            double sp = Math.sin(pitch / 2);
+            quaternion[0] = sp * cy;
+            quaternion[1] = -sp * sy;
+            quaternion[2] = cp * sy;
+            quaternion[3] = cp * cy;
+            listener.onOrientation(quaternion);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright 2018 Google LLC All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ginkage.wearmouse.sensors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+public class CalibrationDataTest {
+
+    private static final double[] BIAS = {0.01, -0.02, 0.005};
+
+    /** Typical gyroscope noise of a watch lying still, rad/s. */
+    private static final double STILL_SIGMA = 0.005;
+
+    /** Noise of a watch that is being held in hand, rad/s. */
+    private static final double SHAKY_SIGMA = 0.05;
+
+    private static final int MAX_SAMPLES = 200;
+
+    @Test
+    public void streamingStatsMatchTheBatchComputation() {
+        double sumSquaredMedianError = 0;
+        int runs = 100;
+        for (int seed = 0; seed < runs; seed++) {
+            CalibrationData data = newCalibrationData();
+            List<float[]> samples = calibrate(data, new Random(seed), STILL_SIGMA);
+            int n = samples.size();
+
+            for (int axis = 0; axis < 3; axis++) {
+                double[] values = new double[n];
+                double sum = 0;
+                for (int i = 0; i < n; i++) {
+                    values[i] = samples.get(i)[axis];
+                    sum += values[i];
+                }
+                double mean = sum / n;
+                double squares = 0;
+                for (double value : values) {
+                    squares += (value - mean) * (value - mean);
+                }
+                Arrays.sort(values);
+                double median =
+                        (n % 2 == 1) ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2;
+
+                // Welford's algorithm is exact, up to the rounding.
+                assertEquals(mean, get(data.getMean(), axis), 1e-12);
+                assertEquals(Math.sqrt(squares / n), get(data.getSigma(), axis), 1e-12);
+
+                // The P-square median is an estimate. It shouldn't be far off compared to the
+                // standard error of the sample median itself, which is about 1.25 sigma / sqrt(n).
+                double medianError = get(data.getMedian(), axis) - median;
+                double standardError = 1.2533 * STILL_SIGMA / Math.sqrt(n);
+                assertTrue(
+                        "Median error " + medianError + " with seed " + seed,
+                        Math.abs(medianError) < 3 * standardError);
+                double relativeError = medianError / standardError;
+                sumSquaredMedianError += relativeError * relativeError;
+            }
+        }
+        double rmsMedianError = Math.sqrt(sumSquaredMedianError / (3 * runs));
+        assertTrue("RMS median error is " + rmsMedianError + " SE", rmsMedianError < 1);
+    }
+
+    @Test
+    public void stillWatchFinishesEarly() {
+        for (int seed = 0; seed < 100; seed++) {
+            CalibrationData data = newCalibrationData();
+            int n = calibrate(data, new Random(seed), STILL_SIGMA).size();
+            assertTrue("Took " + n + " samples with seed " + seed, n < 50);
+            for (int axis = 0; axis < 3; axis++) {
+                assertTrue(get(data.getDelta(), axis) < 0.002);
+                // The interval only holds 95% of the time, so allow twice its width.
+                assertEquals(BIAS[axis], get(data.getMean(), axis), 0.004);
+            }
+        }
+    }
+
+    @Test
+    public void shakyWatchWaitsForAllSamples() {
+        CalibrationData data = newCalibrationData();
+        assertEquals(MAX_SAMPLES, calibrate(data, new Random(0), SHAKY_SIGMA).size());
+        assertTrue(data.isComplete());
+    }
+
+    @Test
+    public void resetStartsOver() {
+        CalibrationData data = newCalibrationData();
+        calibrate(data, new Random(0), STILL_SIGMA);
+        data.reset();
+        assertFalse(data.isComplete());
+        assertFalse(data.add(new float[] {0, 0, 0}));
+    }
+
+    /** Feeds Gaussian noise around {@link #BIAS} until calibration is complete. */
+    private static List<float[]> calibrate(CalibrationData data, Random random, double sigma) {
+        List<float[]> samples = new ArrayList<>();
+        boolean complete = false;
+        while (!complete) {
+            assertTrue("Calibration never finished", samples.size() < 1000);
+            float[] sample = new float[3];
+            for (int axis = 0; axis < 3; axis++) {
+                sample[axis] = (float) (BIAS[axis] + random.nextGaussian() * sigma);
+            }
+            samples.add(sample);
+            complete = data.add(sample);
+        }
+        return samples;
+    }
+
+    private static double get(Vector vector, int axis) {
+        return axis == 0 ? vector.x : axis == 1 ? vector.y : vector.z;
+    }
+
+    private static CalibrationData newCalibrationData() {
+        SharedPreferences preferences = new FakePreferences();
+        Context context =
+                new ContextWrapper(null) {
+                    @Override
+                    public SharedPreferences getSharedPreferences(String name, int mode) {
+                        return preferences;
+                    }
+                };
+        CalibrationData data = new CalibrationData(context);
+        data.reset();
+        return data;
+    }
+
+    /** In-memory preferences, which is all CalibrationData needs from the context. */
+    private static class FakePreferences implements SharedPreferences, SharedPreferences.Editor {
+        private final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public Map<String, ?> getAll() {
+            return values;
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            return (String) values.getOrDefault(key, defValue);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return (Set<String>) values.getOrDefault(key, defValues);
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return (Integer) values.getOrDefault(key, defValue);
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return (Long) values.getOrDefault(key, defValue);
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return (Float) values.getOrDefault(key, defValue);
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return (Boolean) values.getOrDefault(key, defValue);
+        }
+
+        @Override
+        public boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return this;
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {}
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(
+                OnSharedPreferenceChangeListener listener) {}
+
+        @Override
+        public Editor putString(String key, String value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            values.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            values.remove(key);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            values.clear();
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return true;
+        }
+
+        @Override
+        public void apply() {}
+    }
+}